@@ -2,6 +2,7 @@ package com.gpl.rpg.AndorsTrail;
 
 import android.app.Activity;
 import android.app.Application;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.res.Configuration;
 import android.content.res.Resources;
@@ -20,6 +21,9 @@ public final class AndorsTrailApplication extends Application {
 	public static final boolean DEVELOPMENT_DEBUGBUTTONS = false;
 	public static final boolean DEVELOPMENT_VALIDATEDATA = true;
 	public static final boolean DEVELOPMENT_DEBUGMESSAGES = true;
+	public static final boolean DEVELOPMENT_BENCHMARK_JSONPARSERS = false;
+	public static final boolean DEVELOPMENT_TRACE_ALLOCATIONS = false;
+	public static final boolean DEVELOPMENT_WRITE_TRACE_REPORTS = false;
 	public static final boolean DEVELOPMENT_INCOMPATIBLE_SAVEGAMES = DEVELOPMENT_DEBUGRESOURCES || DEVELOPMENT_DEBUGBUTTONS;
 	public static final int CURRENT_VERSION = DEVELOPMENT_INCOMPATIBLE_SAVEGAMES ? 999 : 42;
 	public static final String CURRENT_VERSION_DISPLAY = "0.7.2dev";
@@ -44,6 +48,20 @@ public final class AndorsTrailApplication extends Application {
 		return (Activity) context;
 	}
 
+	@Override
+	public void onTrimMemory(int level) {
+		super.onTrimMemory(level);
+		world.tileManager.onTrimMemory(level);
+		world.conversationLoader.onTrimMemory(level);
+	}
+
+	@Override
+	public void onLowMemory() {
+		super.onLowMemory();
+		world.tileManager.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+		world.conversationLoader.release();
+	}
+
 	public boolean isInitialized() { return world.model != null; }
 
 	public void setWindowParameters(Activity activity) {
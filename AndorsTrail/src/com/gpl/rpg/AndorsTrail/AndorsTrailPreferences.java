@@ -47,6 +47,7 @@ public final class AndorsTrailPreferences {
 	public int dpadPosition;
 	public boolean dpadMinimizeable = true;
 	public boolean optimizedDrawing = false;
+	public boolean showFrameStatistics = false;
 	public boolean enableUiAnimations = true;
 	public int displayOverwriteSavegame = CONFIRM_OVERWRITE_SAVEGAME_ALWAYS;
 	public int quickslotsPosition = QUICKSLOTS_POSITION_HORIZONTAL_CENTER_BOTTOM;
@@ -67,6 +68,7 @@ public final class AndorsTrailPreferences {
 			dest.dpadPosition = Integer.parseInt(prefs.getString("dpadposition", Integer.toString(DPAD_POSITION_DISABLED)));
 			dest.dpadMinimizeable = prefs.getBoolean("dpadMinimizeable", true);
 			dest.optimizedDrawing = prefs.getBoolean("optimized_drawing", false);
+			dest.showFrameStatistics = prefs.getBoolean("show_frame_statistics", false);
 			dest.enableUiAnimations = prefs.getBoolean("enableUiAnimations", true);
 			dest.displayOverwriteSavegame = Integer.parseInt(prefs.getString("display_overwrite_savegame", Integer.toString(CONFIRM_OVERWRITE_SAVEGAME_ALWAYS)));
 			dest.quickslotsPosition = Integer.parseInt(prefs.getString("quickslots_placement", Integer.toString(QUICKSLOTS_POSITION_HORIZONTAL_CENTER_BOTTOM)));
@@ -87,6 +89,7 @@ public final class AndorsTrailPreferences {
 			dest.dpadPosition = DPAD_POSITION_DISABLED;
 			dest.dpadMinimizeable = true;
 			dest.optimizedDrawing = false;
+			dest.showFrameStatistics = false;
 			dest.enableUiAnimations = true;
 			dest.displayOverwriteSavegame = CONFIRM_OVERWRITE_SAVEGAME_ALWAYS;
 			dest.quickslotsPosition = QUICKSLOTS_POSITION_HORIZONTAL_CENTER_BOTTOM;
@@ -26,6 +26,7 @@ import com.gpl.rpg.AndorsTrail.model.item.Inventory;
 import com.gpl.rpg.AndorsTrail.model.item.ItemType;
 import com.gpl.rpg.AndorsTrail.model.item.Loot;
 import com.gpl.rpg.AndorsTrail.model.map.MapObject;
+import com.gpl.rpg.AndorsTrail.resource.tiles.TileCollection;
 import com.gpl.rpg.AndorsTrail.resource.tiles.TileManager;
 import com.gpl.rpg.AndorsTrail.view.ItemContainerAdapter;
 
@@ -66,8 +67,20 @@ public final class Dialogs {
 		showConversation(currentActivity, context, phraseID, npc, true);
 	}
 
-	private static void showConversation(final MainActivity currentActivity, final ControllerContext context, final String phraseID, final Monster npc, boolean applyScriptEffectsForFirstPhrase) {
+	private static void showConversation(final MainActivity currentActivity, final ControllerContext context, final String phraseID, final Monster npc, final boolean applyScriptEffectsForFirstPhrase) {
 		context.gameRoundController.pause();
+		final WorldContext world = AndorsTrailApplication.getApplicationFromActivity(currentActivity).getWorld();
+		if (!world.conversationLoader.isIndexLoaded()) {
+			// Right after the game has started, the conversation index may still be loading. The conversation is
+			// shown once it has been loaded, instead of blocking the main thread until then.
+			world.conversationLoader.whenIndexLoaded(new Runnable() {
+				@Override
+				public void run() {
+					showConversation(currentActivity, context, phraseID, npc, applyScriptEffectsForFirstPhrase);
+				}
+			});
+			return;
+		}
 		Intent intent = new Intent(currentActivity, ConversationActivity.class);
 		intent.setData(Uri.parse("content://com.gpl.rpg.AndorsTrail/conversation/" + phraseID));
 		intent.putExtra("applyScriptEffectsForFirstPhrase", applyScriptEffectsForFirstPhrase);
@@ -196,7 +209,8 @@ public final class Dialogs {
 				((ItemContainerAdapter) itemList.getAdapter()).notifyDataSetChanged();
 			}
 		});
-		itemList.setAdapter(new ItemContainerAdapter(mainActivity, world.tileManager, combinedLoot.items, world.model.player));
+		final TileCollection tiles = world.tileManager.loadTilesFor(combinedLoot.items, mainActivity.getResources());
+		itemList.setAdapter(new ItemContainerAdapter(mainActivity, world.tileManager, combinedLoot.items, world.model.player, tiles));
 
 		AlertDialog.Builder db = new AlertDialog.Builder(mainActivity)
 		.setTitle(title)
@@ -220,6 +234,7 @@ public final class Dialogs {
 			@Override
 			public void onDismiss(DialogInterface arg0) {
 				controllers.itemController.removeLootBagIfEmpty(lootBags);
+				tiles.release();
 			}
 		});
 	}
@@ -8,6 +8,7 @@ import com.gpl.rpg.AndorsTrail.context.WorldContext;
 import com.gpl.rpg.AndorsTrail.model.ModelContainer;
 import com.gpl.rpg.AndorsTrail.resource.ResourceLoader;
 import com.gpl.rpg.AndorsTrail.savegames.Savegames;
+import com.gpl.rpg.AndorsTrail.util.Tracing;
 
 import java.lang.ref.WeakReference;
 
@@ -56,7 +57,12 @@ public final class WorldSetup {
 		(new AsyncTask<Void, Void, Void>() {
 			@Override
 			protected Void doInBackground(Void... arg0) {
-				ResourceLoader.loadResources(world, r);
+				final Tracing.Span span = Tracing.begin("WorldSetup.startResourceLoader");
+				try {
+					ResourceLoader.loadResources(world, r, androidContext.get());
+				} finally {
+					span.end();
+				}
 				return null;
 			}
 
@@ -111,6 +117,7 @@ public final class WorldSetup {
 					}
 					createNewCharacter = false;
 				}
+				if (Savegames.shouldWriteTraceReport(controllers.preferences)) Savegames.writeTraceReport();
 				return null;
 			}
 
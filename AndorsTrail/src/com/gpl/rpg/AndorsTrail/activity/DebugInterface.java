@@ -2,6 +2,7 @@ package com.gpl.rpg.AndorsTrail.activity;
 
 import android.content.Context;
 import android.content.res.Resources;
+import android.os.AsyncTask;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.widget.Button;
@@ -11,6 +12,7 @@ import com.gpl.rpg.AndorsTrail.AndorsTrailApplication;
 import com.gpl.rpg.AndorsTrail.R;
 import com.gpl.rpg.AndorsTrail.context.ControllerContext;
 import com.gpl.rpg.AndorsTrail.context.WorldContext;
+import com.gpl.rpg.AndorsTrail.controller.PathFinderBenchmark;
 import com.gpl.rpg.AndorsTrail.model.map.PredefinedMap;
 
 @SuppressWarnings("unused")
@@ -98,6 +100,22 @@ public final class DebugInterface {
 					showToast(mainActivity, "DEBUG: hp set to max", Toast.LENGTH_SHORT);
 				}
 			})
+			,new DebugButton("path", new OnClickListener() {
+				@Override
+				public void onClick(View arg0) {
+					showToast(mainActivity, "DEBUG: running path finder benchmark", Toast.LENGTH_SHORT);
+					(new AsyncTask<Void, Void, String>() {
+						@Override
+						protected String doInBackground(Void... arg0) {
+							return PathFinderBenchmark.run(res, world);
+						}
+						@Override
+						protected void onPostExecute(String report) {
+							showToast(mainActivity, report, Toast.LENGTH_LONG);
+						}
+					}).execute();
+				}
+			})
 			/*
 			,new DebugButton("cg", new OnClickListener() {
 				@Override
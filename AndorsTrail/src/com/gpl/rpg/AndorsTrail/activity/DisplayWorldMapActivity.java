@@ -1,27 +1,31 @@
 package com.gpl.rpg.AndorsTrail.activity;
 
-import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.os.Bundle;
 import android.view.View;
 import android.view.View.OnClickListener;
-import android.webkit.WebView;
 import android.widget.Button;
 import android.widget.Toast;
+import android.widget.ZoomControls;
 import com.gpl.rpg.AndorsTrail.AndorsTrailApplication;
 import com.gpl.rpg.AndorsTrail.R;
 import com.gpl.rpg.AndorsTrail.context.WorldContext;
 import com.gpl.rpg.AndorsTrail.controller.WorldMapController;
+import com.gpl.rpg.AndorsTrail.controller.WorldMapTilePyramid;
 import com.gpl.rpg.AndorsTrail.model.map.WorldMapSegment;
+import com.gpl.rpg.AndorsTrail.model.map.WorldMapSegment.NamedWorldMapArea;
 import com.gpl.rpg.AndorsTrail.model.map.WorldMapSegment.WorldMapSegmentMap;
-import com.gpl.rpg.AndorsTrail.util.L;
+import com.gpl.rpg.AndorsTrail.util.Coord;
+import com.gpl.rpg.AndorsTrail.util.CoordRect;
+import com.gpl.rpg.AndorsTrail.view.WorldMapView;
 
-import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
 
 public final class DisplayWorldMapActivity extends Activity {
 	private WorldContext world;
 
-	private WebView displayworldmap_webview;
+	private WorldMapView displayworldmap_view;
 	private String worldMapSegmentName;
 
 	@Override
@@ -36,11 +40,21 @@ public final class DisplayWorldMapActivity extends Activity {
 
 		setContentView(R.layout.displayworldmap);
 
-		displayworldmap_webview = (WebView) findViewById(R.id.displayworldmap_webview);
-		displayworldmap_webview.setBackgroundColor(getResources().getColor(R.color.displayworldmap_background));
-		displayworldmap_webview.getSettings().setBuiltInZoomControls(true);
-		displayworldmap_webview.getSettings().setUseWideViewPort(true);
-		enableJavascript();
+		displayworldmap_view = (WorldMapView) findViewById(R.id.displayworldmap_view);
+
+		ZoomControls zoom = (ZoomControls) findViewById(R.id.displayworldmap_zoom);
+		zoom.setOnZoomInClickListener(new OnClickListener() {
+			@Override
+			public void onClick(View v) {
+				displayworldmap_view.zoomIn();
+			}
+		});
+		zoom.setOnZoomOutClickListener(new OnClickListener() {
+			@Override
+			public void onClick(View v) {
+				displayworldmap_view.zoomOut();
+			}
+		});
 
 		Button b = (Button) findViewById(R.id.displayworldmap_close);
 		b.setOnClickListener(new OnClickListener() {
@@ -53,37 +67,48 @@ public final class DisplayWorldMapActivity extends Activity {
 		worldMapSegmentName = getIntent().getStringExtra("worldMapSegmentName");
 	}
 
-	@SuppressLint("SetJavaScriptEnabled")
-	public void enableJavascript() {
-		displayworldmap_webview.getSettings().setJavaScriptEnabled(true);
-	}
-
 	@Override
 	public void onResume() {
 		super.onResume();
 		update();
 	}
 
+	@Override
+	public void onPause() {
+		super.onPause();
+		displayworldmap_view.recycleTiles();
+	}
+
 	private void update() {
-		File worldmap = WorldMapController.getCombinedWorldMapFile(worldMapSegmentName);
+		WorldMapTilePyramid pyramid = WorldMapController.getWorldMapTilePyramid(worldMapSegmentName);
 
-		if (!worldmap.exists()) {
+		if (!pyramid.exists()) {
 			Toast.makeText(this, getResources().getString(R.string.menu_button_worldmap_failed), Toast.LENGTH_LONG).show();
 			this.finish();
+			return;
 		}
 
-		WorldMapSegment segment = world.maps.worldMapSegments.get(worldMapSegmentName);
+		WorldMapSegment segment = world.maps.getWorldMapSegment(worldMapSegmentName);
 		WorldMapSegmentMap map = segment.maps.get(world.model.currentMap.name);
 		if (map == null) {
 			this.finish();
 			return;
 		}
 
-		String url = "file://" + worldmap.getAbsolutePath() + '?'
-				+ (world.model.player.position.x + map.worldPosition.x) * WorldMapController.WORLDMAP_DISPLAY_TILESIZE
-				+ ','
-				+ (world.model.player.position.y + map.worldPosition.y-1) * WorldMapController.WORLDMAP_DISPLAY_TILESIZE;
-		L.log("Showing " + url);
-		displayworldmap_webview.loadUrl(url);
+		HashMap<String, CoordRect> displayedMapAreas = WorldMapController.getDisplayedMapAreas(world, segment, pyramid);
+		ArrayList<NamedWorldMapArea> namedAreas = new ArrayList<NamedWorldMapArea>();
+		ArrayList<CoordRect> namedAreaBoundaries = new ArrayList<CoordRect>();
+		for (NamedWorldMapArea area : segment.namedAreas.values()) {
+			CoordRect r = WorldMapController.determineNamedAreaBoundary(area, segment, world, displayedMapAreas.keySet());
+			if (r == null) continue;
+			namedAreas.add(area);
+			namedAreaBoundaries.add(r);
+		}
+
+		Coord playerPosition = new Coord(
+				world.model.player.position.x + map.worldPosition.x
+				,world.model.player.position.y + map.worldPosition.y
+			);
+		displayworldmap_view.setWorldMap(pyramid, new ArrayList<CoordRect>(displayedMapAreas.values()), namedAreas, namedAreaBoundaries, playerPosition);
 	}
 }
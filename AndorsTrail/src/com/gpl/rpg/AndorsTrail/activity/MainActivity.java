@@ -17,6 +17,7 @@ import com.gpl.rpg.AndorsTrail.context.ControllerContext;
 import com.gpl.rpg.AndorsTrail.context.WorldContext;
 import com.gpl.rpg.AndorsTrail.controller.AttackResult;
 import com.gpl.rpg.AndorsTrail.controller.CombatController;
+import com.gpl.rpg.AndorsTrail.controller.WorldMapController;
 import com.gpl.rpg.AndorsTrail.controller.listeners.CombatActionListener;
 import com.gpl.rpg.AndorsTrail.controller.listeners.CombatTurnListener;
 import com.gpl.rpg.AndorsTrail.controller.listeners.PlayerMovementListener;
@@ -157,6 +158,7 @@ public final class MainActivity
 		super.onPause();
 		controllers.gameRoundController.pause();
 		controllers.movementController.stopMovement();
+		WorldMapController.writePendingWorldMapImages();
 
 		save(Savegames.SLOT_QUICKSAVE);
 	}
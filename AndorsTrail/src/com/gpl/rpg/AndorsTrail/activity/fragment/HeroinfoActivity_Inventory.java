@@ -93,6 +93,13 @@ public final class HeroinfoActivity_Inventory extends Fragment {
 		return v;
 	}
 
+	@Override
+	public void onDestroyView() {
+		super.onDestroyView();
+		if (wornTiles != null) wornTiles.release();
+		wornTiles = null;
+	}
+
 	@Override
 	public void onStart() {
 		super.onStart();
@@ -33,6 +33,7 @@ public abstract class ShopActivityFragment extends Fragment implements OnContain
 	protected ItemContainer shopInventory;
 	private TextView shop_gc;
 	private ShopItemContainerAdapter listAdapter;
+	private TileCollection tiles;
 
 	protected abstract boolean isSellingInterface();
 
@@ -62,7 +63,7 @@ public abstract class ShopActivityFragment extends Fragment implements OnContain
 
 		HashSet<Integer> iconIDs = world.tileManager.getTileIDsFor(shopInventory);
 		iconIDs.addAll(world.tileManager.getTileIDsFor(player.inventory));
-		TileCollection tiles = world.tileManager.loadTilesFor(iconIDs, res);
+		tiles = world.tileManager.loadTilesFor(iconIDs, res);
 		final boolean isSelling = isSellingInterface();
 		listAdapter = new ShopItemContainerAdapter(getActivity(), tiles, world.tileManager, player, isSelling ? player.inventory : shopInventory, this, isSelling);
 		shoplist.setAdapter(listAdapter);
@@ -86,6 +87,13 @@ public abstract class ShopActivityFragment extends Fragment implements OnContain
 		update();
 	}
 
+	@Override
+	public void onDestroyView() {
+		super.onDestroyView();
+		if (tiles != null) tiles.release();
+		tiles = null;
+	}
+
 	@Override
 	public void onPause() {
 		super.onPause();
@@ -24,6 +24,7 @@ public final class Constants {
 	public static final int MAX_MAP_HEIGHT = 33;
 
 	public static final int MONSTER_MOVEMENT_TURN_DURATION_MS = 1200;
+	public static final int MONSTER_PATHFINDING_MAX_ITERATIONS = 300;
 
 	public static final int TICK_DELAY = 500;
 	private static final int ROUND_DURATION = 6000;
@@ -39,9 +40,9 @@ public final class Constants {
 	public static final String FILENAME_SAVEGAME_QUICKSAVE = "savegame";
 	public static final String FILENAME_SAVEGAME_DIRECTORY = "andors-trail";
 	public static final String FILENAME_WORLDMAP_DIRECTORY = "worldmap";
-	public static final String FILENAME_WORLDMAP_HTMLFILE_PREFIX = "worldmap_";
-	public static final String FILENAME_WORLDMAP_HTMLFILE_SUFFIX = ".html";
 	public static final String FILENAME_SAVEGAME_FILENAME_PREFIX = "savegame";
+	public static final String FILENAME_TRACE_REPORT = "trace.json";
+	public static final String FILENAME_FRAME_STATISTICS_REPORT = "framestats.json";
 	public static final String PLACEHOLDER_PLAYERNAME = "$playername";
 
 	public static final Random rnd = new Random();
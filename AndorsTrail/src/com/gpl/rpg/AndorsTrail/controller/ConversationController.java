@@ -144,7 +144,7 @@ public final class ConversationController {
 		PredefinedMap map = findMapForScriptEffect(mapName);
 		for (MonsterSpawnArea area : map.spawnAreas) {
 			if (!area.monsterTypeSpawnGroup.equals(monsterTypeSpawnGroup)) continue;
-			controllers.monsterSpawnController.deactivateSpawnArea(area, removeAllMonsters);
+			controllers.monsterSpawnController.deactivateSpawnArea(map, area, removeAllMonsters);
 		}
 	}
 
@@ -278,7 +278,6 @@ public final class ConversationController {
 	}
 
 	public static final class ConversationStatemachine {
-		private final ConversationCollection conversationCollection = new ConversationCollection();
 		private final WorldContext world;
 		private final ControllerContext controllers;
 		private final Player player;
@@ -320,7 +319,7 @@ public final class ConversationController {
 
 		private void setCurrentPhrase(final Resources res, String phraseID) {
 			this.currentPhraseID = phraseID;
-			this.currentPhrase = world.conversationLoader.loadPhrase(phraseID, conversationCollection, res);
+			this.currentPhrase = world.conversationLoader.loadPhrase(phraseID, res);
 			if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) {
 				if (currentPhrase == null) currentPhrase = new Phrase("(phrase \"" + phraseID + "\" not implemented yet)", null, null, null);
 			}
@@ -0,0 +1,90 @@
+package com.gpl.rpg.AndorsTrail.controller;
+
+import com.gpl.rpg.AndorsTrail.controller.PathFinder.EvaluateWalkable;
+import com.gpl.rpg.AndorsTrail.util.Coord;
+import com.gpl.rpg.AndorsTrail.util.CoordRect;
+import com.gpl.rpg.AndorsTrail.util.Size;
+
+import java.util.Arrays;
+
+// The number of steps from every tile of a map to a target, for one tile actors that move in any of the eight
+// directions. Built with one breadth first search outwards from the target, so that any number of actors can find
+// their next step towards the target by looking at the tiles around them.
+//
+// The target itself is not evaluated, since it is usually taken by the actor that is being hunted.
+public final class DistanceField {
+	public static final int UNREACHABLE = -1;
+
+	private final int maxWidth;
+	private final int maxHeight;
+	private final EvaluateWalkable map;
+	private final int[] distance;
+	private final int[] queue;
+	private final CoordRect probe = new CoordRect(new Size(1, 1));
+	private int width;
+	private int height;
+
+	public DistanceField(int maxWidth, int maxHeight, EvaluateWalkable map) {
+		this.maxWidth = maxWidth;
+		this.maxHeight = maxHeight;
+		this.map = map;
+		this.distance = new int[maxWidth * maxHeight];
+		this.queue = new int[maxWidth * maxHeight];
+	}
+
+	public void build(Size mapSize, Coord target) {
+		width = Math.min(maxWidth, mapSize.width);
+		height = Math.min(maxHeight, mapSize.height);
+		Arrays.fill(distance, UNREACHABLE);
+		if (isOutside(target.x, target.y)) return;
+
+		int head = 0;
+		int tail = 0;
+		final int start = target.y * maxWidth + target.x;
+		distance[start] = 0;
+		queue[tail++] = start;
+		while (head < tail) {
+			final int node = queue[head++];
+			final int x = node % maxWidth;
+			final int y = node / maxWidth;
+			final int d = distance[node] + 1;
+			tail = visit(x - 1, y - 1, d, tail);
+			tail = visit(x    , y - 1, d, tail);
+			tail = visit(x + 1, y - 1, d, tail);
+			tail = visit(x - 1, y    , d, tail);
+			tail = visit(x + 1, y    , d, tail);
+			tail = visit(x - 1, y + 1, d, tail);
+			tail = visit(x    , y + 1, d, tail);
+			tail = visit(x + 1, y + 1, d, tail);
+		}
+	}
+
+	// Blocked tiles are marked with UNREACHABLE - 1, so that they are only evaluated once.
+	private int visit(int x, int y, int d, int tail) {
+		if (isOutside(x, y)) return tail;
+		final int node = y * maxWidth + x;
+		if (distance[node] != UNREACHABLE) return tail;
+		probe.topLeft.set(x, y);
+		if (!map.isWalkable(probe)) {
+			distance[node] = UNREACHABLE - 1;
+			return tail;
+		}
+		distance[node] = d;
+		queue[tail] = node;
+		return tail + 1;
+	}
+
+	private boolean isOutside(int x, int y) {
+		if (x < 0) return true;
+		if (y < 0) return true;
+		if (x >= width) return true;
+		if (y >= height) return true;
+		return false;
+	}
+
+	public int getDistance(int x, int y) {
+		if (isOutside(x, y)) return UNREACHABLE;
+		final int d = distance[y * maxWidth + x];
+		return d < 0 ? UNREACHABLE : d;
+	}
+}
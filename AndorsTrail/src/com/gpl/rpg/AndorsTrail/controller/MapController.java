@@ -90,7 +90,19 @@ public final class MapController {
 		return true;
 	}
 
-	private void runScriptArea(MapObject o) {
+	private void runScriptArea(final MapObject o) {
+		if (!world.conversationLoader.isIndexLoaded()) {
+			// Right after the game has started, the conversation index may still be loading. The script is run once
+			// it has been loaded, if the player is still on the same map.
+			final PredefinedMap map = world.model.currentMap;
+			world.conversationLoader.whenIndexLoaded(new Runnable() {
+				@Override
+				public void run() {
+					if (world.model.currentMap == map) runScriptArea(o);
+				}
+			});
+			return;
+		}
 		Resources res = controllers.getResources();
 		mapScriptExecutor.proceedToPhrase(res, o.id, true, true);
 		controllers.mapController.applyCurrentMapReplacements(res, true);
@@ -171,7 +183,6 @@ public final class MapController {
 
 	public void applyCurrentMapReplacements(final Resources res, boolean updateWorldmap) {
 		if (!applyReplacements(world.model.currentMap, world.model.currentTileMap)) return;
-		world.maps.worldMapRequiresUpdate = true;
 
 		if (!updateWorldmap) return;
 		WorldMapController.updateWorldMap(world, res);
@@ -0,0 +1,62 @@
+package com.gpl.rpg.AndorsTrail.controller;
+
+import com.gpl.rpg.AndorsTrail.model.actor.Monster;
+import com.gpl.rpg.AndorsTrail.model.map.MonsterSpawnArea;
+
+import java.util.ArrayList;
+
+// A timing wheel of the monsters of one map, keyed on Monster.nextActionTime, so that each tick only looks at the
+// monsters that may be due instead of at every monster of the map.
+//
+// Each slot holds the monsters whose next action is due within one SLOT_DURATION_MS long part of the wheel. A monster
+// whose next action is further away than one turn of the wheel stays in its slot for several turns, and is passed over
+// until it is due. A monster whose next action is already due is put in the slot that was processed last, which is
+// processed again on the next tick, so it acts on the next tick just like before.
+public final class MonsterActionScheduler {
+	private static final int SLOT_DURATION_MS = Constants.TICK_DELAY;
+	private static final int NUM_SLOTS = 128; // A power of two.
+
+	public static final class Entry {
+		public final Monster monster;
+		public final MonsterSpawnArea area;
+		public Entry(Monster monster, MonsterSpawnArea area) {
+			this.monster = monster;
+			this.area = area;
+		}
+	}
+
+	private final ArrayList<ArrayList<Entry>> slots = new ArrayList<ArrayList<Entry>>(NUM_SLOTS);
+	private long lastProcessedSlot;
+
+	public MonsterActionScheduler() {
+		for (int i = 0; i < NUM_SLOTS; ++i) slots.add(new ArrayList<Entry>());
+	}
+
+	public void clear(long currentTime) {
+		for (ArrayList<Entry> slot : slots) slot.clear();
+		lastProcessedSlot = currentTime / SLOT_DURATION_MS;
+	}
+
+	public void schedule(Entry e) {
+		final long slot = Math.max(lastProcessedSlot, e.monster.nextActionTime / SLOT_DURATION_MS);
+		slots.get((int) (slot & (NUM_SLOTS - 1))).add(e);
+	}
+
+	// Moves the entries that are due at currentTime from the wheel to dest, in the order of their slots.
+	public void takeDue(long currentTime, ArrayList<Entry> dest) {
+		final long currentSlot = currentTime / SLOT_DURATION_MS;
+		final long firstSlot = Math.max(lastProcessedSlot, currentSlot - NUM_SLOTS + 1);
+		final long lastSlot = Math.max(lastProcessedSlot, currentSlot); // In case the clock was set back.
+		for (long s = firstSlot; s <= lastSlot; ++s) {
+			final ArrayList<Entry> slot = slots.get((int) (s & (NUM_SLOTS - 1)));
+			int kept = 0;
+			for (int i = 0; i < slot.size(); ++i) {
+				final Entry e = slot.get(i);
+				if (e.monster.nextActionTime <= currentTime) dest.add(e);
+				else slot.set(kept++, e);
+			}
+			while (slot.size() > kept) slot.remove(slot.size() - 1);
+		}
+		lastProcessedSlot = lastSlot;
+	}
+}
@@ -8,12 +8,13 @@ import com.gpl.rpg.AndorsTrail.model.ability.SkillCollection;
 import com.gpl.rpg.AndorsTrail.model.actor.Monster;
 import com.gpl.rpg.AndorsTrail.model.actor.MonsterType;
 import com.gpl.rpg.AndorsTrail.model.map.LayeredTileMap;
-import com.gpl.rpg.AndorsTrail.model.map.MapObject;
 import com.gpl.rpg.AndorsTrail.model.map.MonsterSpawnArea;
 import com.gpl.rpg.AndorsTrail.model.map.PredefinedMap;
 import com.gpl.rpg.AndorsTrail.util.Coord;
 import com.gpl.rpg.AndorsTrail.util.CoordRect;
 
+import java.util.ArrayList;
+
 public final class MonsterMovementController implements EvaluateWalkable {
 	private final ControllerContext controllers;
 	private final WorldContext world;
@@ -24,16 +25,35 @@ public final class MonsterMovementController implements EvaluateWalkable {
 		this.world = world;
 	}
 
+	// Only the monsters of the current map are scheduled. The schedule is built again when the map changes, or when
+	// monsters are added to or removed from it.
+	private final MonsterActionScheduler scheduler = new MonsterActionScheduler();
+	private final ArrayList<MonsterActionScheduler.Entry> dueMonsters = new ArrayList<MonsterActionScheduler.Entry>();
+	private PredefinedMap scheduledMap;
+	private int scheduledMonsterListVersion;
+
 	public void moveMonsters() {
 		long currentTime = System.currentTimeMillis();
 
-		for (MonsterSpawnArea a : world.model.currentMap.spawnAreas) {
-			for (Monster m : a.monsters) {
-				if (m.nextActionTime <= currentTime) {
-					moveMonster(m, a);
+		final PredefinedMap map = world.model.currentMap;
+		if (map != scheduledMap || map.getMonsterListVersion() != scheduledMonsterListVersion) {
+			scheduler.clear(currentTime);
+			for (MonsterSpawnArea a : map.spawnAreas) {
+				for (Monster m : a.monsters) {
+					scheduler.schedule(new MonsterActionScheduler.Entry(m, a));
 				}
 			}
+			scheduledMap = map;
+			scheduledMonsterListVersion = map.getMonsterListVersion();
+		}
+
+		dueMonsters.clear();
+		scheduler.takeDue(currentTime, dueMonsters);
+		for (MonsterActionScheduler.Entry e : dueMonsters) {
+			moveMonster(e.monster, e.area);
+			scheduler.schedule(e);
 		}
+		dueMonsters.clear();
 	}
 
 	public void attackWithAgressiveMonsters() {
@@ -57,17 +77,16 @@ public final class MonsterMovementController implements EvaluateWalkable {
 			if (!tilemap.isWalkable(p)) return false;
 		}
 		if (map.getMonsterAt(p) != null) return false;
+		if (map.hasMonsterBlockingObjectAt(p)) return false;
+		return true;
+	}
 
-		for (MapObject m : map.eventObjects) {
-			if (m == null) continue;
-			if (!m.position.intersects(p)) continue;
-			switch (m.type) {
-				case newmap:
-				case keyarea:
-				case rest:
-					return false;
-			}
+	// Whether monsters could ever move to the position, regardless of where the other monsters are.
+	private static boolean monsterCanEnterTerrain(final PredefinedMap map, final LayeredTileMap tilemap, final CoordRect p) {
+		if (tilemap != null) {
+			if (!tilemap.isWalkable(p)) return false;
 		}
+		if (map.hasMonsterBlockingObjectAt(p)) return false;
 		return true;
 	}
 
@@ -115,6 +134,10 @@ public final class MonsterMovementController implements EvaluateWalkable {
 				searchForPath = true;
 			}
 			if (searchForPath) {
+				if (m.rectPosition.size.width == 1 && m.rectPosition.size.height == 1) {
+					if (findStepTowardsPlayer(m, playerPosition)) return;
+				}
+				// When other monsters block every step that leads closer, the path search finds a way around them.
 				if (findPathFor(m, playerPosition)) return;
 			}
 		}
@@ -141,9 +164,74 @@ public final class MonsterMovementController implements EvaluateWalkable {
 		return 0;
 	}
 
-	private final PathFinder pathfinder = new PathFinder(Constants.MAX_MAP_WIDTH, Constants.MAX_MAP_HEIGHT, this);
+	private final PathFinder pathfinder = new PathFinder(Constants.MAX_MAP_WIDTH, Constants.MAX_MAP_HEIGHT, this, Constants.MONSTER_PATHFINDING_MAX_ITERATIONS);
 	public boolean findPathFor(Monster m, Coord to) {
-		return pathfinder.findPathBetween(m.rectPosition, to, m.nextPosition);
+		// A partial path still leads towards the target, and is better than walking straight ahead.
+		return pathfinder.findPathBetween(m.rectPosition, to, m.nextPosition) != PathFinder.Result.notFound;
+	}
+
+	// Shared by all one tile monsters that hunt the player. Only rebuilt when the player has moved, or the map or its
+	// layout has changed, since the last monster used it. Other monsters are not obstacles in the field, since they
+	// keep moving, so they are only avoided when choosing the next step.
+	private final DistanceField playerDistanceField = new DistanceField(Constants.MAX_MAP_WIDTH, Constants.MAX_MAP_HEIGHT, new EvaluateWalkable() {
+		@Override
+		public boolean isWalkable(CoordRect r) {
+			return monsterCanEnterTerrain(world.model.currentMap, world.model.currentTileMap, r);
+		}
+	});
+	private PredefinedMap playerDistanceFieldMap;
+	private LayeredTileMap playerDistanceFieldTileMap;
+	private String playerDistanceFieldLayoutHash;
+	private final Coord playerDistanceFieldTarget = new Coord();
+
+	private DistanceField getPlayerDistanceField(Coord playerPosition) {
+		final PredefinedMap map = world.model.currentMap;
+		final LayeredTileMap tileMap = world.model.currentTileMap;
+		final String layoutHash = tileMap.getCurrentLayoutHash();
+		if (map != playerDistanceFieldMap
+				|| tileMap != playerDistanceFieldTileMap
+				|| !layoutHash.equals(playerDistanceFieldLayoutHash)
+				|| !playerPosition.equals(playerDistanceFieldTarget)) {
+			playerDistanceField.build(map.size, playerPosition);
+			playerDistanceFieldMap = map;
+			playerDistanceFieldTileMap = tileMap;
+			playerDistanceFieldLayoutHash = layoutHash;
+			playerDistanceFieldTarget.set(playerPosition);
+		}
+		return playerDistanceField;
+	}
+
+	// Takes the free adjacent tile that is closest to the player, if it is closer than the current position. Only for
+	// monsters that cover one tile.
+	private boolean findStepTowardsPlayer(Monster m, Coord playerPosition) {
+		final DistanceField field = getPlayerDistanceField(playerPosition);
+		final Coord p = m.nextPosition.topLeft;
+		int bestDistance = field.getDistance(m.position.x, m.position.y);
+		if (bestDistance == DistanceField.UNREACHABLE) bestDistance = Integer.MAX_VALUE;
+		int bestX = 0;
+		int bestY = 0;
+		boolean found = false;
+		for (int dy = -1; dy <= 1; ++dy) {
+			for (int dx = -1; dx <= 1; ++dx) {
+				final int x = m.position.x + dx;
+				final int y = m.position.y + dy;
+				final int d = field.getDistance(x, y);
+				if (d == DistanceField.UNREACHABLE) continue;
+				if (d >= bestDistance) continue;
+				// Stepping on the player is an attack, which moveMonster checks itself.
+				if (d > 0) {
+					p.set(x, y);
+					if (!isWalkable(m.nextPosition)) continue;
+				}
+				bestDistance = d;
+				bestX = x;
+				bestY = y;
+				found = true;
+			}
+		}
+		if (!found) return false;
+		p.set(bestX, bestY);
+		return true;
 	}
 
 	@Override
@@ -154,6 +242,7 @@ public final class MonsterMovementController implements EvaluateWalkable {
 	public void moveMonsterToNextPosition(Monster m, PredefinedMap map) {
 		CoordRect previousPosition = new CoordRect(new Coord(m.position), m.rectPosition.size);
 		m.position.set(m.nextPosition.topLeft);
+		map.moveMonsterOccupancy(m, previousPosition);
 		monsterMovementListeners.onMonsterMoved(map, m, previousPosition);
 	}
 }
@@ -54,6 +54,7 @@ public final class MonsterSpawningController {
 		Coord p = getRandomFreePosition(map, tileMap, a.area, type.tileSize, playerPosition);
 		if (p == null) return false;
 		Monster m = a.spawn(p, type);
+		map.addMonsterOccupancy(m);
 		monsterSpawnListeners.onMonsterSpawned(map, m);
 		return true;
 	}
@@ -75,6 +76,7 @@ public final class MonsterSpawningController {
 		for (MonsterSpawnArea a : map.spawnAreas) {
 			a.remove(m);
 		}
+		map.removeMonsterOccupancy(m, m.rectPosition);
 		monsterSpawnListeners.onMonsterRemoved(map, m, m.rectPosition);
 	}
 
@@ -86,10 +88,11 @@ public final class MonsterSpawningController {
 		}
 	}
 
-	public void deactivateSpawnArea(MonsterSpawnArea spawnArea, boolean removeAllMonsters) {
+	public void deactivateSpawnArea(PredefinedMap map, MonsterSpawnArea spawnArea, boolean removeAllMonsters) {
 		spawnArea.isSpawning = false;
 		if (removeAllMonsters) {
 			spawnArea.removeAllMonsters();
+			map.invalidateMonsterOccupancy();
 		}
 	}
 }
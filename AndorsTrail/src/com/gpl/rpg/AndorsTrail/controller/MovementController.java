@@ -13,8 +13,10 @@ import com.gpl.rpg.AndorsTrail.model.item.Loot;
 import com.gpl.rpg.AndorsTrail.model.map.*;
 import com.gpl.rpg.AndorsTrail.resource.tiles.TileCollection;
 import com.gpl.rpg.AndorsTrail.util.Coord;
+import com.gpl.rpg.AndorsTrail.util.CoordRect;
 import com.gpl.rpg.AndorsTrail.util.L;
 import com.gpl.rpg.AndorsTrail.util.TimedMessageTask;
+import com.gpl.rpg.AndorsTrail.util.Tracing;
 
 public final class MovementController implements TimedMessageTask.Callback {
 	private final ControllerContext controllers;
@@ -86,15 +88,24 @@ public final class MovementController implements TimedMessageTask.Callback {
 
 	private void playerVisitsMapFirstTime(PredefinedMap m) {
 		m.createAllContainerLoot();
-		world.maps.worldMapRequiresUpdate = true;
 	}
 
 	public void prepareMapAsCurrentMap(PredefinedMap newMap, Resources res, boolean spawnMonsters) {
+		final Tracing.Span span = Tracing.begin("MovementController.prepareMapAsCurrentMap");
+		try {
+			prepareMapAsCurrentMap_(newMap, res, spawnMonsters);
+		} finally {
+			span.end();
+		}
+	}
+
+	private void prepareMapAsCurrentMap_(PredefinedMap newMap, Resources res, boolean spawnMonsters) {
 		final ModelContainer model = world.model;
 		model.currentMap = newMap;
 		cacheCurrentMapData(res, newMap);
 		//Apply replacements before spawning, so that MonsterSpawnArea's isActive variable is up to date.
 		controllers.mapController.applyCurrentMapReplacements(res, false);
+		world.tileManager.prefetchAdjacentMaps(res, world, newMap, model.currentTileMap, model.player.position);
 		if (spawnMonsters) {
 			if (!newMap.isRecentlyVisited()) {
 				controllers.monsterSpawnController.spawnAll(newMap, model.currentTileMap);
@@ -265,7 +276,9 @@ public final class MovementController implements TimedMessageTask.Callback {
 				if (tileMap.isWalkable(m.rectPosition)) continue;
 				Coord p = MonsterSpawningController.getRandomFreePosition(map, tileMap, a.area, m.tileSize, playerPosition);
 				if (p == null) continue;
+				final CoordRect previousPosition = new CoordRect(new Coord(m.position), m.rectPosition.size);
 				m.position.set(p);
+				map.moveMonsterOccupancy(m, previousPosition);
 			}
 		}
 
@@ -280,6 +293,7 @@ public final class MovementController implements TimedMessageTask.Callback {
 			else if (tileMap.isWalkable(new Coord(p.x-1, p.y  ))) bag.position.set(p.x-1, p.y  );
 			else if (tileMap.isWalkable(new Coord(p.x  , p.y-1))) bag.position.set(p.x  , p.y-1);
 		}
+		map.invalidateBagIndex();
 	}
 
 	private static Coord getFirstMapChangeAreaPosition(PredefinedMap map) {
@@ -294,8 +308,7 @@ public final class MovementController implements TimedMessageTask.Callback {
 		LayeredTileMap mapTiles = TMXMapTranslator.readLayeredTileMap(res, world.tileManager.tileCache, nextMap);
 		TileCollection cachedTiles = world.tileManager.loadTilesFor(nextMap, mapTiles, world, res);
 		world.model.currentTileMap = mapTiles;
-		world.tileManager.currentMapTiles = cachedTiles;
-		world.tileManager.cacheAdjacentMaps(res, world, nextMap);
+		world.tileManager.setCurrentMapTiles(cachedTiles);
 	}
 
 
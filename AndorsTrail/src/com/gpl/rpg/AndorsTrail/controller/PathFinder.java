@@ -5,132 +5,212 @@ import com.gpl.rpg.AndorsTrail.util.CoordRect;
 
 import java.util.Arrays;
 
-public class PathFinder {
+// Finds the next step of an actor towards a position, with A* over the positions of the top left corner of the actor.
+// The actor may cover several tiles, and every position is tested with a rect of the size of the actor. Actors move
+// one tile in any of the eight directions per step, so the cost of a path is its number of steps, and the heuristic is
+// the number of steps that it would take without any obstacles.
+//
+// The open set is a binary heap of node indices. The heap position of each node is kept, so that a node can be moved
+// up when a shorter path to it is found. The walkability of each position is evaluated at most once per search.
+//
+// A search expands at most maxIterations nodes. If the target is not reached by then, or cannot be reached at all, the
+// result is partial: the first step towards the expanded position that is closest to the target.
+public final class PathFinder {
+	public static enum Result {
+		found, partial, notFound
+	}
+
+	private static final byte UNVISITED = 0;
+	private static final byte OPEN = 1;
+	private static final byte CLOSED = 2;
+	private static final byte BLOCKED = 3;
+
 	private final int maxWidth;
 	private final int maxHeight;
-	private final boolean visited[];
-	private final ListOfCoords visitQueue;
+	private final int defaultMaxIterations;
 	private final EvaluateWalkable map;
-
-	public PathFinder(int maxWidth, int maxHeight, EvaluateWalkable map) {
+	private final byte[] state;
+	private final int[] cost; // Number of steps from the start.
+	private final int[] parent;
+	private final int[] heap;
+	private final int[] heapKeys;
+	private final int[] heapPosition;
+	private int heapSize;
+
+	// The positions of the top left corner of the actor where the actor covers the target.
+	private int goalLeft;
+	private int goalTop;
+	private int goalRight;
+	private int goalBottom;
+
+	public PathFinder(int maxWidth, int maxHeight, EvaluateWalkable map, int defaultMaxIterations) {
 		this.maxWidth = maxWidth;
 		this.maxHeight = maxHeight;
 		this.map = map;
-		this.visited = new boolean[maxWidth*maxHeight];
-		this.visitQueue = new ListOfCoords(maxWidth*maxHeight);
+		this.defaultMaxIterations = defaultMaxIterations;
+		final int numNodes = maxWidth * maxHeight;
+		this.state = new byte[numNodes];
+		this.cost = new int[numNodes];
+		this.parent = new int[numNodes];
+		this.heap = new int[numNodes];
+		this.heapKeys = new int[numNodes];
+		this.heapPosition = new int[numNodes];
 	}
 
 	public interface EvaluateWalkable {
 		public boolean isWalkable(CoordRect r);
 	}
 
-	public boolean findPathBetween(final CoordRect from, final Coord to, CoordRect nextStep) {
-		int iterations = 0;
-		if (from.contains(to)) return false;
-
-		Coord measureDistanceTo = from.topLeft;
-		Coord p = nextStep.topLeft;
-		Arrays.fill(visited, false);
-		visitQueue.reset();
-
-		visitQueue.push(to.x, to.y, 0);
-		visited[(to.y * maxWidth) + to.x] = true;
+	public Result findPathBetween(final CoordRect from, final Coord to, CoordRect nextStep) {
+		return findPathBetween(from, to, nextStep, defaultMaxIterations);
+	}
 
-		while (!visitQueue.isEmpty()) {
-			visitQueue.popFirst(p);
+	// nextStep must have the same size as from. Its position is used while searching, and is set to the next step of
+	// the actor unless the result is notFound.
+	public Result findPathBetween(final CoordRect from, final Coord to, CoordRect nextStep, int maxIterations) {
+		if (from.contains(to)) return Result.notFound;
+		if (isOutside(from.topLeft.x, from.topLeft.y)) return Result.notFound;
+
+		goalLeft = to.x - from.size.width + 1;
+		goalTop = to.y - from.size.height + 1;
+		goalRight = to.x;
+		goalBottom = to.y;
+		Arrays.fill(state, UNVISITED);
+		heapSize = 0;
+
+		// The start is not evaluated, since the actor itself stands there.
+		final int start = from.topLeft.y * maxWidth + from.topLeft.x;
+		cost[start] = 0;
+		parent[start] = start;
+		state[start] = OPEN;
+		push(start, getKey(0, getEstimate(from.topLeft.x, from.topLeft.y)));
+
+		int closest = start;
+		int closestEstimate = Integer.MAX_VALUE;
+		int iterations = 0;
+		while (heapSize > 0 && iterations < maxIterations) {
 			++iterations;
+			final int node = pop();
+			state[node] = CLOSED;
+			final int x = node % maxWidth;
+			final int y = node / maxWidth;
+			final int estimate = getEstimate(x, y);
+			if (estimate == 0) {
+				setFirstStep(node, start, nextStep.topLeft);
+				return Result.found;
+			}
+			if (estimate < closestEstimate) {
+				closest = node;
+				closestEstimate = estimate;
+			}
 
-			if (iterations > 100) return false;
+			final int nextCost = cost[node] + 1;
+			visit(x - 1, y - 1, nextCost, node, nextStep);
+			visit(x    , y - 1, nextCost, node, nextStep);
+			visit(x + 1, y - 1, nextCost, node, nextStep);
+			visit(x - 1, y    , nextCost, node, nextStep);
+			visit(x + 1, y    , nextCost, node, nextStep);
+			visit(x - 1, y + 1, nextCost, node, nextStep);
+			visit(x    , y + 1, nextCost, node, nextStep);
+			visit(x + 1, y + 1, nextCost, node, nextStep);
+		}
 
-			if (from.isAdjacentTo(p)) return true;
+		if (closest == start) return Result.notFound;
+		setFirstStep(closest, start, nextStep.topLeft);
+		return Result.partial;
+	}
 
-			p.x -= 1; visit(nextStep, measureDistanceTo);
-			p.x += 2; visit(nextStep, measureDistanceTo);
-			p.x -= 1; p.y -= 1; visit(nextStep, measureDistanceTo);
-			p.y += 2; visit(nextStep, measureDistanceTo);
-			p.x -= 1; visit(nextStep, measureDistanceTo);
-			p.x += 2; visit(nextStep, measureDistanceTo);
-			p.y -= 2; visit(nextStep, measureDistanceTo);
-			p.x -= 2; visit(nextStep, measureDistanceTo);
+	private void visit(int x, int y, int nextCost, int fromNode, CoordRect probe) {
+		if (isOutside(x, y)) return;
+
+		final int node = y * maxWidth + x;
+		final byte s = state[node];
+		if (s == CLOSED || s == BLOCKED) return;
+		if (s == UNVISITED) {
+			probe.topLeft.set(x, y);
+			if (!map.isWalkable(probe)) {
+				state[node] = BLOCKED;
+				return;
+			}
+			state[node] = OPEN;
+			cost[node] = nextCost;
+			parent[node] = fromNode;
+			push(node, getKey(nextCost, getEstimate(x, y)));
+		} else if (nextCost < cost[node]) {
+			cost[node] = nextCost;
+			parent[node] = fromNode;
+			moveUp(heapPosition[node], getKey(nextCost, getEstimate(x, y)));
 		}
-		return false;
 	}
 
-	private void visit(CoordRect r, Coord measureDistanceTo) {
-		final int x = r.topLeft.x;
-		final int y = r.topLeft.y;
-
-		if (x < 0) return;
-		if (y < 0) return;
-		if (x >= maxWidth) return;
-		if (y >= maxHeight) return;
-
-		final int i = (y * maxWidth) + x;
-		if (visited[i]) return;
-		visited[i] = true;
-		if (!map.isWalkable(r)) return;
-
-		int dx = (measureDistanceTo.x - x);
-		int dy = (measureDistanceTo.y - y);
-		visitQueue.push(x, y, dx * dx + dy * dy);
+	private boolean isOutside(int x, int y) {
+		if (x < 0) return true;
+		if (y < 0) return true;
+		if (x >= maxWidth) return true;
+		if (y >= maxHeight) return true;
+		return false;
 	}
 
-	private static final class ListOfCoords {
-		private final int xCoords[];
-		private final int yCoords[];
-		private final int weights[];
-		private final int maxIndex;
-		private int lastIndex; // Index of the last coord that was inserted
-		private int frontIndex; // Index to the first coord that is not discarded
-		private static final int DISCARDED = -1;
-
-		public ListOfCoords(int maxSize) {
-			this.maxIndex = maxSize-1;
-			this.xCoords = new int[maxSize];
-			this.yCoords = new int[maxSize];
-			this.weights = new int[maxSize];
-		}
+	// The number of steps to the nearest position where the actor covers the target, if there were no obstacles.
+	private int getEstimate(int x, int y) {
+		final int dx = Math.max(0, Math.max(goalLeft - x, x - goalRight));
+		final int dy = Math.max(0, Math.max(goalTop - y, y - goalBottom));
+		return Math.max(dx, dy);
+	}
 
-		public void reset() {
-			lastIndex = -1;
-			frontIndex = 0;
-		}
+	// Orders by the estimated length of the whole path, and then prefers the node that is closer to the target.
+	private static int getKey(int cost, int estimate) {
+		return ((cost + estimate) << 16) + estimate;
+	}
 
-		public void push(int x, int y, int weight) {
-			if (lastIndex == maxIndex) return;
-			++lastIndex;
-			xCoords[lastIndex] = x;
-			yCoords[lastIndex] = y;
-			weights[lastIndex] = weight;
-		}
+	private void setFirstStep(int node, int start, Coord dest) {
+		while (parent[node] != start) node = parent[node];
+		dest.set(node % maxWidth, node / maxWidth);
+	}
 
-		public int popFirst(Coord dest) {
-			int i = frontIndex;
-			int lowestWeightIndex = i;
-			int lowestWeight = weights[i];
-			++i;
-			for(;i <= lastIndex; ++i) {
-				if (weights[i] == DISCARDED) continue;
-				if (weights[i] < lowestWeight) {
-					lowestWeightIndex = i;
-					lowestWeight = weights[i];
-				}
-			}
-			dest.x = xCoords[lowestWeightIndex];
-			dest.y = yCoords[lowestWeightIndex];
-			weights[lowestWeightIndex] = DISCARDED;
-
-			// Increase frontIndex to the first index that is not discarded.
-			while (frontIndex <= lastIndex) {
-				if (weights[frontIndex] == DISCARDED) ++frontIndex;
-				else break;
-			}
+	private void push(int node, int key) {
+		heap[heapSize] = node;
+		heapPosition[node] = heapSize;
+		++heapSize;
+		moveUp(heapSize - 1, key);
+	}
 
-			return lowestWeight;
+	private void moveUp(int i, int key) {
+		final int node = heap[i];
+		while (i > 0) {
+			final int p = (i - 1) / 2;
+			if (heapKeys[p] <= key) break;
+			heap[i] = heap[p];
+			heapKeys[i] = heapKeys[p];
+			heapPosition[heap[i]] = i;
+			i = p;
 		}
+		heap[i] = node;
+		heapKeys[i] = key;
+		heapPosition[node] = i;
+	}
 
-		public boolean isEmpty() {
-			return frontIndex > lastIndex;
+	private int pop() {
+		final int result = heap[0];
+		--heapSize;
+		if (heapSize == 0) return result;
+
+		final int node = heap[heapSize];
+		final int key = heapKeys[heapSize];
+		int i = 0;
+		while (true) {
+			int child = i * 2 + 1;
+			if (child >= heapSize) break;
+			if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) ++child;
+			if (heapKeys[child] >= key) break;
+			heap[i] = heap[child];
+			heapKeys[i] = heapKeys[child];
+			heapPosition[heap[i]] = i;
+			i = child;
 		}
+		heap[i] = node;
+		heapKeys[i] = key;
+		heapPosition[node] = i;
+		return result;
 	}
 }
@@ -0,0 +1,218 @@
+package com.gpl.rpg.AndorsTrail.controller;
+
+import android.content.res.Resources;
+import com.gpl.rpg.AndorsTrail.context.WorldContext;
+import com.gpl.rpg.AndorsTrail.controller.PathFinder.EvaluateWalkable;
+import com.gpl.rpg.AndorsTrail.model.map.LayeredTileMap;
+import com.gpl.rpg.AndorsTrail.model.map.PredefinedMap;
+import com.gpl.rpg.AndorsTrail.model.map.TMXMapTranslator;
+import com.gpl.rpg.AndorsTrail.util.Coord;
+import com.gpl.rpg.AndorsTrail.util.CoordRect;
+import com.gpl.rpg.AndorsTrail.util.L;
+import com.gpl.rpg.AndorsTrail.util.Size;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+// Compares the PathFinder with the greedy search that it replaced, on the walkability grid of every map. Searches
+// between random walkable positions of one tile actors, with the same positions for both finders. A search without an
+// iteration limit tells whether a path exists at all.
+//
+// Only used from the DebugInterface. Loads the layout of every map, so it should not be run on the main thread.
+public final class PathFinderBenchmark {
+	private static final int SEARCHES_PER_MAP = 50;
+
+	public static String run(Resources res, WorldContext world) {
+		final Random rnd = new Random(1);
+		final Size actorSize = new Size(1, 1);
+		final CoordRect from = new CoordRect(actorSize);
+		final CoordRect nextStep = new CoordRect(actorSize);
+		int numMaps = 0;
+		int numSearches = 0;
+		int numExistingPaths = 0;
+		int numFoundGreedy = 0;
+		int numFound = 0;
+		int numPartial = 0;
+		long greedyNs = 0;
+		long aStarNs = 0;
+
+		for (PredefinedMap map : world.maps.getAllMaps()) {
+			final LayeredTileMap tileMap = TMXMapTranslator.readLayeredTileMap(res, world.tileManager.tileCache, map);
+			if (tileMap == null) continue;
+			final EvaluateWalkable walkable = new EvaluateWalkable() {
+				@Override
+				public boolean isWalkable(CoordRect r) {
+					return tileMap.isWalkable(r);
+				}
+			};
+
+			final ArrayList<Coord> positions = new ArrayList<Coord>();
+			for (int y = 0; y < map.size.height; ++y) {
+				for (int x = 0; x < map.size.width; ++x) {
+					if (tileMap.isWalkable(x, y)) positions.add(new Coord(x, y));
+				}
+			}
+			if (positions.size() < 2) continue;
+			++numMaps;
+
+			final GreedyPathFinder greedy = new GreedyPathFinder(map.size.width, map.size.height, walkable);
+			final PathFinder aStar = new PathFinder(map.size.width, map.size.height, walkable, Constants.MONSTER_PATHFINDING_MAX_ITERATIONS);
+			final int unlimited = map.size.width * map.size.height;
+			for (int i = 0; i < SEARCHES_PER_MAP; ++i) {
+				final Coord to = positions.get(rnd.nextInt(positions.size()));
+				from.topLeft.set(positions.get(rnd.nextInt(positions.size())));
+				if (from.contains(to)) continue;
+				++numSearches;
+
+				if (aStar.findPathBetween(from, to, nextStep, unlimited) == PathFinder.Result.found) ++numExistingPaths;
+
+				long start = System.nanoTime();
+				if (greedy.findPathBetween(from, to, nextStep)) ++numFoundGreedy;
+				greedyNs += System.nanoTime() - start;
+
+				start = System.nanoTime();
+				final PathFinder.Result result = aStar.findPathBetween(from, to, nextStep);
+				aStarNs += System.nanoTime() - start;
+				if (result == PathFinder.Result.found) ++numFound;
+				else if (result == PathFinder.Result.partial) ++numPartial;
+			}
+		}
+
+		final String report = "PathFinderBenchmark: " + numMaps + " maps, " + numSearches + " searches, "
+				+ numExistingPaths + " paths exist.\n"
+				+ "greedy: " + numFoundGreedy + " found, " + (greedyNs / 1000000) + " ms.\n"
+				+ "A*: " + numFound + " found, " + numPartial + " partial, " + (aStarNs / 1000000) + " ms.";
+		L.log(report);
+		return report;
+	}
+
+	// The search that PathFinder used before, kept for comparison. Searches outwards from the target, always expanding
+	// the queued position that is closest to the actor, found by scanning the whole queue, and gives up after 100
+	// iterations.
+	private static final class GreedyPathFinder {
+		private final int maxWidth;
+		private final int maxHeight;
+		private final boolean visited[];
+		private final ListOfCoords visitQueue;
+		private final EvaluateWalkable map;
+
+		public GreedyPathFinder(int maxWidth, int maxHeight, EvaluateWalkable map) {
+			this.maxWidth = maxWidth;
+			this.maxHeight = maxHeight;
+			this.map = map;
+			this.visited = new boolean[maxWidth*maxHeight];
+			this.visitQueue = new ListOfCoords(maxWidth*maxHeight);
+		}
+
+		public boolean findPathBetween(final CoordRect from, final Coord to, CoordRect nextStep) {
+			int iterations = 0;
+			if (from.contains(to)) return false;
+
+			Coord measureDistanceTo = from.topLeft;
+			Coord p = nextStep.topLeft;
+			Arrays.fill(visited, false);
+			visitQueue.reset();
+
+			visitQueue.push(to.x, to.y, 0);
+			visited[(to.y * maxWidth) + to.x] = true;
+
+			while (!visitQueue.isEmpty()) {
+				visitQueue.popFirst(p);
+				++iterations;
+
+				if (iterations > 100) return false;
+
+				if (from.isAdjacentTo(p)) return true;
+
+				p.x -= 1; visit(nextStep, measureDistanceTo);
+				p.x += 2; visit(nextStep, measureDistanceTo);
+				p.x -= 1; p.y -= 1; visit(nextStep, measureDistanceTo);
+				p.y += 2; visit(nextStep, measureDistanceTo);
+				p.x -= 1; visit(nextStep, measureDistanceTo);
+				p.x += 2; visit(nextStep, measureDistanceTo);
+				p.y -= 2; visit(nextStep, measureDistanceTo);
+				p.x -= 2; visit(nextStep, measureDistanceTo);
+			}
+			return false;
+		}
+
+		private void visit(CoordRect r, Coord measureDistanceTo) {
+			final int x = r.topLeft.x;
+			final int y = r.topLeft.y;
+
+			if (x < 0) return;
+			if (y < 0) return;
+			if (x >= maxWidth) return;
+			if (y >= maxHeight) return;
+
+			final int i = (y * maxWidth) + x;
+			if (visited[i]) return;
+			visited[i] = true;
+			if (!map.isWalkable(r)) return;
+
+			int dx = (measureDistanceTo.x - x);
+			int dy = (measureDistanceTo.y - y);
+			visitQueue.push(x, y, dx * dx + dy * dy);
+		}
+	}
+
+	private static final class ListOfCoords {
+		private final int xCoords[];
+		private final int yCoords[];
+		private final int weights[];
+		private final int maxIndex;
+		private int lastIndex; // Index of the last coord that was inserted
+		private int frontIndex; // Index to the first coord that is not discarded
+		private static final int DISCARDED = -1;
+
+		public ListOfCoords(int maxSize) {
+			this.maxIndex = maxSize-1;
+			this.xCoords = new int[maxSize];
+			this.yCoords = new int[maxSize];
+			this.weights = new int[maxSize];
+		}
+
+		public void reset() {
+			lastIndex = -1;
+			frontIndex = 0;
+		}
+
+		public void push(int x, int y, int weight) {
+			if (lastIndex == maxIndex) return;
+			++lastIndex;
+			xCoords[lastIndex] = x;
+			yCoords[lastIndex] = y;
+			weights[lastIndex] = weight;
+		}
+
+		public int popFirst(Coord dest) {
+			int i = frontIndex;
+			int lowestWeightIndex = i;
+			int lowestWeight = weights[i];
+			++i;
+			for(;i <= lastIndex; ++i) {
+				if (weights[i] == DISCARDED) continue;
+				if (weights[i] < lowestWeight) {
+					lowestWeightIndex = i;
+					lowestWeight = weights[i];
+				}
+			}
+			dest.x = xCoords[lowestWeightIndex];
+			dest.y = yCoords[lowestWeightIndex];
+			weights[lowestWeightIndex] = DISCARDED;
+
+			// Increase frontIndex to the first index that is not discarded.
+			while (frontIndex <= lastIndex) {
+				if (weights[frontIndex] == DISCARDED) ++frontIndex;
+				else break;
+			}
+
+			return lowestWeight;
+		}
+
+		public boolean isEmpty() {
+			return frontIndex > lastIndex;
+		}
+	}
+}
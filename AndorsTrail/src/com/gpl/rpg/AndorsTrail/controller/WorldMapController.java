@@ -3,152 +3,102 @@ package com.gpl.rpg.AndorsTrail.controller;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources;
-import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
-import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.os.AsyncTask;
 import android.os.Environment;
 import android.widget.Toast;
-import com.gpl.rpg.AndorsTrail.AndorsTrailApplication;
 import com.gpl.rpg.AndorsTrail.R;
 import com.gpl.rpg.AndorsTrail.activity.DisplayWorldMapActivity;
 import com.gpl.rpg.AndorsTrail.context.WorldContext;
-import com.gpl.rpg.AndorsTrail.model.map.LayeredTileMap;
-import com.gpl.rpg.AndorsTrail.model.map.MapLayer;
 import com.gpl.rpg.AndorsTrail.model.map.PredefinedMap;
 import com.gpl.rpg.AndorsTrail.model.map.WorldMapSegment;
 import com.gpl.rpg.AndorsTrail.model.map.WorldMapSegment.NamedWorldMapArea;
 import com.gpl.rpg.AndorsTrail.model.map.WorldMapSegment.WorldMapSegmentMap;
-import com.gpl.rpg.AndorsTrail.resource.tiles.TileCollection;
 import com.gpl.rpg.AndorsTrail.util.Coord;
 import com.gpl.rpg.AndorsTrail.util.CoordRect;
-import com.gpl.rpg.AndorsTrail.util.L;
 import com.gpl.rpg.AndorsTrail.util.Size;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Map;
 import java.util.Set;
 
 public final class WorldMapController {
 
-	private static final int WORLDMAP_SCREENSHOT_TILESIZE = 8;
+	static final int WORLDMAP_SCREENSHOT_TILESIZE = 8;
 	public static final int WORLDMAP_DISPLAY_TILESIZE = WORLDMAP_SCREENSHOT_TILESIZE;
+	private static boolean hasQueuedLegacyImport = false;
+	private static boolean isWaitingToDisplayWorldMap = false;
 
-	public static void updateWorldMap(final WorldContext world, final Resources res) {
-		updateWorldMap(world, world.model.currentMap, world.model.currentTileMap, world.tileManager.currentMapTiles, res);
+	private static WorldMapUpdater updater;
+
+	private static synchronized WorldMapUpdater getUpdater() {
+		if (updater == null) {
+			updater = new WorldMapUpdater();
+			updater.start();
+		}
+		return updater;
 	}
 
-	private static void updateWorldMap(
-			final WorldContext world,
-			final PredefinedMap map,
-			final LayeredTileMap mapTiles,
-			final TileCollection cachedTiles,
-			final Resources res) {
+	public static void updateWorldMap(final WorldContext world, final Resources res) {
+		final PredefinedMap map = world.model.currentMap;
+		if (!world.maps.isWorldMapSegmentsLoaded()) {
+			// Right after the game has started, the worldmap segments may still be loading. The map is drawn once
+			// they have been loaded, if the player is still on it.
+			world.maps.whenWorldMapSegmentsLoaded(new Runnable() {
+				@Override
+				public void run() {
+					if (world.model.currentMap == map) updateWorldMap(world, res);
+				}
+			});
+			return;
+		}
+		if (world.maps.hasWorldMapSegmentsFailed()) return;
+		queueLegacyImport(world);
 		final String worldMapSegmentName = world.maps.getWorldMapSegmentNameForMap(map.name);
 		if (worldMapSegmentName == null) return;
-
-		if (!shouldUpdateWorldMap(map, worldMapSegmentName, world.maps.worldMapRequiresUpdate)) return;
-
-		(new AsyncTask<Void, Void, Void>() {
-			@Override
-			protected Void doInBackground(Void... arg0) {
-				final MapRenderer renderer = new MapRenderer(world, map, mapTiles, cachedTiles);
-				try {
-					updateCachedBitmap(map, renderer);
-					updateWorldMapSegment(res, world, worldMapSegmentName);
-					world.maps.worldMapRequiresUpdate = false;
-					if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) {
-						L.log("WorldMapController: Updated worldmap segment " + worldMapSegmentName + " for map " + map.name);
-					}
-				} catch (IOException e) {
-					L.log("Error creating worldmap file for map " + map.name + " : " + e.toString());
-				}
-				return null;
-			}
-		}).execute();
-	}
-
-	private static boolean shouldUpdateWorldMap(PredefinedMap map, String worldMapSegmentName, boolean forceUpdate) {
-		if (forceUpdate) return true;
-		if (!map.visited) return true;
-		File file = getFileForMap(map, false);
-		if (!file.exists()) return true;
-
-		file = getCombinedWorldMapFile(worldMapSegmentName);
-		if (!file.exists()) return true;
-
-		return false;
-	}
-
-	private static void updateCachedBitmap(PredefinedMap map, MapRenderer renderer) throws IOException {
-		ensureWorldmapDirectoryExists();
-
-		File file = getFileForMap(map, false);
-		if (file.exists()) return;
-
-		Bitmap image = renderer.drawMap();
-		FileOutputStream fos = new FileOutputStream(file);
-		image.compress(Bitmap.CompressFormat.PNG, 70, fos);
-		fos.flush();
-		fos.close();
-		image.recycle();
-		L.log("WorldMapController: Wrote " + file.getAbsolutePath());
+		final WorldMapSegmentMap segmentMap = world.maps.getWorldMapSegment(worldMapSegmentName).maps.get(map.name);
+		if (segmentMap == null) return;
+
+		final WorldMapUpdater.MapLayoutSnapshot snapshot = WorldMapUpdater.MapLayoutSnapshot.create(
+				worldMapSegmentName
+				, map.name
+				, segmentMap.worldPosition.x * WORLDMAP_SCREENSHOT_TILESIZE
+				, segmentMap.worldPosition.y * WORLDMAP_SCREENSHOT_TILESIZE
+				, map.size
+				, world.model.currentTileMap
+				, world.tileManager.currentMapTiles
+				, world.tileManager.tileSize
+			);
+		// The player has already left the map.
+		if (snapshot == null) return;
+		getUpdater().queue(snapshot);
 	}
 
-	private static final class MapRenderer {
-		private final PredefinedMap map;
-		private final LayeredTileMap mapTiles;
-		private final TileCollection cachedTiles;
-		private final int tileSize;
-		private final float scale;
-		private final Paint mPaint = new Paint();
-
-		public MapRenderer(final WorldContext world, final PredefinedMap map, final LayeredTileMap mapTiles, final TileCollection cachedTiles) {
-			this.map = map;
-			this.mapTiles = mapTiles;
-			this.cachedTiles = cachedTiles;
-			this.tileSize = world.tileManager.tileSize;
-			this.scale = (float) WORLDMAP_SCREENSHOT_TILESIZE / world.tileManager.tileSize;
-			mapTiles.setColorFilter(mPaint);
-		}
-
-		public Bitmap drawMap() {
-			Bitmap image = Bitmap.createBitmap(map.size.width * WORLDMAP_SCREENSHOT_TILESIZE, map.size.height * WORLDMAP_SCREENSHOT_TILESIZE, Config.RGB_565);
-			image.setDensity(Bitmap.DENSITY_NONE);
-			Canvas canvas = new Canvas(image);
-			canvas.scale(scale, scale);
-
-			synchronized (cachedTiles) {
-				drawMapLayer(canvas, mapTiles.currentLayout.layerGround);
-				tryDrawMapLayer(canvas, mapTiles.currentLayout.layerObjects);
-				tryDrawMapLayer(canvas, mapTiles.currentLayout.layerAbove);
-			}
-			return image;
-		}
-
-		private void tryDrawMapLayer(Canvas canvas, final MapLayer layer) {
-			if (layer != null) drawMapLayer(canvas, layer);
-		}
-
-		private void drawMapLayer(Canvas canvas, final MapLayer layer) {
-			int py = 0;
-			for (int y = 0; y < map.size.height; ++y, py += tileSize) {
-				int px = 0;
-				for (int x = 0; x < map.size.width; ++x, px += tileSize) {
-					final int tile = layer.tiles[x][y];
-					if (tile == 0) continue;
-					cachedTiles.drawTile(canvas, tile, px, py, mPaint);
-				}
+	// Older versions stored one image per map in the worldmap directory. Those images are copied into the pyramids once
+	// per process, before the first update of the worldmap. The position of each map is taken from the worldmap segments,
+	// and the image of the layout that the player has last seen is preferred.
+	private static synchronized void queueLegacyImport(WorldContext world) {
+		if (hasQueuedLegacyImport) return;
+		hasQueuedLegacyImport = true;
+		final ArrayList<WorldMapUpdater.LegacyMapImage> maps = new ArrayList<WorldMapUpdater.LegacyMapImage>();
+		for (WorldMapSegment segment : world.maps.getWorldMapSegments()) {
+			for (WorldMapSegmentMap map : segment.maps.values()) {
+				final PredefinedMap predefinedMap = world.maps.findPredefinedMap(map.mapName);
+				if (predefinedMap == null) continue;
+				maps.add(new WorldMapUpdater.LegacyMapImage(
+						segment.name
+						, map.mapName
+						, predefinedMap.lastSeenLayoutHash
+						, map.worldPosition.x * WORLDMAP_SCREENSHOT_TILESIZE
+						, map.worldPosition.y * WORLDMAP_SCREENSHOT_TILESIZE
+					));
 			}
 		}
+		getUpdater().importLegacyImages(maps);
 	}
 
-	private static void ensureWorldmapDirectoryExists() throws IOException {
+	// Only called from the WorldMapUpdater.
+	static void ensureWorldmapDirectoryExists() throws IOException {
 		File root = Environment.getExternalStorageDirectory();
 		File dir = new File(root, Constants.FILENAME_SAVEGAME_DIRECTORY);
 		if (!dir.exists()) dir.mkdir();
@@ -158,110 +108,34 @@ public final class WorldMapController {
 		File noMediaFile = new File(dir, ".nomedia");
 		if (!noMediaFile.exists()) noMediaFile.createNewFile();
 	}
-	private static File getFileForMap(PredefinedMap map, boolean verifyFileExists) {
-		if (map.lastSeenLayoutHash.length() > 0) {
-			File fileWithHash = getPngFile(map.name + '.' + map.lastSeenLayoutHash);
-			if (!verifyFileExists) return fileWithHash;
-			else if (fileWithHash.exists()) return fileWithHash;
-		}
-		return getPngFile(map.name);
-	}
-	private static File getPngFile(String fileName) {
-		return new File(getWorldmapDirectory(), fileName + ".png");
-	}
-	private static File getWorldmapDirectory() {
+	static File getWorldmapDirectory() {
 		File dir = Environment.getExternalStorageDirectory();
 		dir = new File(dir, Constants.FILENAME_SAVEGAME_DIRECTORY);
 		return new File(dir, Constants.FILENAME_WORLDMAP_DIRECTORY);
 	}
-	public static File getCombinedWorldMapFile(String segmentName) {
-		return new File(getWorldmapDirectory(), Constants.FILENAME_WORLDMAP_HTMLFILE_PREFIX + segmentName + Constants.FILENAME_WORLDMAP_HTMLFILE_SUFFIX);
+	public static WorldMapTilePyramid getWorldMapTilePyramid(String segmentName) {
+		return new WorldMapTilePyramid(new File(getWorldmapDirectory(), segmentName));
 	}
 
-	private static String getWorldMapSegmentAsHtml(Resources res, WorldContext world, String segmentName) {
-		WorldMapSegment segment = world.maps.worldMapSegments.get(segmentName);
-
-		Map<String, File> displayedMapFilenamesPerMapName = new HashMap<String, File>(segment.maps.size());
-		Coord offsetWorldmapTo = new Coord(999999, 999999);
+	// The areas of the maps of the segment that have been visited in this game, and that are drawn in the pyramid.
+	public static HashMap<String, CoordRect> getDisplayedMapAreas(WorldContext world, WorldMapSegment segment, WorldMapTilePyramid pyramid) {
+		final HashMap<String, String> drawnMaps = pyramid.readIndex();
+		final HashMap<String, CoordRect> result = new HashMap<String, CoordRect>();
 		for (WorldMapSegmentMap map : segment.maps.values()) {
 			PredefinedMap predefinedMap = world.maps.findPredefinedMap(map.mapName);
 			if (predefinedMap == null) continue;
 			if (!predefinedMap.visited) continue;
-			File f = WorldMapController.getFileForMap(predefinedMap, true);
-			if (!f.exists()) continue;
-			displayedMapFilenamesPerMapName.put(map.mapName, f);
-
-			offsetWorldmapTo.x = Math.min(offsetWorldmapTo.x, map.worldPosition.x);
-			offsetWorldmapTo.y = Math.min(offsetWorldmapTo.y, map.worldPosition.y);
+			if (!drawnMaps.containsKey(map.mapName)) continue;
+			result.put(map.mapName, new CoordRect(map.worldPosition, predefinedMap.size));
 		}
-
-		Coord bottomRight = new Coord(0, 0);
-
-		StringBuilder mapsAsHtml = new StringBuilder(1000);
-		for (WorldMapSegmentMap segmentMap : segment.maps.values()) {
-			File f = displayedMapFilenamesPerMapName.get(segmentMap.mapName);
-			if (f == null) continue;
-
-			Size size = getMapSize(segmentMap, world);
-			mapsAsHtml
-				.append("<img src=\"")
-				.append(f.getName())
-				.append("\" id=\"")
-				.append(segmentMap.mapName)
-				.append("\" style=\"width:")
-				.append(size.width * WorldMapController.WORLDMAP_DISPLAY_TILESIZE)
-				.append("px; height:")
-				.append(size.height * WorldMapController.WORLDMAP_DISPLAY_TILESIZE)
-				.append("px; left:")
-				.append((segmentMap.worldPosition.x - offsetWorldmapTo.x) * WorldMapController.WORLDMAP_DISPLAY_TILESIZE)
-				.append("px; top:")
-				.append((segmentMap.worldPosition.y - offsetWorldmapTo.y) * WorldMapController.WORLDMAP_DISPLAY_TILESIZE)
-				.append("px;\" />");
-			if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) mapsAsHtml.append('\n');
-
-			bottomRight.x = Math.max(bottomRight.x, segmentMap.worldPosition.x + size.width);
-			bottomRight.y = Math.max(bottomRight.y, segmentMap.worldPosition.y + size.height);
-		}
-		Size worldmapSegmentSize = new Size(
-				(bottomRight.x - offsetWorldmapTo.x) * WorldMapController.WORLDMAP_DISPLAY_TILESIZE
-				,(bottomRight.y - offsetWorldmapTo.y) * WorldMapController.WORLDMAP_DISPLAY_TILESIZE
-			);
-
-		StringBuilder namedAreasAsHtml = new StringBuilder(500);
-		for (NamedWorldMapArea area : segment.namedAreas.values()) {
-			CoordRect r = determineNamedAreaBoundary(area, segment, world, displayedMapFilenamesPerMapName.keySet());
-			if (r == null) continue;
-			namedAreasAsHtml
-				.append("<div class=\"namedarea ")
-				.append(area.type)
-				.append("\" style=\"width:")
-				.append(r.size.width * WorldMapController.WORLDMAP_DISPLAY_TILESIZE)
-				.append("px; line-height:")
-				.append(r.size.height * WorldMapController.WORLDMAP_DISPLAY_TILESIZE)
-				.append("px; left:")
-				.append((r.topLeft.x - offsetWorldmapTo.x) * WorldMapController.WORLDMAP_DISPLAY_TILESIZE)
-				.append("px; top:")
-				.append((r.topLeft.y - offsetWorldmapTo.y) * WorldMapController.WORLDMAP_DISPLAY_TILESIZE)
-				.append("px;\"><span>")
-				.append(area.name)
-				.append("</span></div>");
-			if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) namedAreasAsHtml.append('\n');
-		}
-
-		return res.getString(R.string.worldmap_template)
-				.replace("{{maps}}", mapsAsHtml.toString())
-				.replace("{{areas}}", namedAreasAsHtml.toString())
-				.replace("{{sizex}}", Integer.toString(worldmapSegmentSize.width))
-				.replace("{{sizey}}", Integer.toString(worldmapSegmentSize.height))
-				.replace("{{offsetx}}", Integer.toString(offsetWorldmapTo.x * WorldMapController.WORLDMAP_DISPLAY_TILESIZE))
-				.replace("{{offsety}}", Integer.toString(offsetWorldmapTo.y * WorldMapController.WORLDMAP_DISPLAY_TILESIZE));
+		return result;
 	}
 
 	private static Size getMapSize(WorldMapSegmentMap map, WorldContext world) {
 		return world.maps.findPredefinedMap(map.mapName).size;
 	}
 
-	private static CoordRect determineNamedAreaBoundary(NamedWorldMapArea area, WorldMapSegment segment, WorldContext world, Set<String> displayedMapNames) {
+	public static CoordRect determineNamedAreaBoundary(NamedWorldMapArea area, WorldMapSegment segment, WorldContext world, Set<String> displayedMapNames) {
 		Coord topLeft = null;
 		Coord bottomRight = null;
 
@@ -286,24 +160,51 @@ public final class WorldMapController {
 		return new CoordRect(topLeft, new Size(bottomRight.x - topLeft.x, bottomRight.y - topLeft.y));
 	}
 
-	private static void updateWorldMapSegment(Resources res, WorldContext world, String segmentName) throws IOException {
-		String mapAsHtml = getWorldMapSegmentAsHtml(res, world, segmentName);
-		File outputFile = getCombinedWorldMapFile(segmentName);
-		PrintWriter pw = new PrintWriter(outputFile);
-		pw.write(mapAsHtml);
-		pw.close();
+	// The pending images are only kept in memory, so they are written when the game is saved or paused, in case the
+	// process is killed before the updater would have written them.
+	public static void writePendingWorldMapImages() {
+		getUpdater().writeNow(null);
 	}
 
-	public static boolean displayWorldMap(Context context, WorldContext world) {
-		String worldMapSegmentName = world.maps.getWorldMapSegmentNameForMap(world.model.currentMap.name);
+	public static boolean displayWorldMap(final Context context, final WorldContext world) {
+		if (!world.maps.isWorldMapSegmentsLoaded()) {
+			// Opened right after the game has started, while the worldmap segments are still loading. The worldmap
+			// is opened once they have been loaded, instead of blocking the main thread until then.
+			if (isWaitingToDisplayWorldMap) return true;
+			isWaitingToDisplayWorldMap = true;
+			world.maps.whenWorldMapSegmentsLoaded(new Runnable() {
+				@Override
+				public void run() {
+					isWaitingToDisplayWorldMap = false;
+					displayWorldMap(context, world);
+				}
+			});
+			return true;
+		}
+
+		String worldMapSegmentName = null;
+		if (!world.maps.hasWorldMapSegmentsFailed()) {
+			worldMapSegmentName = world.maps.getWorldMapSegmentNameForMap(world.model.currentMap.name);
+		}
 		if (worldMapSegmentName == null) {
 			Toast.makeText(context, context.getResources().getString(R.string.display_worldmap_not_available), Toast.LENGTH_LONG).show();
 			return false;
 		}
 
-		Intent intent = new Intent(context, DisplayWorldMapActivity.class);
-		intent.putExtra("worldMapSegmentName", worldMapSegmentName);
-		context.startActivity(intent);
+		// The images of the maps that the player has just visited may not have been written yet, and the pyramid of a
+		// segment that the player has just entered may not even exist. The worldmap is opened once they have been written.
+		if (isWaitingToDisplayWorldMap) return true;
+		isWaitingToDisplayWorldMap = true;
+		final String segmentName = worldMapSegmentName;
+		getUpdater().writeNow(new Runnable() {
+			@Override
+			public void run() {
+				isWaitingToDisplayWorldMap = false;
+				Intent intent = new Intent(context, DisplayWorldMapActivity.class);
+				intent.putExtra("worldMapSegmentName", segmentName);
+				context.startActivity(intent);
+			}
+		});
 
 		return true;
 	}
@@ -0,0 +1,221 @@
+package com.gpl.rpg.AndorsTrail.controller;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import com.gpl.rpg.AndorsTrail.util.L;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+// The worldmap of one segment, stored as square image tiles of TILE_SIZE pixels at NUM_LEVELS zoom levels.
+//
+// Level 0 has WorldMapController.WORLDMAP_SCREENSHOT_TILESIZE pixels per map tile, and each level above it is half
+// the size of the one below. Tile (tx, ty) of a level covers the pixels [tx * TILE_SIZE, (tx + 1) * TILE_SIZE) of that
+// level, where pixel 0 is world position 0 of the segment. The files are stored as <level>/<tx>_<ty>.png in the
+// directory of the segment.
+//
+// The pyramid is updated with the maps that have been visited or whose layout has changed. Only the tiles under those
+// maps are written again, so the cost of an update does not depend on the size of the segment. The index file records
+// which layout of each map the tiles show.
+//
+// Tiles are written to a temporary file first, so that the viewer never reads a tile that is half written.
+public final class WorldMapTilePyramid {
+	public static final int TILE_SIZE = 256;
+	public static final int NUM_LEVELS = 6;
+	private static final String INDEX_FILENAME = "index";
+
+	private final File directory;
+
+	public WorldMapTilePyramid(File directory) {
+		this.directory = directory;
+	}
+
+	public File getTileFile(int level, int tx, int ty) {
+		return new File(new File(directory, Integer.toString(level)), tx + "_" + ty + ".png");
+	}
+
+	public boolean exists() {
+		return new File(directory, INDEX_FILENAME).exists();
+	}
+
+	// Returns the layout hash of each map that is drawn in the pyramid.
+	public HashMap<String, String> readIndex() {
+		final HashMap<String, String> result = new HashMap<String, String>();
+		final File file = new File(directory, INDEX_FILENAME);
+		if (!file.exists()) return result;
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(file));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					final int i = line.indexOf('\t');
+					if (i < 0) continue;
+					result.put(line.substring(0, i), line.substring(i + 1));
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			L.log("WARNING: Could not read worldmap index " + file.getAbsolutePath() + " : " + e.toString());
+		}
+		return result;
+	}
+
+	// The image of one map, and the pixel of level 0 where its top left corner is drawn.
+	public static final class MapImage {
+		public final String mapName;
+		public final String layoutHash;
+		public final Bitmap image;
+		public final int left;
+		public final int top;
+		public MapImage(String mapName, String layoutHash, Bitmap image, int left, int top) {
+			this.mapName = mapName;
+			this.layoutHash = layoutHash;
+			this.image = image;
+			this.left = left;
+			this.top = top;
+		}
+	}
+
+	// Draws the images of the maps into the tiles of all levels. Each tile that is covered by several of the maps is
+	// only read and written once per level. Must only be called from one thread at a time, see WorldMapUpdater.
+	public void updateMaps(Collection<MapImage> maps) throws IOException {
+		for (int level = 0; level < NUM_LEVELS; ++level) {
+			File dir = new File(directory, Integer.toString(level));
+			if (!dir.exists() && !dir.mkdirs()) throw new IOException("Could not create " + dir.getAbsolutePath());
+		}
+
+		HashSet<Long> changedTiles = new HashSet<Long>();
+		for (MapImage m : maps) {
+			final int minTX = floorDiv(m.left, TILE_SIZE);
+			final int minTY = floorDiv(m.top, TILE_SIZE);
+			final int maxTX = floorDiv(m.left + m.image.getWidth() - 1, TILE_SIZE);
+			final int maxTY = floorDiv(m.top + m.image.getHeight() - 1, TILE_SIZE);
+			for (int ty = minTY; ty <= maxTY; ++ty) {
+				for (int tx = minTX; tx <= maxTX; ++tx) {
+					changedTiles.add(getTileKey(tx, ty));
+				}
+			}
+		}
+
+		final Bitmap tile = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+		tile.setDensity(Bitmap.DENSITY_NONE);
+		final Canvas canvas = new Canvas(tile);
+		try {
+			final Paint replacePaint = new Paint();
+			replacePaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+			for (Long key : changedTiles) {
+				final int tx = getTileX(key);
+				final int ty = getTileY(key);
+				loadTile(canvas, 0, tx, ty);
+				for (MapImage m : maps) {
+					canvas.drawBitmap(m.image, m.left - tx * TILE_SIZE, m.top - ty * TILE_SIZE, replacePaint);
+				}
+				writeTile(tile, 0, tx, ty);
+			}
+
+			final Paint scalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+			for (int level = 1; level < NUM_LEVELS; ++level) {
+				HashSet<Long> parentTiles = new HashSet<Long>();
+				for (Long key : changedTiles) {
+					parentTiles.add(getTileKey(floorDiv(getTileX(key), 2), floorDiv(getTileY(key), 2)));
+				}
+				for (Long key : parentTiles) {
+					final int tx = getTileX(key);
+					final int ty = getTileY(key);
+					combineChildTiles(canvas, scalePaint, level, tx, ty);
+					writeTile(tile, level, tx, ty);
+				}
+				changedTiles = parentTiles;
+			}
+		} finally {
+			tile.recycle();
+		}
+
+		final HashMap<String, String> index = readIndex();
+		for (MapImage m : maps) index.put(m.mapName, m.layoutHash);
+		writeIndex(index);
+	}
+
+	private static long getTileKey(int tx, int ty) { return (((long) tx) << 32) | (ty & 0xffffffffL); }
+	private static int getTileX(long key) { return (int) (key >> 32); }
+	private static int getTileY(long key) { return (int) key; }
+
+	private void loadTile(Canvas canvas, int level, int tx, int ty) {
+		canvas.drawColor(0, PorterDuff.Mode.CLEAR);
+		final File file = getTileFile(level, tx, ty);
+		if (!file.exists()) return;
+		final Bitmap existing = BitmapFactory.decodeFile(file.getAbsolutePath());
+		if (existing == null) return;
+		existing.setDensity(Bitmap.DENSITY_NONE);
+		canvas.drawBitmap(existing, 0, 0, null);
+		existing.recycle();
+	}
+
+	private void combineChildTiles(Canvas canvas, Paint scalePaint, int level, int tx, int ty) {
+		canvas.drawColor(0, PorterDuff.Mode.CLEAR);
+		final Rect dest = new Rect();
+		final int half = TILE_SIZE / 2;
+		for (int dy = 0; dy <= 1; ++dy) {
+			for (int dx = 0; dx <= 1; ++dx) {
+				final File file = getTileFile(level - 1, tx * 2 + dx, ty * 2 + dy);
+				if (!file.exists()) continue;
+				final Bitmap child = BitmapFactory.decodeFile(file.getAbsolutePath());
+				if (child == null) continue;
+				child.setDensity(Bitmap.DENSITY_NONE);
+				dest.set(dx * half, dy * half, (dx + 1) * half, (dy + 1) * half);
+				canvas.drawBitmap(child, null, dest, scalePaint);
+				child.recycle();
+			}
+		}
+	}
+
+	private void writeTile(Bitmap tile, int level, int tx, int ty) throws IOException {
+		final File file = getTileFile(level, tx, ty);
+		final File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tempFile);
+		try {
+			tile.compress(Bitmap.CompressFormat.PNG, 100, fos);
+			fos.flush();
+		} finally {
+			fos.close();
+		}
+		if (!tempFile.renameTo(file)) throw new IOException("Could not write " + file.getAbsolutePath());
+	}
+
+	private void writeIndex(HashMap<String, String> index) throws IOException {
+		final File file = new File(directory, INDEX_FILENAME);
+		final File tempFile = new File(directory, INDEX_FILENAME + ".tmp");
+		PrintWriter pw = new PrintWriter(tempFile);
+		try {
+			for (Map.Entry<String, String> e : index.entrySet()) {
+				pw.print(e.getKey());
+				pw.print('\t');
+				pw.print(e.getValue());
+				pw.print('\n');
+			}
+		} finally {
+			pw.close();
+		}
+		if (!tempFile.renameTo(file)) throw new IOException("Could not write " + file.getAbsolutePath());
+	}
+
+	public static int floorDiv(int a, int b) {
+		final int q = a / b;
+		if ((a % b != 0) && ((a < 0) != (b < 0))) return q - 1;
+		return q;
+	}
+}
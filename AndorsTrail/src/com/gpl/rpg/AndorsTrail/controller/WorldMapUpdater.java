@@ -0,0 +1,351 @@
+package com.gpl.rpg.AndorsTrail.controller;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import com.gpl.rpg.AndorsTrail.AndorsTrailApplication;
+import com.gpl.rpg.AndorsTrail.model.map.LayeredTileMap;
+import com.gpl.rpg.AndorsTrail.model.map.MapLayer;
+import com.gpl.rpg.AndorsTrail.model.map.MapSection;
+import com.gpl.rpg.AndorsTrail.resource.tiles.TileCollection;
+import com.gpl.rpg.AndorsTrail.util.L;
+import com.gpl.rpg.AndorsTrail.util.Size;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+
+// The one thread that updates the worldmap. Updates are queued as MapLayoutSnapshots, which are taken by the thread
+// that is changing the map, so this thread never reads a LayeredTileMap while it changes. That is usually the main
+// thread, but placePlayerAsyncAt() takes the snapshot of the new map on its background thread, before the map is
+// handed to the main thread.
+//
+// Each snapshot is drawn as soon as possible, so that the tiles it holds can be released. Writing the images to the
+// WorldMapTilePyramid is slower, so it waits until no map has been entered for WRITE_DELAY_MS, when the player has
+// stopped crossing maps. Then all images of a segment are written in one update of its pyramid. A map that is queued
+// again before it has been written replaces its pending image, and a layout that is already in the pyramid is skipped.
+//
+// The images that older versions stored per map are imported into the pyramids before any snapshot is drawn, so that
+// the maps that the player visits later are drawn over them.
+public final class WorldMapUpdater extends Thread {
+	private static final long WRITE_DELAY_MS = 3000;
+	private static final int LEGACY_IMPORT_BATCH_SIZE = 8;
+
+	private final Object lock = new Object();
+	private final LinkedList<MapLayoutSnapshot> queuedSnapshots = new LinkedList<MapLayoutSnapshot>(); // Guarded by lock.
+	private long lastQueueTime = 0; // Guarded by lock.
+	private boolean writeNow = false; // Guarded by lock.
+	private final ArrayList<Runnable> onWrittenCallbacks = new ArrayList<Runnable>(); // Guarded by lock.
+	private ArrayList<LegacyMapImage> legacyImages = null; // Guarded by lock.
+
+	// Only used from this thread.
+	private final HashMap<String, LinkedHashMap<String, WorldMapTilePyramid.MapImage>> pendingImages = new HashMap<String, LinkedHashMap<String, WorldMapTilePyramid.MapImage>>();
+	private final HashMap<String, HashMap<String, String>> writtenLayouts = new HashMap<String, HashMap<String, String>>();
+
+	public WorldMapUpdater() {
+		super("WorldMapUpdater");
+		setDaemon(true);
+		setPriority(Thread.MIN_PRIORITY);
+	}
+
+	public void queue(MapLayoutSnapshot snapshot) {
+		synchronized (lock) {
+			queuedSnapshots.add(snapshot);
+			lastQueueTime = System.currentTimeMillis();
+			lock.notify();
+		}
+	}
+
+	public void importLegacyImages(ArrayList<LegacyMapImage> maps) {
+		synchronized (lock) {
+			legacyImages = maps;
+			lock.notify();
+		}
+	}
+
+	// Writes the pending images without waiting for the player to stop, because the worldmap is about to be shown.
+	// The callback is run on the main thread once everything that has been queued so far is in the pyramids.
+	public void writeNow(Runnable onWritten) {
+		synchronized (lock) {
+			writeNow = true;
+			if (onWritten != null) onWrittenCallbacks.add(onWritten);
+			lock.notify();
+		}
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			MapLayoutSnapshot snapshot = null;
+			ArrayList<LegacyMapImage> legacyImagesToImport = null;
+			synchronized (lock) {
+				try {
+					while (true) {
+						if (legacyImages != null) {
+							legacyImagesToImport = legacyImages;
+							legacyImages = null;
+							break;
+						}
+						if (!queuedSnapshots.isEmpty()) {
+							snapshot = queuedSnapshots.removeFirst();
+							break;
+						}
+						if (pendingImages.isEmpty()) {
+							writeNow = false;
+							if (!onWrittenCallbacks.isEmpty()) {
+								final Handler handler = new Handler(Looper.getMainLooper());
+								for (Runnable callback : onWrittenCallbacks) handler.post(callback);
+								onWrittenCallbacks.clear();
+							}
+							lock.wait();
+							continue;
+						}
+						final long delay = lastQueueTime + WRITE_DELAY_MS - System.currentTimeMillis();
+						if (writeNow || !onWrittenCallbacks.isEmpty() || delay <= 0) {
+							writeNow = false;
+							break;
+						}
+						lock.wait(delay);
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+			if (legacyImagesToImport != null) importLegacyImages_(legacyImagesToImport);
+			else if (snapshot != null) drawSnapshot(snapshot);
+			else writePendingImages();
+		}
+	}
+
+	private void drawSnapshot(MapLayoutSnapshot snapshot) {
+		try {
+			if (snapshot.layoutHash.equals(getWrittenLayouts(snapshot.segmentName).get(snapshot.mapName))) return;
+
+			LinkedHashMap<String, WorldMapTilePyramid.MapImage> images = pendingImages.get(snapshot.segmentName);
+			if (images == null) {
+				images = new LinkedHashMap<String, WorldMapTilePyramid.MapImage>();
+				pendingImages.put(snapshot.segmentName, images);
+			}
+			final WorldMapTilePyramid.MapImage pending = images.get(snapshot.mapName);
+			if (pending != null) {
+				if (pending.layoutHash.equals(snapshot.layoutHash)) return;
+				pending.image.recycle();
+			}
+			images.put(snapshot.mapName, new WorldMapTilePyramid.MapImage(
+					snapshot.mapName
+					, snapshot.layoutHash
+					, snapshot.draw()
+					, snapshot.left
+					, snapshot.top
+				));
+		} finally {
+			snapshot.tiles.release();
+		}
+	}
+
+	private HashMap<String, String> getWrittenLayouts(String segmentName) {
+		HashMap<String, String> result = writtenLayouts.get(segmentName);
+		if (result == null) {
+			result = WorldMapController.getWorldMapTilePyramid(segmentName).readIndex();
+			writtenLayouts.put(segmentName, result);
+		}
+		return result;
+	}
+
+	private void writePendingImages() {
+		for (String segmentName : pendingImages.keySet()) {
+			final LinkedHashMap<String, WorldMapTilePyramid.MapImage> images = pendingImages.get(segmentName);
+			try {
+				WorldMapController.ensureWorldmapDirectoryExists();
+				WorldMapController.getWorldMapTilePyramid(segmentName).updateMaps(images.values());
+				final HashMap<String, String> written = getWrittenLayouts(segmentName);
+				for (WorldMapTilePyramid.MapImage m : images.values()) written.put(m.mapName, m.layoutHash);
+				if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) {
+					L.log("WorldMapUpdater: Updated worldmap segment " + segmentName + " with " + images.size() + " maps");
+				}
+			} catch (IOException e) {
+				L.log("Error updating worldmap segment " + segmentName + " : " + e.toString());
+				// Some of the tiles may have been written, so the index is read again before the next update.
+				writtenLayouts.remove(segmentName);
+			} finally {
+				for (WorldMapTilePyramid.MapImage m : images.values()) m.image.recycle();
+			}
+		}
+		pendingImages.clear();
+	}
+
+	// A map that older versions may have stored as <map>.png or <map>.<layout hash>.png in the worldmap directory.
+	public static final class LegacyMapImage {
+		private final String segmentName;
+		private final String mapName;
+		private final String lastSeenLayoutHash;
+		private final int left;
+		private final int top;
+		public LegacyMapImage(String segmentName, String mapName, String lastSeenLayoutHash, int left, int top) {
+			this.segmentName = segmentName;
+			this.mapName = mapName;
+			this.lastSeenLayoutHash = lastSeenLayoutHash;
+			this.left = left;
+			this.top = top;
+		}
+	}
+
+	// Maps that are already in the pyramid are skipped, since the pyramid holds a newer image of them. The legacy
+	// images are drawn in small batches, so that only a few of them are decoded at a time, and each file is deleted as
+	// soon as its image has been written to the pyramid. Files that are not imported are left as they are.
+	private void importLegacyImages_(ArrayList<LegacyMapImage> maps) {
+		final File dir = WorldMapController.getWorldmapDirectory();
+		final String[] fileNames = dir.list();
+		if (fileNames == null) return;
+		final HashSet<String> existingFiles = new HashSet<String>(Arrays.asList(fileNames));
+
+		final HashMap<String, ArrayList<LegacyMapImage>> mapsPerSegment = new HashMap<String, ArrayList<LegacyMapImage>>();
+		for (LegacyMapImage m : maps) {
+			ArrayList<LegacyMapImage> segmentMaps = mapsPerSegment.get(m.segmentName);
+			if (segmentMaps == null) {
+				segmentMaps = new ArrayList<LegacyMapImage>();
+				mapsPerSegment.put(m.segmentName, segmentMaps);
+			}
+			segmentMaps.add(m);
+		}
+
+		int numImported = 0;
+		for (String segmentName : mapsPerSegment.keySet()) {
+			final ArrayList<WorldMapTilePyramid.MapImage> images = new ArrayList<WorldMapTilePyramid.MapImage>();
+			final ArrayList<File> files = new ArrayList<File>();
+			for (LegacyMapImage m : mapsPerSegment.get(segmentName)) {
+				if (getWrittenLayouts(segmentName).containsKey(m.mapName)) continue;
+
+				String layoutHash = m.lastSeenLayoutHash;
+				String fileName = m.mapName + '.' + layoutHash + ".png";
+				if (layoutHash.length() == 0 || !existingFiles.contains(fileName)) {
+					layoutHash = "";
+					fileName = m.mapName + ".png";
+					if (!existingFiles.contains(fileName)) continue;
+				}
+				final File file = new File(dir, fileName);
+				final Bitmap image = BitmapFactory.decodeFile(file.getAbsolutePath());
+				if (image == null) {
+					L.log("WARNING: Could not read legacy worldmap image " + file.getAbsolutePath());
+					continue;
+				}
+				image.setDensity(Bitmap.DENSITY_NONE);
+				images.add(new WorldMapTilePyramid.MapImage(m.mapName, layoutHash, image, m.left, m.top));
+				files.add(file);
+				if (images.size() >= LEGACY_IMPORT_BATCH_SIZE) numImported += writeLegacyImages(segmentName, images, files);
+			}
+			if (!images.isEmpty()) numImported += writeLegacyImages(segmentName, images, files);
+		}
+		if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) {
+			L.log("WorldMapUpdater: Imported " + numImported + " legacy worldmap images");
+		}
+	}
+
+	// Returns the number of images that were written, and clears the lists.
+	private int writeLegacyImages(String segmentName, ArrayList<WorldMapTilePyramid.MapImage> images, ArrayList<File> files) {
+		int result = 0;
+		try {
+			WorldMapController.ensureWorldmapDirectoryExists();
+			WorldMapController.getWorldMapTilePyramid(segmentName).updateMaps(images);
+			final HashMap<String, String> written = getWrittenLayouts(segmentName);
+			for (WorldMapTilePyramid.MapImage m : images) written.put(m.mapName, m.layoutHash);
+			for (File f : files) f.delete();
+			result = images.size();
+		} catch (IOException e) {
+			L.log("Error importing legacy worldmap images into segment " + segmentName + " : " + e.toString());
+			writtenLayouts.remove(segmentName);
+		} finally {
+			for (WorldMapTilePyramid.MapImage m : images) m.image.recycle();
+			images.clear();
+			files.clear();
+		}
+		return result;
+	}
+
+	// A copy of the layout of a map, taken by the thread that is changing the map. Holds a reference to the tiles of the map until it has
+	// been drawn.
+	public static final class MapLayoutSnapshot {
+		private final String segmentName;
+		private final String mapName;
+		private final String layoutHash;
+		private final int left;
+		private final int top;
+		private final Size size;
+		private final int[][] layerGround;
+		private final int[][] layerObjects;
+		private final int[][] layerAbove;
+		private final ColorFilter colorFilter;
+		private final TileCollection tiles;
+		private final int tileSize;
+
+		// Returns null if the tiles have already been released, which only happens when the player has left the map.
+		public static MapLayoutSnapshot create(String segmentName, String mapName, int left, int top, Size size, LayeredTileMap tileMap, TileCollection tiles, int tileSize) {
+			if (!tiles.tryAcquire()) return null;
+			return new MapLayoutSnapshot(segmentName, mapName, left, top, size, tileMap, tiles, tileSize);
+		}
+
+		private MapLayoutSnapshot(String segmentName, String mapName, int left, int top, Size size, LayeredTileMap tileMap, TileCollection tiles, int tileSize) {
+			final MapSection layout = tileMap.currentLayout;
+			this.segmentName = segmentName;
+			this.mapName = mapName;
+			this.layoutHash = tileMap.getCurrentLayoutHash();
+			this.left = left;
+			this.top = top;
+			this.size = size;
+			this.layerGround = copy(layout.layerGround);
+			this.layerObjects = copy(layout.layerObjects);
+			this.layerAbove = copy(layout.layerAbove);
+			this.colorFilter = tileMap.getColorFilter();
+			this.tiles = tiles;
+			this.tileSize = tileSize;
+		}
+
+		private static int[][] copy(MapLayer layer) {
+			if (layer == null) return null;
+			final int[][] result = new int[layer.tiles.length][];
+			for (int x = 0; x < result.length; ++x) result[x] = layer.tiles[x].clone();
+			return result;
+		}
+
+		private Bitmap draw() {
+			final int screenshotTileSize = WorldMapController.WORLDMAP_SCREENSHOT_TILESIZE;
+			Bitmap image = Bitmap.createBitmap(size.width * screenshotTileSize, size.height * screenshotTileSize, Config.RGB_565);
+			image.setDensity(Bitmap.DENSITY_NONE);
+			Canvas canvas = new Canvas(image);
+			final float scale = (float) screenshotTileSize / tileSize;
+			canvas.scale(scale, scale);
+
+			final Paint paint = new Paint();
+			paint.setColorFilter(colorFilter);
+			final Rect destRect = new Rect();
+			drawMapLayer(canvas, layerGround, paint, destRect);
+			drawMapLayer(canvas, layerObjects, paint, destRect);
+			drawMapLayer(canvas, layerAbove, paint, destRect);
+			return image;
+		}
+
+		private void drawMapLayer(Canvas canvas, int[][] layer, Paint paint, Rect destRect) {
+			if (layer == null) return;
+			int py = 0;
+			for (int y = 0; y < size.height; ++y, py += tileSize) {
+				int px = 0;
+				for (int x = 0; x < size.width; ++x, px += tileSize) {
+					final int tile = layer[x][y];
+					if (tile == 0) continue;
+					tiles.drawTile(canvas, tile, px, py, paint, destRect);
+				}
+			}
+		}
+	}
+}
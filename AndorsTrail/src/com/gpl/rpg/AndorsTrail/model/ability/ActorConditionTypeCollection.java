@@ -1,9 +1,12 @@
 package com.gpl.rpg.AndorsTrail.model.ability;
 
 import com.gpl.rpg.AndorsTrail.AndorsTrailApplication;
+import com.gpl.rpg.AndorsTrail.resource.parsers.GameDataBundleReader;
 import com.gpl.rpg.AndorsTrail.resource.parsers.ActorConditionsTypeParser;
 import com.gpl.rpg.AndorsTrail.util.L;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 
 public final class ActorConditionTypeCollection {
@@ -22,6 +25,14 @@ public final class ActorConditionTypeCollection {
 		parser.parseRows(input, conditionTypes);
 	}
 
+	public void initialize(final ActorConditionsTypeParser parser, InputStream input) {
+		parser.parseRows(input, conditionTypes);
+	}
+
+	public void initialize(final GameDataBundleReader bundle) throws IOException {
+		bundle.readActorConditionTypes(conditionTypes);
+	}
+
 	public HashMap<String, ActorConditionType> UNITTEST_getAllActorConditionsTypes() {
 		return conditionTypes;
 	}
@@ -1,9 +1,12 @@
 package com.gpl.rpg.AndorsTrail.model.actor;
 
 import com.gpl.rpg.AndorsTrail.AndorsTrailApplication;
+import com.gpl.rpg.AndorsTrail.resource.parsers.GameDataBundleReader;
 import com.gpl.rpg.AndorsTrail.resource.parsers.MonsterTypeParser;
 import com.gpl.rpg.AndorsTrail.util.L;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 
@@ -39,6 +42,14 @@ public final class MonsterTypeCollection {
 		parser.parseRows(input, monsterTypesById);
 	}
 
+	public void initialize(MonsterTypeParser parser, InputStream input) {
+		parser.parseRows(input, monsterTypesById);
+	}
+
+	public void initialize(final GameDataBundleReader bundle) throws IOException {
+		bundle.readMonsterTypes(monsterTypesById);
+	}
+
 	// Unit test method. Not part of the game logic.
 	public HashMap<String, MonsterType> UNITTEST_getAllMonsterTypes() {
 		return monsterTypesById;
@@ -4,6 +4,7 @@ import com.gpl.rpg.AndorsTrail.AndorsTrailApplication;
 import com.gpl.rpg.AndorsTrail.resource.parsers.ConversationListParser;
 import com.gpl.rpg.AndorsTrail.util.L;
 
+import java.io.InputStream;
 import java.util.Collection;
 import java.util.HashMap;
 
@@ -33,6 +34,10 @@ public final class ConversationCollection {
 		return parser.parseRows(input, phrases);
 	}
 
+	public Collection<String> initialize(ConversationListParser parser, InputStream input) {
+		return parser.parseRows(input, phrases);
+	}
+
 	// Unit test method. Not part of the game logic.
 	public HashMap<String, Phrase> UNITTEST_getAllPhrases() {
 		return phrases;
@@ -1,10 +1,14 @@
 package com.gpl.rpg.AndorsTrail.model.item;
 
 import com.gpl.rpg.AndorsTrail.AndorsTrailApplication;
+import com.gpl.rpg.AndorsTrail.resource.parsers.GameDataBundleReader;
 import com.gpl.rpg.AndorsTrail.resource.parsers.DropListParser;
 import com.gpl.rpg.AndorsTrail.util.L;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
+import java.util.Map.Entry;
 
 public final class DropListCollection {
 	public static final String DROPLIST_STARTITEMS = "startitems";
@@ -22,10 +26,25 @@ public final class DropListCollection {
 		return droplists.get(droplistID);
 	}
 
+	public String getDropListID(DropList dropList) {
+		for (Entry<String, DropList> e : droplists.entrySet()) {
+			if (e.getValue() == dropList) return e.getKey();
+		}
+		return null;
+	}
+
 	public void initialize(final DropListParser parser, String input) {
 		parser.parseRows(input, droplists);
 	}
 
+	public void initialize(final DropListParser parser, InputStream input) {
+		parser.parseRows(input, droplists);
+	}
+
+	public void initialize(final GameDataBundleReader bundle) throws IOException {
+		bundle.readDropLists(droplists);
+	}
+
 	// Unit test method. Not part of the game logic.
 	public HashMap<String, DropList> UNITTEST_getAllDropLists() {
 		return droplists;
@@ -4,6 +4,7 @@ import com.gpl.rpg.AndorsTrail.AndorsTrailApplication;
 import com.gpl.rpg.AndorsTrail.resource.parsers.ItemCategoryParser;
 import com.gpl.rpg.AndorsTrail.util.L;
 
+import java.io.InputStream;
 import java.util.HashMap;
 
 public final class ItemCategoryCollection {
@@ -22,6 +23,10 @@ public final class ItemCategoryCollection {
 		parser.parseRows(input, itemCategories);
 	}
 
+	public void initialize(final ItemCategoryParser parser, InputStream input) {
+		parser.parseRows(input, itemCategories);
+	}
+
 	// Unit test method. Not part of the game logic.
 	public HashMap<String, ItemCategory> UNITTEST_getAllItemCategories() {
 		return itemCategories;
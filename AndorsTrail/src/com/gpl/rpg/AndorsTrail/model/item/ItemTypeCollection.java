@@ -1,9 +1,12 @@
 package com.gpl.rpg.AndorsTrail.model.item;
 
 import com.gpl.rpg.AndorsTrail.AndorsTrailApplication;
+import com.gpl.rpg.AndorsTrail.resource.parsers.GameDataBundleReader;
 import com.gpl.rpg.AndorsTrail.resource.parsers.ItemTypeParser;
 import com.gpl.rpg.AndorsTrail.util.L;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 
 public final class ItemTypeCollection {
@@ -30,6 +33,14 @@ public final class ItemTypeCollection {
 		parser.parseRows(input, itemTypes);
 	}
 
+	public void initialize(final ItemTypeParser parser, InputStream input) {
+		parser.parseRows(input, itemTypes);
+	}
+
+	public void initialize(final GameDataBundleReader bundle) throws IOException {
+		bundle.readItemTypes(itemTypes);
+	}
+
 	// Unit test method. Not part of the game logic.
 	public HashMap<String, ItemType> UNITTEST_getAllItemTypes() {
 		return itemTypes;
@@ -0,0 +1,144 @@
+package com.gpl.rpg.AndorsTrail.model.map;
+
+import android.content.res.AssetManager;
+import com.gpl.rpg.AndorsTrail.AndorsTrailApplication;
+import com.gpl.rpg.AndorsTrail.model.quest.QuestProgress;
+import com.gpl.rpg.AndorsTrail.resource.parsers.bundle.BinaryMapFormat;
+import com.gpl.rpg.AndorsTrail.resource.tiles.TileCache;
+import com.gpl.rpg.AndorsTrail.util.Coord;
+import com.gpl.rpg.AndorsTrail.util.CoordRect;
+import com.gpl.rpg.AndorsTrail.util.L;
+import com.gpl.rpg.AndorsTrail.util.Size;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+// Reads the maps that were compiled from TMX by BinaryMapCompiler. The layers are stored already decoded, so reading a
+// map only consists of resolving the tiles used by the map to tile ids and copying the layers into the MapSections.
+public final class BinaryMapReader {
+
+	// Returns null if there is no compiled map that matches the current version of the game. The caller should read the TMX map instead.
+	public static LayeredTileMap read(AssetManager mgr, TileCache tileCache, String mapName) {
+		if (AndorsTrailApplication.DEVELOPMENT_DEBUGRESOURCES) return null;
+
+		InputStream is;
+		try {
+			is = mgr.open(BinaryMapFormat.getAssetFilename(mapName), AssetManager.ACCESS_STREAMING);
+		} catch (IOException e) {
+			return null;
+		}
+		DataInputStream src = new DataInputStream(new BufferedInputStream(is, 8192));
+		try {
+			if (src.readInt() != BinaryMapFormat.MAGIC
+				|| src.readInt() != BinaryMapFormat.FORMAT_VERSION
+				|| src.readInt() != AndorsTrailApplication.CURRENT_VERSION) {
+				if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) {
+					L.log("Compiled map \"" + mapName + "\" is outdated, falling back to reading TMX map.");
+				}
+				return null;
+			}
+			return readMap(src, tileCache, mapName);
+		} catch (IOException e) {
+			L.log("ERROR: Reading compiled map \"" + mapName + "\" failed. " + e.toString());
+			return null;
+		} finally {
+			try {
+				src.close();
+			} catch (IOException ignored) { }
+		}
+	}
+
+	private static LayeredTileMap readMap(DataInputStream src, TileCache tileCache, String mapName) throws IOException {
+		final Size mapSize = new Size(src.readUnsignedShort(), src.readUnsignedShort());
+		final String colorFilter = readNullableString(src);
+
+		final String[] tilesetNames = new String[src.readUnsignedShort()];
+		for (int i = 0; i < tilesetNames.length; ++i) {
+			tilesetNames[i] = src.readUTF();
+		}
+		// Index 0 means no tile, which is stored as tile id 0 in the MapLayers.
+		final int[] tileIDs = new int[src.readUnsignedShort() + 1];
+		final HashSet<Integer> usedTileIDs = new HashSet<Integer>();
+		for (int i = 1; i < tileIDs.length; ++i) {
+			final String tilesetName = tilesetNames[src.readUnsignedShort()];
+			final int localId = src.readUnsignedShort();
+			tileIDs[i] = tileCache.getTileID(tilesetName, localId);
+			usedTileIDs.add(tileIDs[i]);
+		}
+
+		final MapSection defaultLayout = readSection(src, mapSize, tileIDs);
+
+		final int numReplacements = src.readUnsignedShort();
+		ArrayList<ReplaceableMapSection> replaceableSections = new ArrayList<ReplaceableMapSection>(numReplacements);
+		for (int i = 0; i < numReplacements; ++i) {
+			final Coord topLeft = new Coord(src.readShort(), src.readShort());
+			final CoordRect position = new CoordRect(topLeft, new Size(src.readShort(), src.readShort()));
+			final String name = readNullableString(src);
+			final String group = readNullableString(src);
+			final MapSection replacementSection = readSection(src, position.size, tileIDs);
+			QuestProgress requireQuestStage = QuestProgress.parseQuestProgress(name);
+			if (requireQuestStage == null) {
+				if (AndorsTrailApplication.DEVELOPMENT_VALIDATEDATA) {
+					L.log("WARNING: Map " + mapName + " contains replace area that cannot be parsed as a quest stage.");
+				}
+				continue;
+			}
+			replaceableSections.add(new ReplaceableMapSection(position, replacementSection, requireQuestStage, group));
+		}
+
+		ReplaceableMapSection[] replaceableSections_ = null;
+		if (!replaceableSections.isEmpty()) {
+			replaceableSections_ = replaceableSections.toArray(new ReplaceableMapSection[replaceableSections.size()]);
+		}
+		return new LayeredTileMap(mapSize, defaultLayout, replaceableSections_, colorFilter, usedTileIDs);
+	}
+
+	private static MapSection readSection(DataInputStream src, Size size, int[] tileIDs) throws IOException {
+		final int flags = src.readUnsignedByte();
+		final byte[] buffer = new byte[size.width * size.height * 2];
+		final MapLayer layerGround = readTileLayer(src, (flags & BinaryMapFormat.SECTIONFLAG_GROUND) != 0, size, tileIDs, buffer);
+		final MapLayer layerObjects = readTileLayer(src, (flags & BinaryMapFormat.SECTIONFLAG_OBJECTS) != 0, size, tileIDs, buffer);
+		final MapLayer layerAbove = readTileLayer(src, (flags & BinaryMapFormat.SECTIONFLAG_ABOVE) != 0, size, tileIDs, buffer);
+		final boolean[][] isWalkable = readWalkableLayer(src, (flags & BinaryMapFormat.SECTIONFLAG_WALKABLE) != 0, size, buffer);
+		final byte[] layoutHash = new byte[src.readUnsignedByte()];
+		src.readFully(layoutHash);
+		return new MapSection(layerGround, layerObjects, layerAbove, isWalkable, layoutHash);
+	}
+
+	private static MapLayer readTileLayer(DataInputStream src, boolean isPresent, Size size, int[] tileIDs, byte[] buffer) throws IOException {
+		if (!isPresent) return null;
+		src.readFully(buffer, 0, size.width * size.height * 2);
+		final MapLayer result = new MapLayer(size);
+		int i = 0;
+		for (int x = 0; x < size.width; ++x) {
+			final int[] column = result.tiles[x];
+			for (int y = 0; y < size.height; ++y, i += 2) {
+				column[y] = tileIDs[(buffer[i] & 0xff) << 8 | (buffer[i+1] & 0xff)];
+			}
+		}
+		return result;
+	}
+
+	private static boolean[][] readWalkableLayer(DataInputStream src, boolean isPresent, Size size, byte[] buffer) throws IOException {
+		if (!isPresent) return null;
+		final int numBits = size.width * size.height;
+		src.readFully(buffer, 0, (numBits + 7) / 8);
+		final boolean[][] isWalkable = new boolean[size.width][size.height];
+		int bit = 0;
+		for (int x = 0; x < size.width; ++x) {
+			for (int y = 0; y < size.height; ++y, ++bit) {
+				isWalkable[x][y] = (buffer[bit >> 3] & (1 << (bit & 7))) != 0;
+			}
+		}
+		return isWalkable;
+	}
+
+	private static String readNullableString(DataInputStream src) throws IOException {
+		if (!src.readBoolean()) return null;
+		return src.readUTF();
+	}
+}
@@ -16,8 +16,10 @@ public final class LayeredTileMap {
 	private static final ColorFilter colorFilterBlack80 = createGrayScaleColorFilter(0.8f);
 
 	private final Size size;
-	public final MapSection currentLayout;
-	private String currentLayoutHash;
+	// Never changed once it is the current layout, since the RenderThread and the WorldMapUpdater may be reading it.
+	// A replacement is applied to a copy, which then becomes the current layout.
+	public volatile MapSection currentLayout;
+	private volatile String currentLayoutHash;
 	public final ReplaceableMapSection[] replacements;
 	public final String colorFilter;
 	public final Collection<Integer> usedTileIDs;
@@ -96,7 +98,9 @@ public final class LayeredTileMap {
 	}
 
 	public void applyReplacement(ReplaceableMapSection replacement) {
-		replacement.apply(currentLayout);
-		currentLayoutHash = currentLayout.calculateHash();
+		final MapSection layout = currentLayout.copy();
+		replacement.apply(layout);
+		currentLayoutHash = layout.calculateHash();
+		currentLayout = layout;
 	}
 }
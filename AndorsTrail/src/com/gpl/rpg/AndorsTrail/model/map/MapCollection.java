@@ -5,6 +5,7 @@ import com.gpl.rpg.AndorsTrail.context.ControllerContext;
 import com.gpl.rpg.AndorsTrail.context.WorldContext;
 import com.gpl.rpg.AndorsTrail.savegames.LegacySavegameFormatReaderForMap;
 import com.gpl.rpg.AndorsTrail.util.L;
+import com.gpl.rpg.AndorsTrail.util.LoadingFuture;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -16,8 +17,8 @@ import java.util.List;
 
 public final class MapCollection {
 	private final HashMap<String, PredefinedMap> predefinedMaps = new HashMap<String, PredefinedMap>();
-	public final HashMap<String, WorldMapSegment> worldMapSegments = new HashMap<String, WorldMapSegment>();
-	public boolean worldMapRequiresUpdate = true;
+	private final HashMap<String, WorldMapSegment> worldMapSegments = new HashMap<String, WorldMapSegment>();
+	private final LoadingFuture worldMapSegmentsLoaded = new LoadingFuture("worldmap segments");
 
 	public MapCollection() {}
 
@@ -44,10 +45,45 @@ public final class MapCollection {
 		for (PredefinedMap m : getAllMaps()) {
 			m.resetForNewGame();
 		}
-		worldMapRequiresUpdate = true;
+	}
+
+	public void addWorldMapSegment(WorldMapSegment segment) {
+		worldMapSegments.put(segment.name, segment);
+	}
+
+	public void setWorldMapSegmentsLoaded() {
+		worldMapSegmentsLoaded.setLoaded();
+	}
+
+	public void setWorldMapSegmentsFailed(Throwable cause) {
+		worldMapSegmentsLoaded.setFailed(cause);
+	}
+
+	// Runs the callback on the main thread once the worldmap segments can be read without waiting.
+	public void whenWorldMapSegmentsLoaded(Runnable callback) {
+		worldMapSegmentsLoaded.whenLoaded(callback);
+	}
+
+	public boolean isWorldMapSegmentsLoaded() {
+		return worldMapSegmentsLoaded.isLoaded();
+	}
+
+	public boolean hasWorldMapSegmentsFailed() {
+		return worldMapSegmentsLoaded.hasFailed();
+	}
+
+	public WorldMapSegment getWorldMapSegment(String segmentName) {
+		worldMapSegmentsLoaded.await();
+		return worldMapSegments.get(segmentName);
+	}
+
+	public Collection<WorldMapSegment> getWorldMapSegments() {
+		worldMapSegmentsLoaded.await();
+		return worldMapSegments.values();
 	}
 
 	public String getWorldMapSegmentNameForMap(String mapName) {
+		worldMapSegmentsLoaded.await();
 		for (WorldMapSegment segment : worldMapSegments.values()) {
 			if (segment.containsMap(mapName)) return segment.name;
 		}
@@ -8,6 +8,14 @@ public final class MapLayer {
 	public MapLayer(Size size) {
 		tiles = new int[size.width][size.height];
 	}
+	private MapLayer(int[][] tiles) {
+		this.tiles = tiles;
+	}
+	public MapLayer copy() {
+		final int[][] result = new int[tiles.length][];
+		for (int x = 0; x < tiles.length; ++x) result[x] = tiles[x].clone();
+		return new MapLayer(result);
+	}
 	public void setTile(int type, int x, int y) {
 		tiles[x][y] = type;
 	}
@@ -24,6 +24,26 @@ public final class MapSection {
 		this.layoutHash = layoutHash;
 	}
 
+	public MapSection copy() {
+		boolean[][] isWalkable = null;
+		if (this.isWalkable != null) {
+			isWalkable = new boolean[this.isWalkable.length][];
+			for (int x = 0; x < isWalkable.length; ++x) isWalkable[x] = this.isWalkable[x].clone();
+		}
+		return new MapSection(
+				copy(layerGround)
+				, copy(layerObjects)
+				, copy(layerAbove)
+				, isWalkable
+				, layoutHash.clone()
+			);
+	}
+
+	private static MapLayer copy(MapLayer layer) {
+		if (layer == null) return null;
+		return layer.copy();
+	}
+
 	public void replaceLayerContentsWith(final MapSection replaceLayersWith, final CoordRect replacementArea) {
 		replaceTileLayerSection(layerGround, replaceLayersWith.layerGround, replacementArea);
 		replaceTileLayerSection(layerObjects, replaceLayersWith.layerObjects, replacementArea);
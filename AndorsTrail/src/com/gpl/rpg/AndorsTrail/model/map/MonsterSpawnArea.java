@@ -16,12 +16,12 @@ import java.util.ArrayList;
 public final class MonsterSpawnArea {
 	public final CoordRect area;
 	public final Range quantity;
-	private final Range spawnChance;
+	public final Range spawnChance;
 	public final String monsterTypeSpawnGroup;
 	public final String[] monsterTypeIDs;
 	public final ArrayList<Monster> monsters = new ArrayList<Monster>();
 	public final boolean isUnique; // unique == non-respawnable
-	private final String group;
+	public final String group;
 	public boolean isSpawning;
 	public final boolean isSpawningForNewGame;
 
@@ -78,38 +78,184 @@ public final class PredefinedMap {
 	}
 	public List<MapObject> getActiveEventObjectsAt(final Coord p) {
 		List<MapObject> result = null;
-		for (MapObject o : eventObjects) {
+		for (int i : getEventObjectIndicesAt(p)) {
+			final MapObject o = eventObjects[i];
 			if (!o.isActive) continue;
-			if (!o.position.contains(p)) continue;
 			if (result == null) result = new ArrayList<MapObject>();
 			result.add(o);
 		}
 		return result;
 	}
 	public boolean hasContainerAt(final Coord p) {
-		for (MapObject o : eventObjects) {
+		for (int i : getEventObjectIndicesAt(p)) {
+			final MapObject o = eventObjects[i];
 			if (!o.isActive) continue;
 			if (o.type != MapObject.MapObjectType.container) continue;
-			if (!o.position.contains(p)) continue;
 			return true;
 		}
 		return false;
 	}
 
+	// The indices in eventObjects of the objects that cover each tile, in the order of eventObjects. Inactive objects
+	// are included, and skipped when they are found, so that activating or deactivating an object does not change the
+	// index. The positions of the objects never change, so the index is only built once.
+	private static final int[] NO_INDICES = new int[0];
+	private int[][] eventObjectIndices = null;
+
+	private int[] getEventObjectIndicesAt(final Coord p) {
+		if (isOutside(p)) return NO_INDICES;
+		if (eventObjectIndices == null) eventObjectIndices = createEventObjectIndices();
+		return eventObjectIndices[p.y * size.width + p.x];
+	}
+
+	private int[][] createEventObjectIndices() {
+		final int numTiles = size.width * size.height;
+		final int[] counts = new int[numTiles];
+		for (MapObject o : eventObjects) {
+			if (o == null) continue;
+			final CoordRect r = o.position;
+			for (int y = Math.max(0, r.topLeft.y); y < Math.min(size.height, r.topLeft.y + r.size.height); ++y) {
+				for (int x = Math.max(0, r.topLeft.x); x < Math.min(size.width, r.topLeft.x + r.size.width); ++x) {
+					++counts[y * size.width + x];
+				}
+			}
+		}
+		final int[][] result = new int[numTiles][];
+		for (int i = 0; i < numTiles; ++i) {
+			result[i] = counts[i] == 0 ? NO_INDICES : new int[counts[i]];
+			counts[i] = 0;
+		}
+		for (int i = 0; i < eventObjects.length; ++i) {
+			final MapObject o = eventObjects[i];
+			if (o == null) continue;
+			final CoordRect r = o.position;
+			for (int y = Math.max(0, r.topLeft.y); y < Math.min(size.height, r.topLeft.y + r.size.height); ++y) {
+				for (int x = Math.max(0, r.topLeft.x); x < Math.min(size.width, r.topLeft.x + r.size.width); ++x) {
+					final int tile = y * size.width + x;
+					result[tile][counts[tile]++] = i;
+				}
+			}
+		}
+		return result;
+	}
+
 	public Monster getMonsterAt(final CoordRect p) {
-		for (MonsterSpawnArea a : spawnAreas) {
-			Monster m = a.getMonsterAt(p);
-			if (m != null) return m;
+		final Monster[] occupancy = getMonsterOccupancy();
+		final int left = Math.max(0, p.topLeft.x);
+		final int top = Math.max(0, p.topLeft.y);
+		final int right = Math.min(size.width, p.topLeft.x + p.size.width);
+		final int bottom = Math.min(size.height, p.topLeft.y + p.size.height);
+		for (int y = top; y < bottom; ++y) {
+			for (int x = left; x < right; ++x) {
+				final Monster m = occupancy[y * size.width + x];
+				if (m != null) return m;
+			}
 		}
 		return null;
 	}
 	public Monster getMonsterAt(final Coord p) { return getMonsterAt(p.x, p.y); }
 	public Monster getMonsterAt(final int x, final int y) {
-		for (MonsterSpawnArea a : spawnAreas) {
-			Monster m = a.getMonsterAt(x, y);
-			if (m != null) return m;
+		if (isOutside(x, y)) return null;
+		return getMonsterOccupancy()[y * size.width + x];
+	}
+
+	// The monster that covers each tile, so that finding the monster at a position does not have to look through all
+	// monsters. Built when it is first needed. The controllers keep it up to date where they fire onMonsterSpawned,
+	// onMonsterMoved and onMonsterRemoved, before the listeners are called. Changes to many monsters at once, such as
+	// loading or resetting the map, discard it so that it is built again.
+	private Monster[] monsterOccupancy = null;
+
+	// Increased whenever monsters are added to or removed from the map, so that controllers that keep their own lists
+	// of the monsters of the map, such as the MonsterActionScheduler, can tell when to build them again.
+	private int monsterListVersion = 0;
+	public int getMonsterListVersion() { return monsterListVersion; }
+
+	private Monster[] getMonsterOccupancy() {
+		if (monsterOccupancy == null) {
+			monsterOccupancy = new Monster[size.width * size.height];
+			for (MonsterSpawnArea a : spawnAreas) {
+				for (Monster m : a.monsters) setMonsterOccupancy(m.rectPosition, null, m);
+			}
 		}
-		return null;
+		return monsterOccupancy;
+	}
+
+	public void addMonsterOccupancy(Monster m) {
+		++monsterListVersion;
+		if (monsterOccupancy == null) return;
+		setMonsterOccupancy(m.rectPosition, null, m);
+	}
+	public void removeMonsterOccupancy(Monster m, CoordRect previousPosition) {
+		++monsterListVersion;
+		if (monsterOccupancy == null) return;
+		setMonsterOccupancy(previousPosition, m, null);
+	}
+	public void moveMonsterOccupancy(Monster m, CoordRect previousPosition) {
+		if (monsterOccupancy == null) return;
+		setMonsterOccupancy(previousPosition, m, null);
+		setMonsterOccupancy(m.rectPosition, null, m);
+	}
+	public void invalidateMonsterOccupancy() {
+		++monsterListVersion;
+		monsterOccupancy = null;
+	}
+
+	// Sets the tiles of the area that hold expected to m, and leaves the tiles that hold other monsters.
+	private void setMonsterOccupancy(CoordRect area, Monster expected, Monster m) {
+		final int left = Math.max(0, area.topLeft.x);
+		final int top = Math.max(0, area.topLeft.y);
+		final int right = Math.min(size.width, area.topLeft.x + area.size.width);
+		final int bottom = Math.min(size.height, area.topLeft.y + area.size.height);
+		for (int y = top; y < bottom; ++y) {
+			for (int x = left; x < right; ++x) {
+				final int i = y * size.width + x;
+				if (monsterOccupancy[i] == expected) monsterOccupancy[i] = m;
+			}
+		}
+	}
+
+	// The tiles that monsters never enter, since they are covered by a newmap, keyarea or rest object. The positions of
+	// the objects never change, and whether they are active does not matter, so the mask is only built once.
+	private boolean[] monsterBlockingObjectMask = null;
+
+	public boolean hasMonsterBlockingObjectAt(final CoordRect p) {
+		if (monsterBlockingObjectMask == null) monsterBlockingObjectMask = createMonsterBlockingObjectMask();
+		final int left = Math.max(0, p.topLeft.x);
+		final int top = Math.max(0, p.topLeft.y);
+		final int right = Math.min(size.width, p.topLeft.x + p.size.width);
+		final int bottom = Math.min(size.height, p.topLeft.y + p.size.height);
+		for (int y = top; y < bottom; ++y) {
+			for (int x = left; x < right; ++x) {
+				if (monsterBlockingObjectMask[y * size.width + x]) return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean[] createMonsterBlockingObjectMask() {
+		final boolean[] result = new boolean[size.width * size.height];
+		for (MapObject o : eventObjects) {
+			if (o == null) continue;
+			switch (o.type) {
+				case newmap:
+				case keyarea:
+				case rest:
+					break;
+				default:
+					continue;
+			}
+			final CoordRect r = o.position;
+			final int left = Math.max(0, r.topLeft.x);
+			final int top = Math.max(0, r.topLeft.y);
+			final int right = Math.min(size.width, r.topLeft.x + r.size.width);
+			final int bottom = Math.min(size.height, r.topLeft.y + r.size.height);
+			for (int y = top; y < bottom; ++y) {
+				for (int x = left; x < right; ++x) {
+					result[y * size.width + x] = true;
+				}
+			}
+		}
+		return result;
 	}
 
 	public Monster findSpawnedMonster(final String monsterTypeID) {
@@ -121,10 +267,8 @@ public final class PredefinedMap {
 	}
 
 	public Loot getBagAt(final Coord p) {
-		for (Loot l : groundBags) {
-			if (l.position.equals(p)) return l;
-		}
-		return null;
+		if (isOutside(p)) return null;
+		return getBagIndex()[p.y * size.width + p.x];
 	}
 	public Loot getBagOrCreateAt(final Coord position) {
 		Loot b = getBagAt(position);
@@ -139,24 +283,58 @@ public final class PredefinedMap {
 			return b;
 		}
 		groundBags.add(b);
+		if (bagIndex != null) bagIndex[position.y * size.width + position.x] = b;
 		return b;
 	}
+
+	// The first bag in groundBags on each tile. Built when it is first needed, and kept up to date when bags are added
+	// and removed. Discarded when groundBags is replaced, or bags are moved, so that it is built again.
+	private Loot[] bagIndex = null;
+
+	private Loot[] getBagIndex() {
+		if (bagIndex == null) {
+			bagIndex = new Loot[size.width * size.height];
+			for (int i = groundBags.size() - 1; i >= 0; --i) {
+				final Loot l = groundBags.get(i);
+				if (isOutside(l.position)) continue;
+				bagIndex[l.position.y * size.width + l.position.x] = l;
+			}
+		}
+		return bagIndex;
+	}
+	public void invalidateBagIndex() {
+		bagIndex = null;
+	}
+
 	public void itemDropped(ItemType itemType, int quantity, Coord position) {
 		Loot l = getBagOrCreateAt(position);
 		l.items.addItem(itemType, quantity);
 	}
 	public void removeGroundLoot(Loot loot) {
-		groundBags.remove(loot);
+		if (!groundBags.remove(loot)) return;
+		if (bagIndex == null) return;
+		if (isOutside(loot.position)) return;
+		final int tile = loot.position.y * size.width + loot.position.x;
+		if (bagIndex[tile] != loot) return;
+		bagIndex[tile] = null;
+		for (Loot l : groundBags) {
+			if (l.position.equals(loot.position)) {
+				bagIndex[tile] = l;
+				break;
+			}
+		}
 	}
 	public void resetForNewGame() {
 		for (MonsterSpawnArea a : spawnAreas) {
 			a.resetForNewGame();
 		}
+		invalidateMonsterOccupancy();
 		for (MapObject o : eventObjects) {
 			o.resetForNewGame();
 		}
 		resetTemporaryData();
 		groundBags.clear();
+		invalidateBagIndex();
 		visited = false;
 		lastSeenLayoutHash = "";
 	}
@@ -173,6 +351,7 @@ public final class PredefinedMap {
 			if (a.isUnique) a.resetShops();
 			else a.removeAllMonsters();
 		}
+		invalidateMonsterOccupancy();
 		splatters.clear();
 		lastVisitTime = VISIT_RESET;
 	}
@@ -198,6 +377,7 @@ public final class PredefinedMap {
 	// ====== PARCELABLE ===================================================================
 
 	public void readFromParcel(DataInputStream src, WorldContext world, ControllerContext controllers, int fileversion) throws IOException {
+		invalidateMonsterOccupancy();
 		boolean shouldLoadMapData = true;
 		if (fileversion >= 37) shouldLoadMapData = src.readBoolean();
 
@@ -214,6 +394,7 @@ public final class PredefinedMap {
 			}
 
 			groundBags.clear();
+			invalidateBagIndex();
 			if (fileversion <= 5) return;
 
 			final int size2 = src.readInt();
@@ -253,6 +434,7 @@ public final class PredefinedMap {
 			if (area.isUnique && visited) controllers.monsterSpawnController.spawnAllInArea(this, null, area, true);
 			else area.resetForNewGame();
 		}
+		invalidateMonsterOccupancy();
 	}
 
 	public boolean shouldSaveMapData(WorldContext world) {
@@ -0,0 +1,254 @@
+package com.gpl.rpg.AndorsTrail.model.map;
+
+import android.content.Context;
+import com.gpl.rpg.AndorsTrail.AndorsTrailApplication;
+import com.gpl.rpg.AndorsTrail.model.item.DropListCollection;
+import com.gpl.rpg.AndorsTrail.model.script.Requirement;
+import com.gpl.rpg.AndorsTrail.util.Coord;
+import com.gpl.rpg.AndorsTrail.util.CoordRect;
+import com.gpl.rpg.AndorsTrail.util.L;
+import com.gpl.rpg.AndorsTrail.util.Range;
+import com.gpl.rpg.AndorsTrail.util.Size;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.zip.CRC32;
+
+// Snapshot of the PredefinedMaps as built by TMXMapTranslator.transformMaps, which is written to internal storage after the
+// maps have been read from the TMX files. Later startups read the snapshot in one pass instead of parsing the TMX files.
+//
+// The snapshot is only used if it was written by the same version of the game, from the same apk. Droplists are stored by
+// their id and looked up again when the snapshot is read, everything else is stored as built by transformMaps.
+public final class PredefinedMapSnapshot {
+	private static final String FILENAME = "mapsnapshot";
+	private static final int MAGIC = 0x4154534E; // "ATSN"
+	private static final int FORMAT_VERSION = 1;
+
+	private final File file;
+	private final long resourceChecksum;
+
+	private PredefinedMapSnapshot(File file, long resourceChecksum) {
+		this.file = file;
+		this.resourceChecksum = resourceChecksum;
+	}
+
+	// Returns null if the snapshot cannot be used.
+	public static PredefinedMapSnapshot create(Context androidContext) {
+		if (androidContext == null) return null;
+		if (AndorsTrailApplication.DEVELOPMENT_DEBUGRESOURCES) return null;
+		return new PredefinedMapSnapshot(new File(androidContext.getFilesDir(), FILENAME), calculateResourceChecksum(androidContext));
+	}
+
+	// The game resources are all in the apk, so any change to them gives the apk another size or modification time.
+	private static long calculateResourceChecksum(Context androidContext) {
+		final File apk = new File(androidContext.getPackageCodePath());
+		final CRC32 crc = new CRC32();
+		crc.update(apk.getAbsolutePath().getBytes());
+		crc.update(Long.toString(apk.length()).getBytes());
+		crc.update(Long.toString(apk.lastModified()).getBytes());
+		return crc.getValue();
+	}
+
+	public boolean isValid() {
+		if (!file.exists()) return false;
+		try {
+			DataInputStream src = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64));
+			try {
+				return readHeader(src);
+			} finally {
+				src.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private boolean readHeader(DataInputStream src) throws IOException {
+		if (src.readInt() != MAGIC) return false;
+		if (src.readInt() != FORMAT_VERSION) return false;
+		if (src.readInt() != AndorsTrailApplication.CURRENT_VERSION) return false;
+		return src.readLong() == resourceChecksum;
+	}
+
+	public ArrayList<PredefinedMap> read(DropListCollection dropLists) throws IOException {
+		DataInputStream src = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 8192));
+		try {
+			if (!readHeader(src)) throw new IOException("Map snapshot is outdated.");
+			final int numMaps = src.readInt();
+			ArrayList<PredefinedMap> result = new ArrayList<PredefinedMap>(numMaps);
+			for (int i = 0; i < numMaps; ++i) {
+				result.add(readMap(src, dropLists));
+			}
+			return result;
+		} finally {
+			src.close();
+		}
+	}
+
+	// Written to a temporary file first, so that a snapshot that was only partially written is never read.
+	public void write(Collection<PredefinedMap> maps, DropListCollection dropLists) {
+		final File tempFile = new File(file.getPath() + ".tmp");
+		try {
+			DataOutputStream dest = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 8192));
+			try {
+				dest.writeInt(MAGIC);
+				dest.writeInt(FORMAT_VERSION);
+				dest.writeInt(AndorsTrailApplication.CURRENT_VERSION);
+				dest.writeLong(resourceChecksum);
+				dest.writeInt(maps.size());
+				for (PredefinedMap map : maps) {
+					writeMap(map, dest, dropLists);
+				}
+			} finally {
+				dest.close();
+			}
+			if (!tempFile.renameTo(file)) throw new IOException("Could not rename " + tempFile.getPath());
+		} catch (IOException e) {
+			L.log("ERROR: Writing map snapshot failed. " + e.toString());
+			tempFile.delete();
+		}
+	}
+
+	public void delete() {
+		file.delete();
+	}
+
+	private static PredefinedMap readMap(DataInputStream src, DropListCollection dropLists) throws IOException {
+		final int xmlResourceId = src.readInt();
+		final String name = src.readUTF();
+		final Size size = new Size(src.readInt(), src.readInt());
+		final boolean isOutdoors = src.readBoolean();
+		final MapObject[] eventObjects = new MapObject[src.readInt()];
+		for (int i = 0; i < eventObjects.length; ++i) {
+			eventObjects[i] = readMapObject(src, dropLists);
+		}
+		final MonsterSpawnArea[] spawnAreas = new MonsterSpawnArea[src.readInt()];
+		for (int i = 0; i < spawnAreas.length; ++i) {
+			spawnAreas[i] = readSpawnArea(src);
+		}
+		return new PredefinedMap(xmlResourceId, name, size, eventObjects, spawnAreas, isOutdoors);
+	}
+
+	private static void writeMap(PredefinedMap map, DataOutputStream dest, DropListCollection dropLists) throws IOException {
+		dest.writeInt(map.xmlResourceId);
+		dest.writeUTF(map.name);
+		dest.writeInt(map.size.width);
+		dest.writeInt(map.size.height);
+		dest.writeBoolean(map.isOutdoors);
+		dest.writeInt(map.eventObjects.length);
+		for (MapObject o : map.eventObjects) {
+			writeMapObject(o, dest, dropLists);
+		}
+		dest.writeInt(map.spawnAreas.length);
+		for (MonsterSpawnArea a : map.spawnAreas) {
+			writeSpawnArea(a, dest);
+		}
+	}
+
+	private static MapObject readMapObject(DataInputStream src, DropListCollection dropLists) throws IOException {
+		final MapObject.MapObjectType type = MapObject.MapObjectType.values()[src.readByte()];
+		final CoordRect position = readCoordRect(src);
+		final String id = readNullableString(src);
+		final String group = readNullableString(src);
+		final boolean isActiveForNewGame = src.readBoolean();
+		switch (type) {
+		case sign:
+			return MapObject.createMapSignEvent(position, id, group, isActiveForNewGame);
+		case newmap:
+			return MapObject.createMapChangeArea(position, id, readNullableString(src), readNullableString(src), group, isActiveForNewGame);
+		case rest:
+			return MapObject.createRestArea(position, id, group, isActiveForNewGame);
+		case keyarea:
+			final Requirement.RequirementType requireType = Requirement.RequirementType.values()[src.readByte()];
+			final Requirement requirement = new Requirement(requireType, readNullableString(src), src.readInt(), src.readBoolean());
+			return MapObject.createKeyArea(position, id, requirement, group, isActiveForNewGame);
+		case container:
+			return MapObject.createContainerArea(position, dropLists.getDropList(src.readUTF()), group, isActiveForNewGame);
+		case script:
+			final MapObject.MapObjectEvaluationType evaluateWhen = MapObject.MapObjectEvaluationType.values()[src.readByte()];
+			return MapObject.createScriptArea(position, id, evaluateWhen, group, isActiveForNewGame);
+		}
+		throw new IOException("Unknown map object type " + type);
+	}
+
+	private static void writeMapObject(MapObject o, DataOutputStream dest, DropListCollection dropLists) throws IOException {
+		dest.writeByte(o.type.ordinal());
+		writeCoordRect(o.position, dest);
+		writeNullableString(o.id, dest);
+		writeNullableString(o.group, dest);
+		dest.writeBoolean(o.isActiveForNewGame);
+		switch (o.type) {
+		case newmap:
+			writeNullableString(o.map, dest);
+			writeNullableString(o.place, dest);
+			break;
+		case keyarea:
+			dest.writeByte(o.enteringRequirement.requireType.ordinal());
+			writeNullableString(o.enteringRequirement.requireID, dest);
+			dest.writeInt(o.enteringRequirement.value);
+			dest.writeBoolean(o.enteringRequirement.negate);
+			break;
+		case container:
+			final String dropListID = dropLists.getDropListID(o.dropList);
+			if (dropListID == null) throw new IOException("Cannot find droplist id for container on map.");
+			dest.writeUTF(dropListID);
+			break;
+		case script:
+			dest.writeByte(o.evaluateWhen.ordinal());
+			break;
+		}
+	}
+
+	private static MonsterSpawnArea readSpawnArea(DataInputStream src) throws IOException {
+		final CoordRect area = readCoordRect(src);
+		final Range quantity = new Range(src.readInt(), 0);
+		final Range spawnChance = new Range(src.readInt(), src.readInt());
+		final String monsterTypeSpawnGroup = src.readUTF();
+		final String[] monsterTypeIDs = new String[src.readInt()];
+		for (int i = 0; i < monsterTypeIDs.length; ++i) {
+			monsterTypeIDs[i] = src.readUTF();
+		}
+		final boolean isUnique = src.readBoolean();
+		final String group = readNullableString(src);
+		final boolean isSpawningForNewGame = src.readBoolean();
+		return new MonsterSpawnArea(area, quantity, spawnChance, monsterTypeSpawnGroup, monsterTypeIDs, isUnique, group, isSpawningForNewGame);
+	}
+
+	private static void writeSpawnArea(MonsterSpawnArea a, DataOutputStream dest) throws IOException {
+		writeCoordRect(a.area, dest);
+		dest.writeInt(a.quantity.max);
+		dest.writeInt(a.spawnChance.max);
+		dest.writeInt(a.spawnChance.current);
+		dest.writeUTF(a.monsterTypeSpawnGroup);
+		dest.writeInt(a.monsterTypeIDs.length);
+		for (String monsterTypeID : a.monsterTypeIDs) {
+			dest.writeUTF(monsterTypeID);
+		}
+		dest.writeBoolean(a.isUnique);
+		writeNullableString(a.group, dest);
+		dest.writeBoolean(a.isSpawningForNewGame);
+	}
+
+	private static CoordRect readCoordRect(DataInputStream src) throws IOException {
+		final Coord topLeft = new Coord(src.readInt(), src.readInt());
+		return new CoordRect(topLeft, new Size(src.readInt(), src.readInt()));
+	}
+
+	private static void writeCoordRect(CoordRect r, DataOutputStream dest) throws IOException {
+		dest.writeInt(r.topLeft.x);
+		dest.writeInt(r.topLeft.y);
+		dest.writeInt(r.size.width);
+		dest.writeInt(r.size.height);
+	}
+
+	private static String readNullableString(DataInputStream src) throws IOException {
+		if (!src.readBoolean()) return null;
+		return src.readUTF();
+	}
+
+	private static void writeNullableString(String s, DataOutputStream dest) throws IOException {
+		dest.writeBoolean(s != null);
+		if (s != null) dest.writeUTF(s);
+	}
+}
@@ -64,16 +64,14 @@ public final class TMXMapFileParser {
 		map.name = mapName;
 		map.width = xrp.getAttributeIntValue(null, "width", -1);
 		map.height = xrp.getAttributeIntValue(null, "height", -1);
-		map.tilewidth = TILESIZE;
-		map.tileheight = TILESIZE;
+		map.tilewidth = xrp.getAttributeIntValue(null, "tilewidth", TILESIZE);
+		map.tileheight = xrp.getAttributeIntValue(null, "tileheight", TILESIZE);
 		if (AndorsTrailApplication.DEVELOPMENT_VALIDATEDATA) {
-			int tilewidth = xrp.getAttributeIntValue(null, "tilewidth", TILESIZE);
-			if (tilewidth != TILESIZE) {
-				L.log("Map \"" + mapName + "\" has tilewidth=" + tilewidth + " . Expected " + TILESIZE);
+			if (map.tilewidth != TILESIZE) {
+				L.log("Map \"" + mapName + "\" has tilewidth=" + map.tilewidth + " . Expected " + TILESIZE);
 			}
-			int tileheight = xrp.getAttributeIntValue(null, "tileheight", TILESIZE);
-			if (tileheight != TILESIZE) {
-				L.log("Map \"" + mapName + "\" has tileheight=" + tileheight + " . Expected " + TILESIZE);
+			if (map.tileheight != TILESIZE) {
+				L.log("Map \"" + mapName + "\" has tileheight=" + map.tileheight + " . Expected " + TILESIZE);
 			}
 		}
 	}
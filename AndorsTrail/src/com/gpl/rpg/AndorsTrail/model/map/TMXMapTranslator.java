@@ -24,6 +24,9 @@ public final class TMXMapTranslator {
 	}
 
 	public static LayeredTileMap readLayeredTileMap(Resources res, TileCache tileCache, PredefinedMap map) {
+		LayeredTileMap compiledMap = BinaryMapReader.read(res.getAssets(), tileCache, map.name);
+		if (compiledMap != null) return compiledMap;
+
 		TMXLayerMap resultMap = TMXMapFileParser.readLayerMap(res, map.xmlResourceId, map.name);
 		return transformMap(resultMap, tileCache);
 	}
@@ -1,9 +1,12 @@
 package com.gpl.rpg.AndorsTrail.model.quest;
 
 import com.gpl.rpg.AndorsTrail.AndorsTrailApplication;
+import com.gpl.rpg.AndorsTrail.resource.parsers.GameDataBundleReader;
 import com.gpl.rpg.AndorsTrail.resource.parsers.QuestParser;
 import com.gpl.rpg.AndorsTrail.util.L;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -36,4 +39,12 @@ public final class QuestCollection {
 	public void initialize(QuestParser parser, String input) {
 		parser.parseRows(input, quests);
 	}
+
+	public void initialize(QuestParser parser, InputStream input) {
+		parser.parseRows(input, quests);
+	}
+
+	public void initialize(final GameDataBundleReader bundle) throws IOException {
+		bundle.readQuests(quests);
+	}
 }
@@ -1,31 +1,147 @@
 package com.gpl.rpg.AndorsTrail.resource;
 
+import android.content.ComponentCallbacks2;
 import android.content.res.Resources;
-import com.gpl.rpg.AndorsTrail.model.conversation.ConversationCollection;
+import com.gpl.rpg.AndorsTrail.AndorsTrailApplication;
 import com.gpl.rpg.AndorsTrail.model.conversation.Phrase;
 import com.gpl.rpg.AndorsTrail.resource.parsers.ConversationListParser;
+import com.gpl.rpg.AndorsTrail.resource.parsers.json.JsonFieldNames;
+import com.gpl.rpg.AndorsTrail.resource.parsers.json.JsonStreamReader;
+import com.gpl.rpg.AndorsTrail.util.L;
+import com.gpl.rpg.AndorsTrail.util.LoadingFuture;
+import com.gpl.rpg.AndorsTrail.util.LruCache;
+import com.gpl.rpg.AndorsTrail.util.Pair;
+import org.json.JSONException;
 
-import java.util.Collection;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 
+// Phrases are not kept in memory. At startup, the location of every phrase in the conversation resources is indexed,
+// and phrases are parsed one at a time from their location when they are needed. Recently used phrases are cached.
 public final class ConversationLoader {
-	private final HashMap<String, Integer> resourceIDsPerPhraseID = new HashMap<String, Integer>();
+	private static final int PHRASE_CACHE_SIZE = 100;
 
-	public void addIDs(int resourceId, Collection<String> ids) {
-		for(String s : ids) resourceIDsPerPhraseID.put(s, resourceId);
+	private static final class PhraseLocation {
+		public final int resourceId;
+		public final int offset;
+		public PhraseLocation(int resourceId, int offset) {
+			this.resourceId = resourceId;
+			this.offset = offset;
+		}
+	}
+
+	private final HashMap<String, PhraseLocation> phraseLocations = new HashMap<String, PhraseLocation>();
+	private final LruCache<String, Phrase> phraseCache = new LruCache<String, Phrase>(PHRASE_CACHE_SIZE);
+	private final LoadingFuture index = new LoadingFuture("conversation index");
+	private TranslationLoader translationLoader;
+	private ConversationListParser conversationListParser;
+
+	public void addIndex(int resourceId, InputStream is) {
+		JsonStreamReader reader = new JsonStreamReader(is);
+		try {
+			reader.beginArray();
+			while (reader.hasNext()) {
+				final String phraseID = reader.nextObject().getString(JsonFieldNames.Phrase.phraseID);
+				if (AndorsTrailApplication.DEVELOPMENT_VALIDATEDATA) {
+					if (phraseLocations.containsKey(phraseID)) {
+						L.log("WARNING: Entity " + phraseID + " is duplicated.");
+					}
+				}
+				phraseLocations.put(phraseID, new PhraseLocation(resourceId, reader.getLastObjectOffset()));
+			}
+			reader.endArray();
+		} catch (JSONException e) {
+			L.log("ERROR: Indexing conversation resource " + resourceId + " failed. " + e.toString());
+		} catch (IOException e) {
+			L.log("ERROR: Indexing conversation resource " + resourceId + " failed. " + e.toString());
+		} finally {
+			try {
+				reader.close();
+			} catch (IOException ignored) { }
+		}
+	}
+
+	public void setIndexLoaded() {
+		index.setLoaded();
+	}
+
+	public void setIndexFailed(Throwable cause) {
+		index.setFailed(cause);
+	}
+
+	public boolean isIndexLoaded() {
+		return index.isLoaded();
+	}
+
+	// Runs the callback on the main thread once phrases can be loaded without waiting for the index.
+	public void whenIndexLoaded(Runnable callback) {
+		index.whenLoaded(callback);
+	}
+
+	public Phrase loadPhrase(String phraseID, Resources r) {
+		index.await();
+		Phrase phrase = phraseCache.get(phraseID);
+		if (phrase != null) return phrase;
+
+		phrase = readPhrase(phraseID, r);
+		if (phrase == null) return null;
+
+		phraseCache.put(phraseID, phrase);
+		if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) {
+			L.log("Loaded phrase \"" + phraseID + "\". Phrase cache: " + phraseCache.toString());
+		}
+		return phrase;
 	}
 
-	public Phrase loadPhrase(String phraseID, ConversationCollection conversationCollection, Resources r) {
-		if (conversationCollection.hasPhrase(phraseID)) {
-			return conversationCollection.getPhrase(phraseID);
+	private Phrase readPhrase(String phraseID, Resources r) {
+		final PhraseLocation location = phraseLocations.get(phraseID);
+		if (location == null) {
+			if (AndorsTrailApplication.DEVELOPMENT_VALIDATEDATA) {
+				L.log("WARNING: Cannot find requested conversation phrase id \"" + phraseID + "\".");
+			}
+			return null;
 		}
 
-		TranslationLoader translationLoader = new TranslationLoader(r.getAssets(), r);
-		ConversationListParser conversationListParser = new ConversationListParser(translationLoader);
-		int resourceID = resourceIDsPerPhraseID.get(phraseID);
-		conversationCollection.initialize(conversationListParser, ResourceLoader.readStringFromRaw(r, resourceID));
-		translationLoader.close();
+		if (conversationListParser == null) {
+			translationLoader = new TranslationLoader(r.getAssets(), r);
+			conversationListParser = new ConversationListParser(translationLoader);
+		}
+
+		InputStream is = r.openRawResource(location.resourceId);
+		JsonStreamReader reader = new JsonStreamReader(is);
+		try {
+			long remaining = location.offset;
+			while (remaining > 0) {
+				long skipped = is.skip(remaining);
+				if (skipped <= 0) throw new IOException("Unexpected end of conversation resource " + location.resourceId);
+				remaining -= skipped;
+			}
+			Pair<String, Phrase> result = conversationListParser.parseNext(reader);
+			return result.second;
+		} catch (JSONException e) {
+			L.log("ERROR: Reading conversation phrase \"" + phraseID + "\" failed. " + e.toString());
+			return null;
+		} catch (IOException e) {
+			L.log("ERROR: Reading conversation phrase \"" + phraseID + "\" failed. " + e.toString());
+			return null;
+		} finally {
+			try {
+				reader.close();
+			} catch (IOException ignored) { }
+		}
+	}
+
+	// The translations are only needed while conversations are shown, and are read again for the next phrase.
+	public void onTrimMemory(int level) {
+		if (level < ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) return;
+		release();
+	}
 
-		return conversationCollection.getPhrase(phraseID);
+	public void release() {
+		if (translationLoader != null) translationLoader.close();
+		translationLoader = null;
+		conversationListParser = null;
+		phraseCache.evictAll();
 	}
 }
@@ -0,0 +1,143 @@
+package com.gpl.rpg.AndorsTrail.resource;
+
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.os.Debug;
+import com.gpl.rpg.AndorsTrail.R;
+import com.gpl.rpg.AndorsTrail.resource.parsers.json.JsonCollectionParserFor;
+import com.gpl.rpg.AndorsTrail.util.L;
+import com.gpl.rpg.AndorsTrail.util.Pair;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+
+// Compares parsing the json resources from a String and a JSONArray with parsing them directly from the resource stream.
+// Only the json parsing is measured, so the rows are kept as JSONObjects instead of being converted into game objects.
+// Enabled by AndorsTrailApplication.DEVELOPMENT_BENCHMARK_JSONPARSERS, and logs its results.
+public final class JsonParserBenchmark {
+	private static final int NUM_ITERATIONS = 3;
+
+	private static final int[] resourceArrays = {
+		R.array.loadresource_itemcategories
+		,R.array.loadresource_actorconditions
+		,R.array.loadresource_items
+		,R.array.loadresource_droplists
+		,R.array.loadresource_quests
+		,R.array.loadresource_conversationlists
+		,R.array.loadresource_monsters
+	};
+
+	private static final class RowParser extends JsonCollectionParserFor<JSONObject> {
+		@Override
+		protected Pair<String, JSONObject> parseObject(JSONObject o) {
+			return new Pair<String, JSONObject>(o.optString("id", null), o);
+		}
+	}
+
+	private static final class Result {
+		public long durationNs;
+		public long allocatedBytes;
+		public long peakHeapBytes;
+	}
+
+	public static void run(final Resources r) {
+		for (int resourceArray : resourceArrays) {
+			final String name = r.getResourceEntryName(resourceArray);
+			Result stringResult = null;
+			Result streamResult = null;
+			for (int i = 0; i < NUM_ITERATIONS; ++i) {
+				stringResult = best(stringResult, measure(r, resourceArray, false));
+				streamResult = best(streamResult, measure(r, resourceArray, true));
+			}
+			L.log("JsonParserBenchmark " + name + ": "
+					+ "String/JSONArray " + format(stringResult)
+					+ ", stream " + format(streamResult));
+		}
+	}
+
+	private static Result measure(final Resources r, final int resourceArray, final boolean useStream) {
+		final HashMap<String, JSONObject> dest = new HashMap<String, JSONObject>();
+		final RowParser parser = new RowParser();
+		final TypedArray filesToLoad = r.obtainTypedArray(resourceArray);
+		final PeakHeapSampler sampler = new PeakHeapSampler();
+		final Result result = new Result();
+
+		System.gc();
+		sampler.start();
+		Debug.startAllocCounting();
+		Debug.resetThreadAllocSize();
+		final long start = System.nanoTime();
+		for (int i = 0; i < filesToLoad.length(); ++i) {
+			if (useStream) {
+				parser.parseRows(ResourceLoader.openRawResource(r, filesToLoad, i), dest);
+			} else {
+				parser.parseRows(ResourceLoader.readStringFromRaw(r, filesToLoad, i), dest);
+			}
+		}
+		result.durationNs = System.nanoTime() - start;
+		result.allocatedBytes = Debug.getThreadAllocSize();
+		Debug.stopAllocCounting();
+		result.peakHeapBytes = sampler.finish();
+
+		filesToLoad.recycle();
+		return result;
+	}
+
+	private static Result best(Result a, Result b) {
+		if (a == null) return b;
+		a.durationNs = Math.min(a.durationNs, b.durationNs);
+		a.allocatedBytes = Math.min(a.allocatedBytes, b.allocatedBytes);
+		a.peakHeapBytes = Math.min(a.peakHeapBytes, b.peakHeapBytes);
+		return a;
+	}
+
+	private static String format(Result r) {
+		return (r.durationNs / 1000000) + " ms, "
+			+ (r.allocatedBytes / 1024) + " kB allocated, "
+			+ (r.peakHeapBytes / 1024) + " kB peak heap growth";
+	}
+
+	// Samples the used heap from a separate thread, since there is no api for reading the peak heap usage.
+	private static final class PeakHeapSampler extends Thread {
+		private volatile boolean running = true;
+		private long baseline;
+		private long peak;
+
+		@Override
+		public synchronized void start() {
+			baseline = usedHeap();
+			peak = baseline;
+			super.start();
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				sample();
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+
+		private synchronized void sample() {
+			peak = Math.max(peak, usedHeap());
+		}
+
+		public long finish() {
+			running = false;
+			try {
+				join();
+			} catch (InterruptedException e) { }
+			sample();
+			return peak - baseline;
+		}
+
+		private static long usedHeap() {
+			final Runtime runtime = Runtime.getRuntime();
+			return runtime.totalMemory() - runtime.freeMemory();
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package com.gpl.rpg.AndorsTrail.resource;
+
+import com.gpl.rpg.AndorsTrail.AndorsTrailApplication;
+import com.gpl.rpg.AndorsTrail.util.L;
+import com.gpl.rpg.AndorsTrail.util.Tracing;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Runs a set of loading stages on a bounded thread pool. Each stage is started as soon as all stages that it depends on have
+// completed. Stages that become runnable at the same time are started in the order they were added.
+//
+// Background stages load content that is not needed to start the game. run() returns as soon as all other stages have
+// completed, while the background stages keep running. Content loaded by a background stage must be guarded by a
+// LoadingFuture. When all stages, including the background stages, have completed, the onCompleted task is run.
+//
+// A stage that fails is not retried. The stages that depend on it, directly or indirectly, are not run at all, since they
+// would run against missing content. onFailed() is called for the failed stage and for all stages that are skipped, so
+// that a background stage can fail the LoadingFuture of its content.
+//
+// Failures of foreground stages are thrown from run(). Background stages may fail after run() has returned, and their
+// failures only reach the game through their LoadingFutures.
+//
+// Stages that assign tile ids from the DynamicTileLoader must depend on each other in a fixed order, so that the
+// tile ids are the same on every startup regardless of how the stages are scheduled.
+public final class LoadingStageScheduler {
+	private static final int MAX_THREADS = 4;
+
+	private final ArrayList<Stage> stages = new ArrayList<Stage>();
+	private final Object lock = new Object();
+	private ExecutorService executor;
+	private CountDownLatch remainingForegroundStages;
+	private int numRemainingStages;
+	private int numThreads;
+	private Runnable onCompleted;
+	private Throwable failure;
+	private long startTime;
+	private Tracing.Span parentSpan;
+
+	public static abstract class Stage {
+		public final String name;
+		private final Stage[] dependencies;
+		private final ArrayList<Stage> dependants = new ArrayList<Stage>();
+		private boolean isBackground = false;
+		private int numUnfinishedDependencies;
+		private Throwable failure; // Set if this stage, or a stage that it depends on, has failed.
+		private long readyTime;
+		private long startTime;
+		private long endTime;
+		private String threadName;
+
+		protected Stage(String name, Stage... dependencies) {
+			this.name = name;
+			this.dependencies = dependencies;
+		}
+
+		protected abstract void run() throws Exception;
+
+		// Called if run() has failed, or instead of run() if a stage that this stage depends on has failed.
+		protected void onFailed(Throwable cause) {}
+	}
+
+	public Stage add(Stage stage) {
+		for (Stage dependency : stage.dependencies) {
+			if (!stages.contains(dependency)) {
+				throw new IllegalArgumentException("Stage " + stage.name + " depends on " + dependency.name + ", which has not been added.");
+			}
+			if (dependency.isBackground && !stage.isBackground) {
+				throw new IllegalArgumentException("Stage " + stage.name + " depends on background stage " + dependency.name + ".");
+			}
+			dependency.dependants.add(stage);
+		}
+		stage.numUnfinishedDependencies = stage.dependencies.length;
+		stages.add(stage);
+		return stage;
+	}
+
+	public Stage addBackground(Stage stage) {
+		stage.isBackground = true;
+		return add(stage);
+	}
+
+	// Run on the thread that completes the last stage, after all stages have completed.
+	public void setOnCompleted(Runnable onCompleted) {
+		this.onCompleted = onCompleted;
+	}
+
+	// Runs all added stages, and returns when all stages except the background stages have completed.
+	public void run() {
+		numThreads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+		executor = Executors.newFixedThreadPool(numThreads);
+		int numForegroundStages = 0;
+		for (Stage stage : stages) {
+			if (!stage.isBackground) ++numForegroundStages;
+		}
+		remainingForegroundStages = new CountDownLatch(numForegroundStages);
+		numRemainingStages = stages.size();
+		startTime = System.currentTimeMillis();
+		// The stages run on other threads, so their spans are nested under the span of the thread that runs the scheduler.
+		parentSpan = Tracing.getCurrentSpan();
+
+		if (stages.isEmpty()) {
+			onAllStagesCompleted();
+			return;
+		}
+
+		synchronized (lock) {
+			for (Stage stage : stages) {
+				if (stage.numUnfinishedDependencies == 0) submit(stage);
+			}
+		}
+
+		try {
+			remainingForegroundStages.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for loading stages to complete.", e);
+		}
+
+		if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) {
+			L.log("Completed " + numForegroundStages + " loading stages in " + (System.currentTimeMillis() - startTime) + " ms, "
+				+ (stages.size() - numForegroundStages) + " background stages are still running.");
+		}
+		synchronized (lock) {
+			if (failure != null) throw new RuntimeException("Loading stage failed.", failure);
+		}
+	}
+
+	private void submit(final Stage stage) {
+		stage.readyTime = System.currentTimeMillis();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				stage.threadName = Thread.currentThread().getName();
+				stage.startTime = System.currentTimeMillis();
+				if (stage.failure != null) {
+					L.log("ERROR: Loading stage " + stage.name + " was skipped, since a stage that it depends on failed.");
+					notifyFailed(stage, stage.failure);
+					stage.endTime = stage.startTime;
+					onStageCompleted(stage);
+					return;
+				}
+				final Tracing.Span span = Tracing.begin(stage.name, parentSpan);
+				try {
+					stage.run();
+				} catch (Throwable e) {
+					L.log("ERROR: Loading stage " + stage.name + " failed. " + e.toString());
+					synchronized (lock) {
+						stage.failure = e;
+						if (failure == null) failure = e;
+					}
+					notifyFailed(stage, e);
+				} finally {
+					span.end();
+				}
+				stage.endTime = System.currentTimeMillis();
+				onStageCompleted(stage);
+			}
+		});
+	}
+
+	private static void notifyFailed(Stage stage, Throwable cause) {
+		try {
+			stage.onFailed(cause);
+		} catch (Throwable e) {
+			L.log("ERROR: Loading stage " + stage.name + " failed while handling its failure. " + e.toString());
+		}
+	}
+
+	private void onStageCompleted(Stage stage) {
+		final boolean isLastStage;
+		synchronized (lock) {
+			for (Stage dependant : stage.dependants) {
+				if (stage.failure != null && dependant.failure == null) dependant.failure = stage.failure;
+				--dependant.numUnfinishedDependencies;
+				if (dependant.numUnfinishedDependencies == 0) submit(dependant);
+			}
+			--numRemainingStages;
+			isLastStage = (numRemainingStages == 0);
+		}
+		if (!stage.isBackground) remainingForegroundStages.countDown();
+		if (isLastStage) onAllStagesCompleted();
+	}
+
+	private void onAllStagesCompleted() {
+		executor.shutdown();
+		if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) logTimings();
+		if (onCompleted != null) onCompleted.run();
+	}
+
+	private void logTimings() {
+		long endTime = startTime;
+		for (Stage stage : stages) {
+			L.log(stage.name + (stage.isBackground ? " (background)" : "") + " ran for " + (stage.endTime - stage.startTime) + " ms"
+				+ " (started at " + (stage.startTime - startTime) + " ms"
+				+ ", waited " + (stage.startTime - stage.readyTime) + " ms for a thread"
+				+ ", on " + stage.threadName + ").");
+			endTime = Math.max(endTime, stage.endTime);
+		}
+		L.log("Ran " + stages.size() + " loading stages on " + numThreads + " threads in " + (endTime - startTime) + " ms.");
+	}
+}
@@ -1,21 +1,22 @@
 package com.gpl.rpg.AndorsTrail.resource;
 
+import android.content.Context;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
 import com.gpl.rpg.AndorsTrail.AndorsTrailApplication;
 import com.gpl.rpg.AndorsTrail.R;
 import com.gpl.rpg.AndorsTrail.context.WorldContext;
-import com.gpl.rpg.AndorsTrail.model.conversation.ConversationCollection;
+import com.gpl.rpg.AndorsTrail.model.map.PredefinedMapSnapshot;
 import com.gpl.rpg.AndorsTrail.model.map.TMXMapTranslator;
 import com.gpl.rpg.AndorsTrail.resource.parsers.*;
 import com.gpl.rpg.AndorsTrail.util.L;
 import com.gpl.rpg.AndorsTrail.util.Size;
+import com.gpl.rpg.AndorsTrail.util.Tracing;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.Collection;
 
 public final class ResourceLoader {
 
@@ -28,168 +29,308 @@ public final class ResourceLoader {
 	private static final int monstersResourceId = AndorsTrailApplication.DEVELOPMENT_DEBUGRESOURCES ? R.array.loadresource_monsters_debug : R.array.loadresource_monsters;
 	private static final int mapsResourceId = AndorsTrailApplication.DEVELOPMENT_DEBUGRESOURCES ? R.array.loadresource_maps_debug : R.array.loadresource_maps;
 
-	private static long taskStart;
-	private static void timingCheckpoint(String loaderName) {
-		long now = System.currentTimeMillis();
-		long duration = now - taskStart;
-		L.log(loaderName + " ran for " + duration + " ms.");
-		taskStart = now;
+	public static void loadResources(final WorldContext world, final Resources r, final Context androidContext) {
+		final Tracing.Span span = Tracing.begin("ResourceLoader.loadResources");
+		try {
+			loadResources_(world, r, androidContext);
+		} finally {
+			span.end();
+		}
 	}
 
-	public static void loadResources(WorldContext world, Resources r) {
+	private static void loadResources_(final WorldContext world, final Resources r, final Context androidContext) {
 		long start = System.currentTimeMillis();
-		taskStart = start;
 
 		final int mTileSize = world.tileManager.tileSize;
 
 		final TranslationLoader translationLoader = new TranslationLoader(r.getAssets(), r);
-
-		DynamicTileLoader loader = new DynamicTileLoader(world.tileManager.tileCache);
-		prepareTilesets(loader, mTileSize);
-		if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) timingCheckpoint("prepareTilesets");
-
-		// ========================================================================
-		// Load various ui icons
-		/*TileManager.iconID_CHAR_HERO = */loader.prepareTileID(R.drawable.char_hero, 0);
-		/*TileManager.iconID_selection_red = */loader.prepareTileID(R.drawable.ui_selections, 0);
-		/*TileManager.iconID_selection_yellow = */loader.prepareTileID(R.drawable.ui_selections, 1);
-		/*TileManager.iconID_groundbag = */loader.prepareTileID(R.drawable.ui_icon_equipment, 0);
-		/*TileManager.iconID_boxopened = */loader.prepareTileID(R.drawable.ui_quickslots, 1);
-		/*TileManager.iconID_boxclosed = */loader.prepareTileID(R.drawable.ui_quickslots, 0);
-		/*TileManager.iconID_selection_blue = */loader.prepareTileID(R.drawable.ui_selections, 2);
-		/*TileManager.iconID_selection_purple = */loader.prepareTileID(R.drawable.ui_selections, 3);
-		/*TileManager.iconID_selection_green = */loader.prepareTileID(R.drawable.ui_selections, 4);
-		for(int i = 0; i < 5; ++i) {
-			loader.prepareTileID(R.drawable.ui_splatters1, i);
-			loader.prepareTileID(R.drawable.ui_splatters1, i+8);
-		}
-
+		final DynamicTileLoader loader = new DynamicTileLoader(world.tileManager.tileCache);
+		final GameDataBundleReader bundle = GameDataBundleReader.open(r.getAssets(), loader, translationLoader, world.actorConditionsTypes, world.itemCategories, world.itemTypes, world.dropLists);
+		final TMXMapTranslator mapReader = new TMXMapTranslator();
+		final PredefinedMapSnapshot mapSnapshot = PredefinedMapSnapshot.create(androidContext);
+		final boolean useMapSnapshot = mapSnapshot != null && mapSnapshot.isValid();
+
+		// Stages that call loader.prepareTileID() are chained through their dependencies (prepareTilesets -> visualEffects ->
+		// actorConditions -> preloadedTiles -> items -> droplists -> monsters -> mapTiles), so that every tile gets the same
+		// tile id as when the stages run one after another. The game data bundle has to be read in the order
+		// actorConditions -> items -> droplists -> quests -> monsters, which adds some dependencies when the bundle is used.
+		final LoadingStageScheduler scheduler = new LoadingStageScheduler();
+
+		final LoadingStageScheduler.Stage prepareTilesets = scheduler.add(new LoadingStageScheduler.Stage("prepareTilesets") {
+			@Override
+			protected void run() {
+				prepareTilesets(loader, mTileSize);
+
+				// Load various ui icons
+				/*TileManager.iconID_CHAR_HERO = */loader.prepareTileID(R.drawable.char_hero, 0);
+				/*TileManager.iconID_selection_red = */loader.prepareTileID(R.drawable.ui_selections, 0);
+				/*TileManager.iconID_selection_yellow = */loader.prepareTileID(R.drawable.ui_selections, 1);
+				/*TileManager.iconID_groundbag = */loader.prepareTileID(R.drawable.ui_icon_equipment, 0);
+				/*TileManager.iconID_boxopened = */loader.prepareTileID(R.drawable.ui_quickslots, 1);
+				/*TileManager.iconID_boxclosed = */loader.prepareTileID(R.drawable.ui_quickslots, 0);
+				/*TileManager.iconID_selection_blue = */loader.prepareTileID(R.drawable.ui_selections, 2);
+				/*TileManager.iconID_selection_purple = */loader.prepareTileID(R.drawable.ui_selections, 3);
+				/*TileManager.iconID_selection_green = */loader.prepareTileID(R.drawable.ui_selections, 4);
+				for(int i = 0; i < 5; ++i) {
+					loader.prepareTileID(R.drawable.ui_splatters1, i);
+					loader.prepareTileID(R.drawable.ui_splatters1, i+8);
+				}
+			}
+		});
 
 		// ========================================================================
 		// Load effects
-		world.visualEffectTypes.initialize(loader);
-		if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) timingCheckpoint("VisualEffectLoader");
+		final LoadingStageScheduler.Stage visualEffects = scheduler.add(new LoadingStageScheduler.Stage("VisualEffectLoader", prepareTilesets) {
+			@Override
+			protected void run() {
+				world.visualEffectTypes.initialize(loader);
+			}
+		});
 
 		// ========================================================================
 		// Load skills
-		world.skills.initialize();
-		if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) timingCheckpoint("SkillLoader");
+		scheduler.add(new LoadingStageScheduler.Stage("SkillLoader") {
+			@Override
+			protected void run() {
+				world.skills.initialize();
+			}
+		});
 
 		// ========================================================================
 		// Load item categories
-		final ItemCategoryParser itemCategoryParser = new ItemCategoryParser(translationLoader);
-		final TypedArray categoriesToLoad = r.obtainTypedArray(itemCategoriesResourceId);
-		for (int i = 0; i < categoriesToLoad.length(); ++i) {
-			world.itemCategories.initialize(itemCategoryParser, readStringFromRaw(r, categoriesToLoad, i));
-		}
-		categoriesToLoad.recycle();
-		if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) timingCheckpoint("ItemCategoryParser");
+		final LoadingStageScheduler.Stage itemCategories = scheduler.add(new LoadingStageScheduler.Stage("ItemCategoryParser") {
+			@Override
+			protected void run() {
+				final ItemCategoryParser itemCategoryParser = new ItemCategoryParser(translationLoader);
+				final TypedArray categoriesToLoad = r.obtainTypedArray(itemCategoriesResourceId);
+				for (int i = 0; i < categoriesToLoad.length(); ++i) {
+					world.itemCategories.initialize(itemCategoryParser, openRawResource(r, categoriesToLoad, i));
+				}
+				categoriesToLoad.recycle();
+			}
+		});
 
 		// ========================================================================
 		// Load condition types
-		final ActorConditionsTypeParser actorConditionsTypeParser = new ActorConditionsTypeParser(loader, translationLoader);
-		final TypedArray conditionsToLoad = r.obtainTypedArray(actorConditionsResourceId);
-		for (int i = 0; i < conditionsToLoad.length(); ++i) {
-			world.actorConditionsTypes.initialize(actorConditionsTypeParser, readStringFromRaw(r, conditionsToLoad, i));
-		}
-		conditionsToLoad.recycle();
-		if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) timingCheckpoint("ActorConditionsTypeParser");
+		final LoadingStageScheduler.Stage actorConditions = scheduler.add(new LoadingStageScheduler.Stage("ActorConditionsTypeParser", visualEffects) {
+			@Override
+			protected void run() {
+				if (isBundleAvailable(bundle)) {
+					try {
+						world.actorConditionsTypes.initialize(bundle);
+						return;
+					} catch (IOException e) {
+						bundle.fail(e);
+					}
+				}
+				final ActorConditionsTypeParser actorConditionsTypeParser = new ActorConditionsTypeParser(loader, translationLoader);
+				final TypedArray conditionsToLoad = r.obtainTypedArray(actorConditionsResourceId);
+				for (int i = 0; i < conditionsToLoad.length(); ++i) {
+					world.actorConditionsTypes.initialize(actorConditionsTypeParser, openRawResource(r, conditionsToLoad, i));
+				}
+				conditionsToLoad.recycle();
+			}
+		});
 
 		// ========================================================================
 		// Load preloaded tiles
-		loader.flush();
-		world.tileManager.loadPreloadedTiles(r);
-
+		final LoadingStageScheduler.Stage preloadedTiles = scheduler.add(new LoadingStageScheduler.Stage("PreloadedTiles", actorConditions) {
+			@Override
+			protected void run() {
+				loader.flush();
+				world.tileManager.loadPreloadedTiles(r);
+			}
+		});
 
 		// ========================================================================
 		// Load items
-		final ItemTypeParser itemTypeParser = new ItemTypeParser(loader, world.actorConditionsTypes, world.itemCategories, translationLoader);
-		final TypedArray itemsToLoad = r.obtainTypedArray(itemsResourceId);
-		for (int i = 0; i < itemsToLoad.length(); ++i) {
-			world.itemTypes.initialize(itemTypeParser, readStringFromRaw(r, itemsToLoad, i));
-		}
-		itemsToLoad.recycle();
-		if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) timingCheckpoint("ItemTypeParser");
-
+		final LoadingStageScheduler.Stage items = scheduler.add(new LoadingStageScheduler.Stage("ItemTypeParser", preloadedTiles, itemCategories) {
+			@Override
+			protected void run() {
+				if (isBundleAvailable(bundle)) {
+					try {
+						world.itemTypes.initialize(bundle);
+						return;
+					} catch (IOException e) {
+						bundle.fail(e);
+					}
+				}
+				final ItemTypeParser itemTypeParser = new ItemTypeParser(loader, world.actorConditionsTypes, world.itemCategories, translationLoader);
+				final TypedArray itemsToLoad = r.obtainTypedArray(itemsResourceId);
+				for (int i = 0; i < itemsToLoad.length(); ++i) {
+					world.itemTypes.initialize(itemTypeParser, openRawResource(r, itemsToLoad, i));
+				}
+				itemsToLoad.recycle();
+			}
+		});
 
 		// ========================================================================
 		// Load droplists
-		final DropListParser dropListParser = new DropListParser(world.itemTypes);
-		final TypedArray droplistsToLoad = r.obtainTypedArray(droplistsResourceId);
-		for (int i = 0; i < droplistsToLoad.length(); ++i) {
-			world.dropLists.initialize(dropListParser, readStringFromRaw(r, droplistsToLoad, i));
-		}
-		droplistsToLoad.recycle();
-		if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) timingCheckpoint("DropListParser");
-
+		final LoadingStageScheduler.Stage droplists = scheduler.add(new LoadingStageScheduler.Stage("DropListParser", items) {
+			@Override
+			protected void run() {
+				if (isBundleAvailable(bundle)) {
+					try {
+						world.dropLists.initialize(bundle);
+						return;
+					} catch (IOException e) {
+						bundle.fail(e);
+					}
+				}
+				final DropListParser dropListParser = new DropListParser(world.itemTypes);
+				final TypedArray droplistsToLoad = r.obtainTypedArray(droplistsResourceId);
+				for (int i = 0; i < droplistsToLoad.length(); ++i) {
+					world.dropLists.initialize(dropListParser, openRawResource(r, droplistsToLoad, i));
+				}
+				droplistsToLoad.recycle();
+			}
+		});
 
 		// ========================================================================
 		// Load quests
-		final QuestParser questParser = new QuestParser(translationLoader);
-		final TypedArray questsToLoad = r.obtainTypedArray(questsResourceId);
-		for (int i = 0; i < questsToLoad.length(); ++i) {
-			world.quests.initialize(questParser, readStringFromRaw(r, questsToLoad, i));
-		}
-		questsToLoad.recycle();
-		if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) timingCheckpoint("QuestParser");
-
+		final LoadingStageScheduler.Stage[] questDependencies = bundle != null ? new LoadingStageScheduler.Stage[] { droplists } : new LoadingStageScheduler.Stage[0];
+		final LoadingStageScheduler.Stage quests = scheduler.add(new LoadingStageScheduler.Stage("QuestParser", questDependencies) {
+			@Override
+			protected void run() {
+				if (isBundleAvailable(bundle)) {
+					try {
+						world.quests.initialize(bundle);
+						return;
+					} catch (IOException e) {
+						bundle.fail(e);
+					}
+				}
+				final QuestParser questParser = new QuestParser(translationLoader);
+				final TypedArray questsToLoad = r.obtainTypedArray(questsResourceId);
+				for (int i = 0; i < questsToLoad.length(); ++i) {
+					world.quests.initialize(questParser, openRawResource(r, questsToLoad, i));
+				}
+				questsToLoad.recycle();
+			}
+		});
 
 		// ========================================================================
-		// Load conversations
-		final ConversationListParser conversationListParser = new ConversationListParser(translationLoader);
-		final TypedArray conversationsListsToLoad = r.obtainTypedArray(conversationsListsResourceId);
-		for (int i = 0; i < conversationsListsToLoad.length(); ++i) {
-			ConversationCollection conversations = new ConversationCollection();
-			Collection<String> ids = conversations.initialize(conversationListParser, readStringFromRaw(r, conversationsListsToLoad, i));
-			world.conversationLoader.addIDs(conversationsListsToLoad.getResourceId(i, -1), ids);
-		}
-		conversationsListsToLoad.recycle();
-		if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) timingCheckpoint("ConversationListParser");
-
+		// Index conversations
+		scheduler.addBackground(new LoadingStageScheduler.Stage("ConversationLoader") {
+			@Override
+			protected void run() {
+				final TypedArray conversationsListsToLoad = r.obtainTypedArray(conversationsListsResourceId);
+				for (int i = 0; i < conversationsListsToLoad.length(); ++i) {
+					world.conversationLoader.addIndex(conversationsListsToLoad.getResourceId(i, -1), openRawResource(r, conversationsListsToLoad, i));
+				}
+				conversationsListsToLoad.recycle();
+				world.conversationLoader.setIndexLoaded();
+			}
+
+			@Override
+			protected void onFailed(Throwable cause) {
+				world.conversationLoader.setIndexFailed(cause);
+			}
+		});
 
 		// ========================================================================
 		// Load monsters
-		final MonsterTypeParser monsterTypeParser = new MonsterTypeParser(world.dropLists, world.actorConditionsTypes, loader, translationLoader);
-		final TypedArray monstersToLoad = r.obtainTypedArray(monstersResourceId);
-		for (int i = 0; i < monstersToLoad.length(); ++i) {
-			world.monsterTypes.initialize(monsterTypeParser, readStringFromRaw(r, monstersToLoad, i));
-		}
-		monstersToLoad.recycle();
-		if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) timingCheckpoint("MonsterTypeParser");
-
+		final LoadingStageScheduler.Stage[] monsterDependencies = bundle != null ? new LoadingStageScheduler.Stage[] { droplists, quests } : new LoadingStageScheduler.Stage[] { droplists };
+		final LoadingStageScheduler.Stage monsters = scheduler.add(new LoadingStageScheduler.Stage("MonsterTypeParser", monsterDependencies) {
+			@Override
+			protected void run() {
+				if (isBundleAvailable(bundle)) {
+					try {
+						world.monsterTypes.initialize(bundle);
+						return;
+					} catch (IOException e) {
+						bundle.fail(e);
+					}
+				}
+				final MonsterTypeParser monsterTypeParser = new MonsterTypeParser(world.dropLists, world.actorConditionsTypes, loader, translationLoader);
+				final TypedArray monstersToLoad = r.obtainTypedArray(monstersResourceId);
+				for (int i = 0; i < monstersToLoad.length(); ++i) {
+					world.monsterTypes.initialize(monsterTypeParser, openRawResource(r, monstersToLoad, i));
+				}
+				monstersToLoad.recycle();
+			}
+		});
 
 		// ========================================================================
 		// Load maps
-		TMXMapTranslator mapReader = new TMXMapTranslator();
-		final TypedArray mapsToLoad = r.obtainTypedArray(mapsResourceId);
-		for (int i = 0; i < mapsToLoad.length(); ++i) {
-			final int mapResourceId = mapsToLoad.getResourceId(i, -1);
-			final String mapName = r.getResourceEntryName(mapResourceId);
-			mapReader.read(r, mapResourceId, mapName);
+		final LoadingStageScheduler.Stage transformMaps;
+		if (useMapSnapshot) {
+			// Only the droplists are needed for reading the snapshot, but the monster types are needed when falling back to the TMX maps.
+			transformMaps = scheduler.add(new LoadingStageScheduler.Stage("PredefinedMapSnapshot", monsters) {
+				@Override
+				protected void run() {
+					try {
+						world.maps.addAll(mapSnapshot.read(world.dropLists));
+					} catch (IOException e) {
+						L.log("ERROR: Reading map snapshot failed, falling back to reading TMX maps. " + e.toString());
+						mapSnapshot.delete();
+						readMaps(r, mapReader);
+						world.maps.addAll(mapReader.transformMaps(world.monsterTypes, world.dropLists));
+					}
+				}
+			});
+		} else {
+			final LoadingStageScheduler.Stage readMaps = scheduler.add(new LoadingStageScheduler.Stage("TMXMapReader") {
+				@Override
+				protected void run() {
+					readMaps(r, mapReader);
+				}
+			});
+			transformMaps = scheduler.add(new LoadingStageScheduler.Stage("mapReader.transformMaps", readMaps, monsters) {
+				@Override
+				protected void run() {
+					world.maps.addAll(mapReader.transformMaps(world.monsterTypes, world.dropLists));
+				}
+			});
 		}
-		mapsToLoad.recycle();
-		if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) timingCheckpoint("TMXMapReader");
-		world.maps.addAll(mapReader.transformMaps(world.monsterTypes, world.dropLists));
-		loader.prepareAllMapTiles();
-		mapReader = null;
-		if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) timingCheckpoint("mapReader.transformMaps");
-
 
 		// ========================================================================
 		// Load graphics resources (icons and tiles)
-		loader.flush();
-		loader = null;
-		if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) timingCheckpoint("DynamicTileLoader");
-		// ========================================================================
-
+		scheduler.add(new LoadingStageScheduler.Stage("DynamicTileLoader", monsters) {
+			@Override
+			protected void run() {
+				loader.prepareAllMapTiles();
+				loader.flush();
+			}
+		});
 
 		// ========================================================================
 		// Load worldmap coordinates
-		WorldMapParser.read(r, R.xml.worldmap, world.maps, translationLoader);
-		if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) timingCheckpoint("WorldMapParser");
-		// ========================================================================
+		scheduler.addBackground(new LoadingStageScheduler.Stage("WorldMapParser", transformMaps) {
+			@Override
+			protected void run() {
+				WorldMapParser.read(r, R.xml.worldmap, world.maps, translationLoader);
+				world.maps.setWorldMapSegmentsLoaded();
+			}
+
+			@Override
+			protected void onFailed(Throwable cause) {
+				world.maps.setWorldMapSegmentsFailed(cause);
+			}
+		});
+
+		if (mapSnapshot != null && !useMapSnapshot) {
+			scheduler.addBackground(new LoadingStageScheduler.Stage("PredefinedMapSnapshot.write", transformMaps) {
+				@Override
+				protected void run() {
+					mapSnapshot.write(world.maps.getAllMaps(), world.dropLists);
+				}
+			});
+		}
+
+		scheduler.setOnCompleted(new Runnable() {
+			@Override
+			public void run() {
+				if (bundle != null) bundle.close();
+				translationLoader.close();
 
-		translationLoader.close();
+				if (AndorsTrailApplication.DEVELOPMENT_BENCHMARK_JSONPARSERS) JsonParserBenchmark.run(r);
+			}
+		});
+
+		// Returns when everything that is needed to start the game has been loaded. The background stages continue
+		// after this, and the content that they load is guarded by LoadingFutures.
+		scheduler.run();
 
 
 		if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) {
@@ -198,6 +339,24 @@ public final class ResourceLoader {
 		}
 	}
 
+	private static void readMaps(final Resources r, final TMXMapTranslator mapReader) {
+		final TypedArray mapsToLoad = r.obtainTypedArray(mapsResourceId);
+		for (int i = 0; i < mapsToLoad.length(); ++i) {
+			final int mapResourceId = mapsToLoad.getResourceId(i, -1);
+			final String mapName = r.getResourceEntryName(mapResourceId);
+			mapReader.read(r, mapResourceId, mapName);
+		}
+		mapsToLoad.recycle();
+	}
+
+	private static boolean isBundleAvailable(GameDataBundleReader bundle) {
+		return bundle != null && bundle.isAvailable();
+	}
+
+	public static InputStream openRawResource(final Resources r, final TypedArray array, final int index) {
+		return r.openRawResource(array.getResourceId(index, -1));
+	}
+
 	public static String readStringFromRaw(final Resources r, final TypedArray array, final int index) {
 		return readStringFromRaw(r, array.getResourceId(index, -1));
 	}
@@ -2,16 +2,20 @@ package com.gpl.rpg.AndorsTrail.resource;
 
 import android.content.res.AssetManager;
 import android.content.res.Resources;
+import com.gpl.rpg.AndorsTrail.AndorsTrailApplication;
 import com.gpl.rpg.AndorsTrail.R;
 import com.gpl.rpg.AndorsTrail.util.L;
+import com.gpl.rpg.AndorsTrail.util.LruCache;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 
 public final class TranslationLoader {
-	private final BinaryMoFileParser parser;
+	private static final int CACHE_SIZE = 500;
+
+	private volatile BinaryMoFileParser parser;
+	private final LruCache<String, String> cache = new LruCache<String, String>(CACHE_SIZE);
 
 	public TranslationLoader(AssetManager mgr, Resources res) {
 		this.parser = createParser(mgr, res);
@@ -30,7 +34,7 @@ public final class TranslationLoader {
 
 	private static BinaryMoFileParser createParser(AssetManager mgr, String translationFilename) {
 		try {
-			InputStream is = mgr.open(translationFilename, AssetManager.ACCESS_RANDOM);
+			InputStream is = mgr.open(translationFilename, AssetManager.ACCESS_BUFFER);
 			return new BinaryMoFileParser(is);
 		} catch (IOException e) {
 			L.log("ERROR: Reading from translation asset \"" + translationFilename + "\" failed: " + e.toString());
@@ -38,25 +42,32 @@ public final class TranslationLoader {
 		}
 	}
 
+	// Not synchronized, since the parser only reads from memory and the cache is synchronized.
+	// The ResourceLoader stages may translate from several threads.
 	private String tr(String s) {
 		if (s == null) return null;
+		final BinaryMoFileParser parser = this.parser;
 		if (parser == null) return s;
 		if (s.length() <= 1) return s;
+		String t = cache.get(s);
+		if (t != null) return t;
 		try {
-			//String t = parser.translate(s);
-			//L.log(translations.size() + " : " + s + " -> " + t);
-			//return t;
-			return parser.translate(s);
+			t = parser.translate(s);
 		} catch (IOException e) {
 			return s;
 		}
+		cache.put(s, t);
+		return t;
 	}
 
+	// Releases the MO file contents. Strings translated after this are returned untranslated.
 	public void close() {
 		if (parser == null) return;
-		try {
-			parser.close();
-		} catch (IOException ignored) { }
+		if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) {
+			L.log("TranslationLoader cache: " + cache.toString());
+		}
+		parser = null;
+		cache.evictAll();
 	}
 
 	public String translateItemCategoryName(String s) { return tr(s); }
@@ -70,28 +81,55 @@ public final class TranslationLoader {
 	public String translateConversationReply(String s) { return tr(s); }
 	public String translateWorldmapLocation(String s) { return tr(s); }
 
+	// The whole MO file is read into memory once, and strings are looked up using the hash table in the MO file.
+	// MO files that were compiled without a hash table (msgfmt --no-hash) get an equivalent table built on load.
+	// Assets are usually stored compressed in the apk, so the file is read up front instead of being memory-mapped.
 	private static final class BinaryMoFileParser {
-		private final InputStream is;
-		private final BufferedInputStream reader;
+		private final byte[] data;
 		private final int numStrings;
 		private final int offsetOriginalStrings;
 		private final int offsetTranslatedStrings;
+		private final int[] hashTable;
 
 		public BinaryMoFileParser(InputStream is) throws IOException {
-			this.is = is;
-			this.reader = new BufferedInputStream(is, is.available());
-			this.reader.mark(9999999);
-			int magic = readIntLE();
+			try {
+				this.data = readFully(is);
+			} finally {
+				is.close();
+			}
+			if (data.length < 28) throw new IOException("Invalid header in MO file");
+			int magic = readIntLE(0);
 			if (magic != 0x950412de) throw new IOException("Invalid magic in MO file");
-			this.reader.skip(4);
-			numStrings = readIntLE();
-			offsetOriginalStrings = readIntLE();
-			offsetTranslatedStrings = readIntLE();
+			numStrings = readIntLE(8);
+			offsetOriginalStrings = readIntLE(12);
+			offsetTranslatedStrings = readIntLE(16);
+			int hashTableSize = readIntLE(20);
+			int offsetHashTable = readIntLE(24);
+			if (hashTableSize > 2 && offsetHashTable + hashTableSize * 4 <= data.length) {
+				hashTable = new int[hashTableSize];
+				for (int i = 0; i < hashTableSize; ++i) hashTable[i] = readIntLE(offsetHashTable + i * 4);
+			} else {
+				hashTable = createHashTable();
+			}
 		}
 
-		public void close() throws IOException {
-			reader.close();
-			is.close();
+		private static byte[] readFully(InputStream is) throws IOException {
+			byte[] result = new byte[Math.max(is.available(), 4096)];
+			int length = 0;
+			while (true) {
+				if (length == result.length) {
+					byte[] grown = new byte[result.length * 2];
+					System.arraycopy(result, 0, grown, 0, length);
+					result = grown;
+				}
+				int n = is.read(result, length, result.length - length);
+				if (n < 0) break;
+				length += n;
+			}
+			if (length == result.length) return result;
+			byte[] trimmed = new byte[length];
+			System.arraycopy(result, 0, trimmed, 0, length);
+			return trimmed;
 		}
 
 		private static final String charset = "utf-8";
@@ -100,76 +138,106 @@ public final class TranslationLoader {
 			if (numStrings <= 0) return s;
 
 			byte[] bytes = s.getBytes(charset);
-			byte[] translation = find(bytes);
-			if (translation == null || translation.length <= 0) return s;
-			return new String(translation, charset);
+			int idx = find(bytes);
+			if (idx < 0) return s;
+			int length = readIntLE(offsetTranslatedStrings + idx*8);
+			int offset = readIntLE(offsetTranslatedStrings + idx*8 + 4);
+			if (length <= 0) return s;
+			// The translation of a plural entry holds all plural forms, separated by NULs. Like gettext(), use the first one.
+			for (int i = 0; i < length; ++i) {
+				if (data[offset + i] == 0) {
+					length = i;
+					break;
+				}
+			}
+			if (length <= 0) return s;
+			return new String(data, offset, length, charset);
 		}
 
-		private byte[] find(byte[] bytes) throws IOException {
-			return find(bytes, 0, numStrings);
+		// Same lookup as gettext does, using double hashing with the increment derived from the hash value.
+		private int find(byte[] bytes) {
+			final long hash = hashpjw(bytes, 0, bytes.length) & 0xffffffffL;
+			final int size = hashTable.length;
+			int idx = (int) (hash % size);
+			final int increment = 1 + (int) (hash % (size - 2));
+			while (true) {
+				int entry = hashTable[idx];
+				if (entry == 0) return -1;
+				if (isOriginalStringAt(bytes, entry - 1)) return entry - 1;
+				idx += increment;
+				if (idx >= size) idx -= size;
+			}
 		}
 
-		private byte[] find(byte[] bytes, int minIndex, int maxIndex) throws IOException {
-			int middleIndex;
-			while(minIndex != maxIndex) {
-				if (minIndex+1 == maxIndex) middleIndex = minIndex;
-				else if (minIndex+2 == maxIndex) middleIndex = minIndex;
-				else middleIndex = (minIndex + maxIndex) / 2;
-
-				int c = compare(bytes, middleIndex);
-				if (c == 0) return getTranslatedStringAt(middleIndex);
-
-				if (minIndex+1 == maxIndex) {
-					return null;
-				} else if (c > 0) {
-					maxIndex = middleIndex;
-				} else {
-					minIndex = middleIndex+1;
+		private int[] createHashTable() {
+			int size = nextPrime(Math.max(3, numStrings * 4 / 3 + 1));
+			int[] result = new int[size];
+			for (int i = 0; i < numStrings; ++i) {
+				int length = readIntLE(offsetOriginalStrings + i*8);
+				int offset = readIntLE(offsetOriginalStrings + i*8 + 4);
+				// For plural forms, only the singular msgid is used as key.
+				for (int j = 0; j < length; ++j) {
+					if (data[offset + j] == 0) {
+						length = j;
+						break;
+					}
+				}
+				final long hash = hashpjw(data, offset, length) & 0xffffffffL;
+				int idx = (int) (hash % size);
+				final int increment = 1 + (int) (hash % (size - 2));
+				while (result[idx] != 0) {
+					idx += increment;
+					if (idx >= size) idx -= size;
 				}
+				result[idx] = i + 1;
 			}
-			return null;
+			return result;
 		}
 
-		private final byte[] buf = new byte[8];
-		public final int readIntLE() throws IOException
-		{
-			reader.read(buf, 0, 4);
-			return
-					(buf[3]&0xff) << 24 |
-					(buf[2]&0xff) << 16 |
-					(buf[1]&0xff) <<  8 |
-					(buf[0]&0xff);
+		private static int nextPrime(int n) {
+			n |= 1;
+			while (!isPrime(n)) n += 2;
+			return n;
 		}
 
-		private void seek(int pos) throws IOException {
-			reader.reset();
-			reader.skip(pos);
+		private static boolean isPrime(int n) {
+			for (int d = 3; d * d <= n; d += 2) {
+				if (n % d == 0) return false;
+			}
+			return true;
 		}
 
-		private byte[] getTranslatedStringAt(int idx) throws IOException {
-			seek(offsetTranslatedStrings + idx*8);
-			int length = readIntLE();
-			int offset = readIntLE();
-			seek(offset);
-			byte[] result = new byte[length];
-			reader.read(result, 0, length);
-			return result;
+		private static int hashpjw(byte[] bytes, int offset, int length) {
+			int hval = 0;
+			for (int i = offset; i < offset + length; ++i) {
+				hval = (hval << 4) + (bytes[i] & 0xff);
+				int g = hval & 0xf0000000;
+				if (g != 0) {
+					hval ^= g >>> 24;
+					hval ^= g;
+				}
+			}
+			return hval;
+		}
+
+		private int readIntLE(int pos) {
+			return
+					(data[pos+3]&0xff) << 24 |
+					(data[pos+2]&0xff) << 16 |
+					(data[pos+1]&0xff) <<  8 |
+					(data[pos]&0xff);
 		}
 
-		private int compare(byte[] bytes, int idx) throws IOException {
-			seek(offsetOriginalStrings + idx*8);
-			int length = readIntLE();
-			int offset = readIntLE();
-			seek(offset);
-			int maxLength = bytes.length;
-			for(int i = 0; i < length; ++i) {
-				if (i == maxLength) return 1;
-				int b = reader.read();
-				if (b == bytes[i]) continue;
-				return (b < bytes[i]) ? -1 : 1;
+		private boolean isOriginalStringAt(byte[] bytes, int idx) {
+			int length = readIntLE(offsetOriginalStrings + idx*8);
+			int offset = readIntLE(offsetOriginalStrings + idx*8 + 4);
+			if (length < bytes.length) return false;
+			// For plural forms, the singular msgid is followed by a NUL and the plural msgid.
+			if (length > bytes.length && data[offset + bytes.length] != 0) return false;
+			for (int i = 0; i < bytes.length; ++i) {
+				if (data[offset + i] != bytes[i]) return false;
 			}
-			if (length < maxLength) return -1;
-			return 0;
+			return true;
 		}
 	}
 
@@ -0,0 +1,368 @@
+package com.gpl.rpg.AndorsTrail.resource.parsers;
+
+import android.content.res.AssetManager;
+import com.gpl.rpg.AndorsTrail.AndorsTrailApplication;
+import com.gpl.rpg.AndorsTrail.model.ability.ActorCondition;
+import com.gpl.rpg.AndorsTrail.model.ability.ActorConditionEffect;
+import com.gpl.rpg.AndorsTrail.model.ability.ActorConditionType;
+import com.gpl.rpg.AndorsTrail.model.ability.ActorConditionTypeCollection;
+import com.gpl.rpg.AndorsTrail.model.ability.traits.AbilityModifierTraits;
+import com.gpl.rpg.AndorsTrail.model.ability.traits.StatsModifierTraits;
+import com.gpl.rpg.AndorsTrail.model.actor.MonsterType;
+import com.gpl.rpg.AndorsTrail.model.item.DropList;
+import com.gpl.rpg.AndorsTrail.model.item.DropList.DropItem;
+import com.gpl.rpg.AndorsTrail.model.item.DropListCollection;
+import com.gpl.rpg.AndorsTrail.model.item.ItemCategoryCollection;
+import com.gpl.rpg.AndorsTrail.model.item.ItemTraits_OnEquip;
+import com.gpl.rpg.AndorsTrail.model.item.ItemTraits_OnUse;
+import com.gpl.rpg.AndorsTrail.model.item.ItemType;
+import com.gpl.rpg.AndorsTrail.model.item.ItemTypeCollection;
+import com.gpl.rpg.AndorsTrail.model.quest.Quest;
+import com.gpl.rpg.AndorsTrail.model.quest.QuestLogEntry;
+import com.gpl.rpg.AndorsTrail.resource.DynamicTileLoader;
+import com.gpl.rpg.AndorsTrail.resource.TranslationLoader;
+import com.gpl.rpg.AndorsTrail.resource.VisualEffectCollection;
+import com.gpl.rpg.AndorsTrail.resource.parsers.bundle.GameDataBundleFormat;
+import com.gpl.rpg.AndorsTrail.util.ConstRange;
+import com.gpl.rpg.AndorsTrail.util.L;
+import com.gpl.rpg.AndorsTrail.util.Size;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+// Reads the precompiled game data bundle (see GameDataBundleCompiler), as a faster alternative to parsing the
+// json resources. The objects that are created must be identical to the ones created by the json parsers.
+public final class GameDataBundleReader {
+	private final GameDataBundleFormat.Reader src;
+	private final DynamicTileLoader tileLoader;
+	private final TranslationLoader translationLoader;
+	private final ActorConditionTypeCollection actorConditionTypes;
+	private final ItemCategoryCollection itemCategories;
+	private final ItemTypeCollection itemTypes;
+	private final DropListCollection dropLists;
+	private final Size size1x1 = new Size(1, 1);
+	private int questSortOrder = 0;
+	private boolean failed = false;
+
+	private static final Comparator<QuestLogEntry> sortByQuestProgress = new Comparator<QuestLogEntry>() {
+		@Override
+		public int compare(QuestLogEntry a, QuestLogEntry b) {
+			return a.progress - b.progress;
+		}
+	};
+
+	// Returns null if there is no bundle that matches the current version of the game data. The caller should parse the json resources instead.
+	public static GameDataBundleReader open(
+			AssetManager mgr,
+			DynamicTileLoader tileLoader,
+			TranslationLoader translationLoader,
+			ActorConditionTypeCollection actorConditionTypes,
+			ItemCategoryCollection itemCategories,
+			ItemTypeCollection itemTypes,
+			DropListCollection dropLists) {
+		if (AndorsTrailApplication.DEVELOPMENT_DEBUGRESOURCES) return null;
+
+		InputStream is;
+		try {
+			is = new BufferedInputStream(mgr.open(GameDataBundleFormat.ASSET_FILENAME), 8192);
+		} catch (IOException e) {
+			return null;
+		}
+		try {
+			GameDataBundleFormat.Reader src = GameDataBundleFormat.Reader.open(is);
+			if (src == null || src.appVersion != AndorsTrailApplication.CURRENT_VERSION) {
+				if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) {
+					L.log("Game data bundle is outdated, falling back to parsing json resources.");
+				}
+				is.close();
+				return null;
+			}
+			return new GameDataBundleReader(src, tileLoader, translationLoader, actorConditionTypes, itemCategories, itemTypes, dropLists);
+		} catch (IOException e) {
+			L.log("ERROR: Reading game data bundle failed. " + e.toString());
+			try { is.close(); } catch (IOException ignored) {}
+			return null;
+		}
+	}
+
+	private GameDataBundleReader(
+			GameDataBundleFormat.Reader src,
+			DynamicTileLoader tileLoader,
+			TranslationLoader translationLoader,
+			ActorConditionTypeCollection actorConditionTypes,
+			ItemCategoryCollection itemCategories,
+			ItemTypeCollection itemTypes,
+			DropListCollection dropLists) {
+		this.src = src;
+		this.tileLoader = tileLoader;
+		this.translationLoader = translationLoader;
+		this.actorConditionTypes = actorConditionTypes;
+		this.itemCategories = itemCategories;
+		this.itemTypes = itemTypes;
+		this.dropLists = dropLists;
+	}
+
+	public boolean isAvailable() {
+		return !failed;
+	}
+
+	// Stops reading from the bundle, after which the remaining game data has to be parsed from the json resources instead.
+	public void fail(IOException e) {
+		L.log("ERROR: Reading game data bundle failed, falling back to parsing json resources. " + e.toString());
+		failed = true;
+		close();
+	}
+
+	public void close() {
+		try {
+			src.close();
+		} catch (IOException e) { }
+	}
+
+	public void readActorConditionTypes(HashMap<String, ActorConditionType> dest) throws IOException {
+		final int numEntries = src.readSectionHeader(GameDataBundleFormat.SECTION_ACTORCONDITIONS);
+		for (int i = 0; i < numEntries; ++i) {
+			final String conditionTypeID = src.readString();
+			dest.put(conditionTypeID, new ActorConditionType(
+					conditionTypeID
+					,translationLoader.translateActorConditionName(src.readString())
+					,readImageID()
+					,ActorConditionType.ConditionCategory.valueOf(src.readString())
+					,src.readBoolean()
+					,src.readBoolean()
+					,readStatsModifierTraits()
+					,readStatsModifierTraits()
+					,readAbilityModifierTraits()
+			));
+		}
+	}
+
+	public void readItemTypes(HashMap<String, ItemType> dest) throws IOException {
+		final int numEntries = src.readSectionHeader(GameDataBundleFormat.SECTION_ITEMS);
+		for (int i = 0; i < numEntries; ++i) {
+			final String id = src.readString();
+			final int iconID = readImageID();
+			final String itemTypeName = translationLoader.translateItemTypeName(src.readString());
+			final String description = translationLoader.translateItemTypeDescription(src.readString());
+			final String category = src.readString();
+			final String displayType = src.readString();
+			final boolean hasManualPrice = src.readBoolean();
+			final int baseMarketCost = src.readInt();
+			dest.put(id, new ItemType(
+					id
+					, iconID
+					, itemTypeName
+					, description
+					, itemCategories.getItemCategory(category)
+					, ItemType.DisplayType.fromString(displayType, ItemType.DisplayType.ordinary)
+					, hasManualPrice
+					, baseMarketCost
+					, readItemTraits_OnEquip()
+					, readItemTraits_OnUse()
+					, readItemTraits_OnUse()
+					, readItemTraits_OnUse()
+			));
+		}
+	}
+
+	public void readDropLists(HashMap<String, DropList> dest) throws IOException {
+		final int numEntries = src.readSectionHeader(GameDataBundleFormat.SECTION_DROPLISTS);
+		for (int i = 0; i < numEntries; ++i) {
+			final String droplistID = src.readString();
+			final int numItems = src.readInt();
+			DropItem[] items = null;
+			if (numItems > 0) {
+				items = new DropItem[numItems];
+				for (int j = 0; j < numItems; ++j) {
+					final ItemType itemType = itemTypes.getItemType(src.readString());
+					final ConstRange chance = ResourceParserUtils.parseChance(src.readString());
+					final int min = src.readInt();
+					final int max = src.readInt();
+					items[j] = new DropItem(itemType, chance, ResourceParserUtils.parseQuantity(min, max));
+				}
+			} else if (AndorsTrailApplication.DEVELOPMENT_VALIDATEDATA) {
+				L.log("OPTIMIZE: Droplist \"" + droplistID + "\" has no dropped items.");
+			}
+			dest.put(droplistID, new DropList(items));
+		}
+	}
+
+	public void readQuests(HashMap<String, Quest> dest) throws IOException {
+		final int numEntries = src.readSectionHeader(GameDataBundleFormat.SECTION_QUESTS);
+		for (int i = 0; i < numEntries; ++i) {
+			final String id = src.readString();
+			final String name = translationLoader.translateQuestName(src.readString());
+			final boolean showInLog = src.readBoolean();
+			final int numStages = src.readInt();
+			QuestLogEntry[] stages = null;
+			if (numStages > 0) {
+				stages = new QuestLogEntry[numStages];
+				for (int j = 0; j < numStages; ++j) {
+					stages[j] = new QuestLogEntry(
+							src.readInt()
+							,translationLoader.translateQuestLogEntry(src.readString())
+							,src.readInt()
+							,src.readBoolean()
+					);
+				}
+				Arrays.sort(stages, sortByQuestProgress);
+			}
+
+			++questSortOrder;
+
+			dest.put(id, new Quest(id, name, stages, showInLog, questSortOrder));
+		}
+	}
+
+	public void readMonsterTypes(HashMap<String, MonsterType> dest) throws IOException {
+		final int numEntries = src.readSectionHeader(GameDataBundleFormat.SECTION_MONSTERS);
+		for (int i = 0; i < numEntries; ++i) {
+			final String monsterTypeID = src.readString();
+			final String name = translationLoader.translateMonsterTypeName(src.readString());
+			final String spawnGroup = src.readString();
+			final int iconID = readImageID();
+			final Size size = ResourceParserUtils.parseSize(src.readString(), size1x1);
+			final MonsterType.MonsterClass monsterClass = MonsterType.MonsterClass.fromString(src.readString(), MonsterType.MonsterClass.humanoid);
+			final MonsterType.AggressionType aggressionType = MonsterType.AggressionType.fromString(src.readString(), MonsterType.AggressionType.none);
+			final boolean isUnique = src.readBoolean();
+			final String faction = src.readString();
+			final int maxHP = src.readInt();
+			final int maxAP = src.readInt();
+			final int moveCost = src.readInt();
+			final int attackCost = src.readInt();
+			final int attackChance = src.readInt();
+			final int criticalSkill = src.readInt();
+			final float criticalMultiplier = src.readFloat();
+			final ConstRange damagePotential = readConstRange();
+			final int blockChance = src.readInt();
+			final int damageResistance = src.readInt();
+			final String droplistID = src.readString();
+			final String phraseID = src.readString();
+			final ItemTraits_OnUse hitEffect = readItemTraits_OnUse();
+
+			final int exp = MonsterTypeParser.getExpectedMonsterExperience(attackCost, attackChance, damagePotential, criticalSkill, criticalMultiplier, blockChance, damageResistance, hitEffect, maxHP, maxAP);
+
+			dest.put(monsterTypeID, new MonsterType(
+					monsterTypeID
+					, name
+					, spawnGroup != null ? spawnGroup : monsterTypeID
+					, exp
+					, dropLists.getDropList(droplistID)
+					, phraseID
+					, isUnique
+					, faction
+					, monsterClass
+					, aggressionType
+					, size
+					, iconID
+					, maxAP
+					, maxHP
+					, moveCost
+					, attackCost
+					, attackChance
+					, criticalSkill
+					, criticalMultiplier
+					, damagePotential
+					, blockChance
+					, damageResistance
+					, hitEffect == null ? null : new ItemTraits_OnUse[] { hitEffect }
+			));
+		}
+	}
+
+	private int readImageID() throws IOException {
+		final String tilesetName = src.readString();
+		return tileLoader.prepareTileID(tilesetName, src.readInt());
+	}
+
+	private ConstRange readConstRange() throws IOException {
+		if (!src.readBoolean()) return null;
+		final int max = src.readInt();
+		final int min = src.readInt();
+		return new ConstRange(max, min);
+	}
+
+	private StatsModifierTraits readStatsModifierTraits() throws IOException {
+		if (!src.readBoolean()) return null;
+		final String visualEffectID = src.readString();
+		return new StatsModifierTraits(
+				VisualEffectCollection.VisualEffectID.fromString(visualEffectID, null)
+				,readConstRange()
+				,readConstRange()
+		);
+	}
+
+	private AbilityModifierTraits readAbilityModifierTraits() throws IOException {
+		if (!src.readBoolean()) return null;
+		final int increaseMaxHP = src.readInt();
+		final int increaseMaxAP = src.readInt();
+		final int increaseMoveCost = src.readInt();
+		final int increaseUseItemCost = src.readInt();
+		final int increaseReequipCost = src.readInt();
+		final int increaseAttackCost = src.readInt();
+		final int increaseAttackChance = src.readInt();
+		final int increaseBlockChance = src.readInt();
+		final ConstRange increaseAttackDamage = readConstRange();
+		return new AbilityModifierTraits(
+				increaseMaxHP
+				,increaseMaxAP
+				,increaseMoveCost
+				,increaseUseItemCost
+				,increaseReequipCost
+				,increaseAttackCost
+				,increaseAttackChance
+				,increaseBlockChance
+				,increaseAttackDamage != null ? increaseAttackDamage.current : 0
+				,increaseAttackDamage != null ? increaseAttackDamage.max : 0
+				,src.readInt()
+				,src.readFloat()
+				,src.readInt()
+		);
+	}
+
+	private ItemTraits_OnEquip readItemTraits_OnEquip() throws IOException {
+		if (!src.readBoolean()) return null;
+		final AbilityModifierTraits stats = readAbilityModifierTraits();
+		final ActorConditionEffect[] addedConditions = readActorConditionEffects(false);
+		return new ItemTraits_OnEquip(stats, addedConditions);
+	}
+
+	private ItemTraits_OnUse readItemTraits_OnUse() throws IOException {
+		if (!src.readBoolean()) return null;
+		final ConstRange boostCurrentHP = readConstRange();
+		final ConstRange boostCurrentAP = readConstRange();
+		return new ItemTraits_OnUse(
+				new StatsModifierTraits(
+					null
+					,boostCurrentHP
+					,boostCurrentAP
+				)
+				,readActorConditionEffects(true)
+				,readActorConditionEffects(true)
+		);
+	}
+
+	private ActorConditionEffect[] readActorConditionEffects(boolean withDuration) throws IOException {
+		final int numEffects = src.readInt();
+		if (numEffects <= 0) return null;
+		ActorConditionEffect[] result = new ActorConditionEffect[numEffects];
+		for (int i = 0; i < numEffects; ++i) {
+			final ActorConditionType conditionType = actorConditionTypes.getActorConditionType(src.readString());
+			final boolean hasMagnitude = src.readBoolean();
+			final int magnitude = hasMagnitude ? src.readInt() : (withDuration ? ActorCondition.MAGNITUDE_REMOVE_ALL : 1);
+			final boolean hasDuration = src.readBoolean();
+			final int duration = hasDuration ? src.readInt() : ActorCondition.DURATION_FOREVER;
+			final String chance = src.readString();
+			if (withDuration) {
+				result[i] = new ActorConditionEffect(conditionType, magnitude, duration, ResourceParserUtils.parseChance(chance));
+			} else {
+				result[i] = new ActorConditionEffect(conditionType, magnitude, ActorCondition.DURATION_FOREVER, ResourceParserUtils.always);
+			}
+		}
+		return result;
+	}
+}
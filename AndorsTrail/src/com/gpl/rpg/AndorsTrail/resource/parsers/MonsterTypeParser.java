@@ -82,7 +82,7 @@ public final class MonsterTypeParser extends JsonCollectionParserFor<MonsterType
 	private static float div100(int v) {
 		return (float) v / 100f;
 	}
-	private static int getExpectedMonsterExperience(
+	static int getExpectedMonsterExperience(
 			int attackCost,
 			int attackChance,
 			ConstRange damagePotential,
@@ -119,10 +119,14 @@ public final class ResourceParserUtils {
 	public static ConstRange parseQuantity(JSONObject obj) throws JSONException {
 		final int min = obj.getInt(JsonFieldNames.Range.min);
 		final int max = obj.getInt(JsonFieldNames.Range.max);
+		return parseQuantity(min, max);
+	}
+
+	public static ConstRange parseQuantity(final int min, final int max) {
 		if (min == 0 && max == 1) return zero_or_one;
 		if (min == 1 && max == 1) return one;
 		if (min == 5 && max == 5) return five;
 		if (min == 10 && max == 10) return ten;
-		return parseConstRange(obj);
+		return new ConstRange(max, min);
 	}
 }
@@ -29,7 +29,7 @@ public final class WorldMapParser {
 					String s = xrp.getName();
 					if (s.equals("segment")) {
 						WorldMapSegment segment = parseSegment(xrp, maps, translationLoader);
-						maps.worldMapSegments.put(segment.name, segment);
+						maps.addWorldMapSegment(segment);
 					}
 				}
 			}
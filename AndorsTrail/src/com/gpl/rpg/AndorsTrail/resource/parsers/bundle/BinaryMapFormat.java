@@ -0,0 +1,31 @@
+package com.gpl.rpg.AndorsTrail.resource.parsers.bundle;
+
+// Must not depend on any android classes, since the maps are compiled outside of the app (see BinaryMapCompiler).
+//
+// File layout (DataOutputStream, big endian):
+//   int magic, int format version, int app version
+//   short width, short height, nullable string colorfilter
+//   short number of tilesets, string tileset names
+//   short number of tiles, (short tileset index, short local id) for every tile used by the map
+//   section for the default layout
+//   short number of replacements, (short x, y, width, height, nullable string name, nullable string group, section) for each
+//
+// A section is a byte of SECTIONFLAG_* telling which layers are present, followed by the present tile layers as
+// width*height shorts in [x][y] order (0 = no tile, otherwise 1 + index into the tiles of the map), the walkable layer
+// as width*height bits in [x][y] order (set = walkable), and the layout hash as a byte length followed by the bytes.
+public final class BinaryMapFormat {
+	public static final String ASSET_DIRECTORY = "maps/";
+	public static final String FILE_EXTENSION = ".bin";
+
+	public static final int MAGIC = 0x41544D50; // "ATMP"
+	public static final int FORMAT_VERSION = 1;
+
+	public static final int SECTIONFLAG_GROUND = 1;
+	public static final int SECTIONFLAG_OBJECTS = 2;
+	public static final int SECTIONFLAG_ABOVE = 4;
+	public static final int SECTIONFLAG_WALKABLE = 8;
+
+	public static String getAssetFilename(String mapName) {
+		return ASSET_DIRECTORY + mapName + FILE_EXTENSION;
+	}
+}
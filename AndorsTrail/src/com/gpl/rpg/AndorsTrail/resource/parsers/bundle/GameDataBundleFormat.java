@@ -0,0 +1,151 @@
+package com.gpl.rpg.AndorsTrail.resource.parsers.bundle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// Must not depend on any android classes, since the bundle is compiled outside of the app (see GameDataBundleCompiler).
+public final class GameDataBundleFormat {
+	public static final String ASSET_FILENAME = "gamedata/gamedata.bin";
+
+	public static final int MAGIC = 0x41544744; // "ATGD"
+	public static final int FORMAT_VERSION = 1;
+
+	public static final int SECTION_ACTORCONDITIONS = 1;
+	public static final int SECTION_ITEMS = 2;
+	public static final int SECTION_DROPLISTS = 3;
+	public static final int SECTION_QUESTS = 4;
+	public static final int SECTION_MONSTERS = 5;
+
+	// Strings are stored once in a string table at the start of the file, and are referenced by index.
+	// Integers are stored as zigzag-encoded varints, since almost all values in the game data are small.
+	public static final class Writer {
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream(64 * 1024);
+		private final DataOutputStream dest = new DataOutputStream(body);
+		private final HashMap<String, Integer> stringIndices = new HashMap<String, Integer>();
+		private final ArrayList<String> strings = new ArrayList<String>();
+
+		public void writeSectionHeader(int section, int numEntries) throws IOException {
+			dest.writeByte(section);
+			writeInt(numEntries);
+		}
+
+		public void writeString(String s) throws IOException {
+			if (s == null) {
+				writeUnsigned(0);
+				return;
+			}
+			Integer index = stringIndices.get(s);
+			if (index == null) {
+				index = strings.size();
+				strings.add(s);
+				stringIndices.put(s, index);
+			}
+			writeUnsigned(index + 1);
+		}
+
+		public void writeBoolean(boolean b) throws IOException {
+			dest.writeBoolean(b);
+		}
+
+		public void writeFloat(float f) throws IOException {
+			dest.writeFloat(f);
+		}
+
+		public void writeInt(int v) throws IOException {
+			writeUnsigned((v << 1) ^ (v >> 31));
+		}
+
+		private void writeUnsigned(int v) throws IOException {
+			while ((v & ~0x7f) != 0) {
+				dest.writeByte((v & 0x7f) | 0x80);
+				v >>>= 7;
+			}
+			dest.writeByte(v);
+		}
+
+		public void writeTo(OutputStream os, int appVersion) throws IOException {
+			dest.flush();
+			DataOutputStream out = new DataOutputStream(os);
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(appVersion);
+			out.writeInt(strings.size());
+			for (String s : strings) out.writeUTF(s);
+			body.writeTo(out);
+			out.flush();
+		}
+	}
+
+	public static final class Reader {
+		private final DataInputStream src;
+		private final String[] strings;
+		public final int appVersion;
+
+		// Returns null if the stream does not contain a bundle that can be read by this version of the format.
+		public static Reader open(InputStream is) throws IOException {
+			DataInputStream src = new DataInputStream(is);
+			if (src.readInt() != MAGIC) return null;
+			if (src.readInt() != FORMAT_VERSION) return null;
+			return new Reader(src);
+		}
+
+		private Reader(DataInputStream src) throws IOException {
+			this.src = src;
+			this.appVersion = src.readInt();
+			final int numStrings = src.readInt();
+			this.strings = new String[numStrings];
+			for (int i = 0; i < numStrings; ++i) {
+				strings[i] = src.readUTF();
+			}
+		}
+
+		public int readSectionHeader(int expectedSection) throws IOException {
+			int section = src.readUnsignedByte();
+			if (section != expectedSection) {
+				throw new IOException("Expected section " + expectedSection + " in game data bundle, found " + section);
+			}
+			return readInt();
+		}
+
+		public String readString() throws IOException {
+			int index = readUnsigned();
+			if (index == 0) return null;
+			return strings[index - 1];
+		}
+
+		public boolean readBoolean() throws IOException {
+			return src.readBoolean();
+		}
+
+		public float readFloat() throws IOException {
+			return src.readFloat();
+		}
+
+		public int readInt() throws IOException {
+			int v = readUnsigned();
+			return (v >>> 1) ^ -(v & 1);
+		}
+
+		private int readUnsigned() throws IOException {
+			int result = 0;
+			int shift = 0;
+			int b;
+			do {
+				b = src.readUnsignedByte();
+				result |= (b & 0x7f) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return result;
+		}
+
+		public void close() throws IOException {
+			src.close();
+		}
+	}
+}
@@ -6,6 +6,8 @@ import com.gpl.rpg.AndorsTrail.util.Pair;
 import org.json.JSONArray;
 import org.json.JSONException;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
@@ -33,6 +35,38 @@ public abstract class JsonCollectionParserFor<T> extends JsonParserFor<Pair<Stri
 			}
 		}
 
+		addRows(objects, dest, ids);
+		return ids;
+	}
+
+	// Parses the rows directly from the stream, without reading the whole input into a String or a JSONArray first.
+	public HashSet<String> parseRows(InputStream input, HashMap<String, T> dest) {
+
+		HashSet<String> ids = new HashSet<String>();
+		ArrayList<Pair<String, T>> objects = new ArrayList<Pair<String, T>>();
+
+		JsonStreamReader reader = null;
+		try {
+			reader = new JsonStreamReader(input);
+			parseRows(reader, objects);
+		} catch (JSONException e) {
+			if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) {
+				L.log("ERROR loading resource data: " + e.toString());
+			}
+		} catch (IOException e) {
+			L.log("ERROR: Reading resource data failed. " + e.toString());
+		} finally {
+			try {
+				if (reader != null) reader.close();
+				else input.close();
+			} catch (IOException ignored) { }
+		}
+
+		addRows(objects, dest, ids);
+		return ids;
+	}
+
+	private void addRows(ArrayList<Pair<String, T>> objects, HashMap<String, T> dest, HashSet<String> ids) {
 		for (Pair<String, T> o : objects) {
 			final String id = o.first;
 			if (AndorsTrailApplication.DEVELOPMENT_VALIDATEDATA) {
@@ -45,6 +79,5 @@ public abstract class JsonCollectionParserFor<T> extends JsonParserFor<Pair<Stri
 			dest.put(id, o.second);
 			ids.add(id);
 		}
-		return ids;
 	}
 }
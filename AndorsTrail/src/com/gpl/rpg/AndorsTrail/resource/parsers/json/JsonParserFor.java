@@ -4,6 +4,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.ArrayList;
 
 public abstract class JsonParserFor<T> {
@@ -16,5 +17,17 @@ public abstract class JsonParserFor<T> {
 		}
 	}
 
+	public void parseRows(JsonStreamReader reader, ArrayList<T> dest) throws IOException, JSONException {
+		reader.beginArray();
+		while (reader.hasNext()) {
+			dest.add(parseObject(reader.nextObject()));
+		}
+		reader.endArray();
+	}
+
+	public T parseNext(JsonStreamReader reader) throws IOException, JSONException {
+		return parseObject(reader.nextObject());
+	}
+
 	protected abstract T parseObject(JSONObject o) throws JSONException;
 }
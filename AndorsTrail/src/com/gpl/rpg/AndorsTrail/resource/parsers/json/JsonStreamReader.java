@@ -0,0 +1,243 @@
+package com.gpl.rpg.AndorsTrail.resource.parsers.json;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Reads a json array one element at a time directly from a stream, so that neither the whole file nor the whole
+// JSONArray has to be kept in memory. Each element is returned as a JSONObject, so that the existing
+// JsonParserFor.parseObject() implementations can be used unchanged.
+//
+// The input is read as UTF-8 bytes, so that the byte offset of each object in the stream is known. This allows
+// single objects to be read later on by skipping directly to their offset (see ConversationLoader).
+public final class JsonStreamReader {
+	private static final int NOTHING_PEEKED = -2;
+
+	private final InputStream in;
+	private int peeked = NOTHING_PEEKED;
+	private int position = 0;
+	private int lastObjectOffset = -1;
+	private boolean hasReadArrayElement = false;
+	private final StringBuilder sb = new StringBuilder(64);
+
+	public JsonStreamReader(InputStream is) {
+		this.in = new BufferedInputStream(is, 8192);
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	public void beginArray() throws IOException, JSONException {
+		expect('[');
+		hasReadArrayElement = false;
+	}
+
+	public boolean hasNext() throws IOException, JSONException {
+		int c = peekNonWhitespace();
+		if (c == ']') return false;
+		if (hasReadArrayElement) {
+			expect(',');
+			// Tolerate trailing commas, as org.json does.
+			if (peekNonWhitespace() == ']') return false;
+		}
+		return true;
+	}
+
+	public JSONObject nextObject() throws IOException, JSONException {
+		hasReadArrayElement = true;
+		if (peekNonWhitespace() != '{') throw syntaxError("Expected a json object");
+		final int offset = position;
+		JSONObject result = readObject();
+		lastObjectOffset = offset;
+		return result;
+	}
+
+	// Byte offset in the stream of the object that was last returned by nextObject().
+	public int getLastObjectOffset() { return lastObjectOffset; }
+
+	public void endArray() throws IOException, JSONException {
+		expect(']');
+	}
+
+	private Object readValue() throws IOException, JSONException {
+		int c = peekNonWhitespace();
+		switch (c) {
+		case '{': return readObject();
+		case '[': return readArray();
+		case '"': return readString();
+		case -1: throw syntaxError("Unexpected end of input");
+		default: return readLiteral();
+		}
+	}
+
+	private JSONObject readObject() throws IOException, JSONException {
+		expect('{');
+		JSONObject result = new JSONObject();
+		if (peekNonWhitespace() == '}') {
+			read();
+			return result;
+		}
+		while (true) {
+			if (peekNonWhitespace() != '"') throw syntaxError("Expected a name");
+			String name = readString();
+			expect(':');
+			result.put(name, readValue());
+			int c = readNonWhitespace();
+			if (c == '}') return result;
+			if (c != ',') throw syntaxError("Unterminated object");
+		}
+	}
+
+	private JSONArray readArray() throws IOException, JSONException {
+		expect('[');
+		JSONArray result = new JSONArray();
+		if (peekNonWhitespace() == ']') {
+			read();
+			return result;
+		}
+		while (true) {
+			result.put(readValue());
+			int c = readNonWhitespace();
+			if (c == ']') return result;
+			if (c != ',') throw syntaxError("Unterminated array");
+			if (peekNonWhitespace() == ']') {
+				read();
+				return result;
+			}
+		}
+	}
+
+	private String readString() throws IOException, JSONException {
+		expect('"');
+		sb.setLength(0);
+		while (true) {
+			int c = read();
+			switch (c) {
+			case -1: throw syntaxError("Unterminated string");
+			case '"': return sb.toString();
+			case '\\':
+				c = read();
+				switch (c) {
+				case 'b': sb.append('\b'); break;
+				case 'f': sb.append('\f'); break;
+				case 'n': sb.append('\n'); break;
+				case 'r': sb.append('\r'); break;
+				case 't': sb.append('\t'); break;
+				case 'u':
+					int v = 0;
+					for (int i = 0; i < 4; ++i) {
+						int digit = Character.digit(read(), 16);
+						if (digit < 0) throw syntaxError("Invalid escape sequence");
+						v = (v << 4) | digit;
+					}
+					sb.append((char) v);
+					break;
+				case -1: throw syntaxError("Unterminated escape sequence");
+				default: sb.append((char) c); break;
+				}
+				break;
+			default:
+				if (c < 0x80) sb.append((char) c);
+				else readUTF8Char(c);
+			}
+		}
+	}
+
+	private void readUTF8Char(int firstByte) throws IOException, JSONException {
+		int numContinuationBytes;
+		int codePoint;
+		if ((firstByte & 0xE0) == 0xC0) {
+			numContinuationBytes = 1;
+			codePoint = firstByte & 0x1F;
+		} else if ((firstByte & 0xF0) == 0xE0) {
+			numContinuationBytes = 2;
+			codePoint = firstByte & 0x0F;
+		} else if ((firstByte & 0xF8) == 0xF0) {
+			numContinuationBytes = 3;
+			codePoint = firstByte & 0x07;
+		} else {
+			throw syntaxError("Invalid UTF-8 sequence");
+		}
+		for (int i = 0; i < numContinuationBytes; ++i) {
+			int c = read();
+			if ((c & 0xC0) != 0x80) throw syntaxError("Invalid UTF-8 sequence");
+			codePoint = (codePoint << 6) | (c & 0x3F);
+		}
+		if (codePoint >= 0x10000) {
+			codePoint -= 0x10000;
+			sb.append((char) (0xD800 + (codePoint >> 10)));
+			sb.append((char) (0xDC00 + (codePoint & 0x3FF)));
+		} else {
+			sb.append((char) codePoint);
+		}
+	}
+
+	// Numbers, true, false and null. Numbers are converted the same way as org.json.JSONTokener does.
+	private Object readLiteral() throws IOException, JSONException {
+		sb.setLength(0);
+		while (true) {
+			int c = peek();
+			if (c == -1 || c == ',' || c == '}' || c == ']' || c == ':' || Character.isWhitespace(c)) break;
+			sb.append((char) read());
+		}
+		final String literal = sb.toString();
+		if (literal.length() == 0) throw syntaxError("Expected a value");
+		if (literal.equals("null")) return JSONObject.NULL;
+		if (literal.equals("true")) return Boolean.TRUE;
+		if (literal.equals("false")) return Boolean.FALSE;
+
+		if (literal.indexOf('.') == -1 && literal.indexOf('e') == -1 && literal.indexOf('E') == -1) {
+			try {
+				long l = Long.parseLong(literal);
+				if (l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE) return (int) l;
+				return l;
+			} catch (NumberFormatException e) { }
+		}
+		try {
+			return Double.valueOf(literal);
+		} catch (NumberFormatException e) {
+			return literal;
+		}
+	}
+
+	private void expect(char expected) throws IOException, JSONException {
+		int c = readNonWhitespace();
+		if (c != expected) throw syntaxError("Expected '" + expected + "'");
+	}
+
+	private int readNonWhitespace() throws IOException {
+		int c = peekNonWhitespace();
+		read();
+		return c;
+	}
+
+	private int peekNonWhitespace() throws IOException {
+		int c = peek();
+		while (c != -1 && Character.isWhitespace(c)) {
+			read();
+			c = peek();
+		}
+		return c;
+	}
+
+	private int peek() throws IOException {
+		if (peeked == NOTHING_PEEKED) peeked = in.read();
+		return peeked;
+	}
+
+	private int read() throws IOException {
+		int c = peek();
+		peeked = NOTHING_PEEKED;
+		if (c != -1) ++position;
+		return c;
+	}
+
+	private JSONException syntaxError(String message) {
+		return new JSONException(message + " at offset " + position);
+	}
+}
@@ -0,0 +1,217 @@
+package com.gpl.rpg.AndorsTrail.resource.tiles;
+
+import android.content.res.Resources;
+import android.os.AsyncTask;
+import com.gpl.rpg.AndorsTrail.AndorsTrailApplication;
+import com.gpl.rpg.AndorsTrail.context.WorldContext;
+import com.gpl.rpg.AndorsTrail.model.map.LayeredTileMap;
+import com.gpl.rpg.AndorsTrail.model.map.MapObject;
+import com.gpl.rpg.AndorsTrail.model.map.PredefinedMap;
+import com.gpl.rpg.AndorsTrail.model.map.TMXMapTranslator;
+import com.gpl.rpg.AndorsTrail.util.Coord;
+import com.gpl.rpg.AndorsTrail.util.CoordRect;
+import com.gpl.rpg.AndorsTrail.util.L;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+
+// Loads the tiles of the maps next to the current map in the background, so that the next map change does not have
+// to decode any tilesets. The adjacent maps are loaded in the order of the walking distance from the player to the
+// map change areas that lead to them, as long as their tilesets fit in the memory budget. Prefetching for a map is
+// cancelled as soon as the player enters another map.
+//
+// The adjacent maps are ranked on the thread that requests the prefetch, since the walkability and the map change areas
+// of the map change when replacements are applied. Only the loading of tiles is done by the background task. The tile
+// ids of each adjacent map are kept between map changes, and may be read by several tasks at once on older devices,
+// where AsyncTasks run in parallel.
+public final class AdjacentMapPrefetcher {
+	// Map change areas that cannot be reached from where the player entered the map are ranked after all
+	// reachable ones. They may still become reachable later, for example when a door is opened.
+	private static final int UNREACHABLE_DISTANCE_PENALTY = 100000;
+
+	private final TileManager tileManager;
+	private final HashMap<String, HashSet<Integer>> tileIDsPerMap = new HashMap<String, HashSet<Integer>>(); // Guarded by itself.
+	private ArrayList<TileCollection> prefetchedTiles = new ArrayList<TileCollection>();
+	private PrefetchTask currentTask;
+
+	public AdjacentMapPrefetcher(TileManager tileManager) {
+		this.tileManager = tileManager;
+	}
+
+	public synchronized void prefetch(Resources res, WorldContext world, PredefinedMap map, LayeredTileMap tileMap, Coord playerPosition) {
+		if (currentTask != null) currentTask.cancel(false);
+		final ArrayList<String> adjacentMapNames = rankAdjacentMaps(map, tileMap, playerPosition);
+		currentTask = new PrefetchTask(res, world, tileMap.usedTileIDs, adjacentMapNames);
+		currentTask.execute();
+	}
+
+	public synchronized void cancelAndRelease() {
+		if (currentTask != null) currentTask.cancel(false);
+		currentTask = null;
+		releaseAll(prefetchedTiles);
+	}
+
+	private synchronized void onTaskCompleted(PrefetchTask task, ArrayList<TileCollection> loadedTiles) {
+		if (task != currentTask) {
+			releaseAll(loadedTiles);
+			return;
+		}
+		currentTask = null;
+		// The previously prefetched tiles are released only after the new ones have been loaded, so that the
+		// atlases that both of them use stay loaded.
+		final ArrayList<TileCollection> previousTiles = prefetchedTiles;
+		prefetchedTiles = loadedTiles;
+		releaseAll(previousTiles);
+	}
+
+	private static void releaseAll(ArrayList<TileCollection> tiles) {
+		for (TileCollection c : tiles) c.release();
+		tiles.clear();
+	}
+
+	private final class PrefetchTask extends AsyncTask<Void, Void, Void> {
+		private final Resources res;
+		private final WorldContext world;
+		private final Collection<Integer> currentMapTileIDs;
+		private final ArrayList<String> adjacentMapNames;
+		private final ArrayList<TileCollection> loadedTiles = new ArrayList<TileCollection>();
+
+		public PrefetchTask(Resources res, WorldContext world, Collection<Integer> currentMapTileIDs, ArrayList<String> adjacentMapNames) {
+			this.res = res;
+			this.world = world;
+			this.currentMapTileIDs = currentMapTileIDs;
+			this.adjacentMapNames = adjacentMapNames;
+		}
+
+		@Override
+		protected Void doInBackground(Void... arg0) {
+			try {
+				prefetchAdjacentMaps();
+			} finally {
+				onTaskCompleted(this, loadedTiles);
+			}
+			return null;
+		}
+
+		private void prefetchAdjacentMaps() {
+			// The tilesets of the current map are already loaded, and are not counted against the budget.
+			final HashSet<ResourceFileTileset> countedTilesets = new HashSet<ResourceFileTileset>();
+			tileManager.tileCache.getAtlasByteCount(currentMapTileIDs, countedTilesets);
+			int remainingBytes = tileManager.tileCache.getMaxByteCount() / 2;
+
+			for (String mapName : adjacentMapNames) {
+				if (isCancelled()) return;
+				final HashSet<Integer> tileIDs = getTileIDsFor(mapName);
+				if (tileIDs == null) continue;
+
+				final int byteCount = tileManager.tileCache.getAtlasByteCount(tileIDs, countedTilesets);
+				if (byteCount > remainingBytes) {
+					if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) {
+						L.log("OPTIMIZE: Not prefetching tiles for " + mapName + " and beyond, they do not fit in the memory budget.");
+					}
+					return;
+				}
+				remainingBytes -= byteCount;
+
+				if (isCancelled()) return;
+				loadedTiles.add(tileManager.tileCache.loadTilesFor(tileIDs, res));
+			}
+		}
+
+		private HashSet<Integer> getTileIDsFor(String mapName) {
+			HashSet<Integer> result;
+			synchronized (tileIDsPerMap) {
+				result = tileIDsPerMap.get(mapName);
+			}
+			if (result != null) return result;
+
+			// Read without holding the lock. Two tasks may both read the same map, which gives the same tile ids.
+			PredefinedMap adjacentMap = world.maps.findPredefinedMap(mapName);
+			if (adjacentMap == null) return null;
+			LayeredTileMap adjacentMapTiles = TMXMapTranslator.readLayeredTileMap(res, tileManager.tileCache, adjacentMap);
+			result = tileManager.getTileIDsFor(adjacentMap, adjacentMapTiles, world);
+			synchronized (tileIDsPerMap) {
+				tileIDsPerMap.put(mapName, result);
+			}
+			return result;
+		}
+	}
+
+	// Returns the names of the maps that can be entered from the map, nearest first.
+	private static ArrayList<String> rankAdjacentMaps(PredefinedMap map, LayeredTileMap tileMap, Coord playerPosition) {
+		final int[] distances = calculateWalkingDistances(map, tileMap, playerPosition);
+
+		final HashMap<String, Integer> distancePerMap = new HashMap<String, Integer>();
+		for (MapObject o : map.eventObjects) {
+			if (o.type != MapObject.MapObjectType.newmap) continue;
+			if (o.map == null) continue;
+			int distance = getWalkingDistanceTo(o.position, map, distances, playerPosition);
+			if (!o.isActive) distance += UNREACHABLE_DISTANCE_PENALTY;
+			final Integer previous = distancePerMap.get(o.map);
+			if (previous == null || distance < previous) distancePerMap.put(o.map, distance);
+		}
+
+		final ArrayList<String> result = new ArrayList<String>(distancePerMap.keySet());
+		Collections.sort(result, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				return distancePerMap.get(a).compareTo(distancePerMap.get(b));
+			}
+		});
+		return result;
+	}
+
+	// Breadth-first search over the walkable tiles from the player position, in the eight directions that the player can
+	// walk. Tiles that cannot be reached have distance -1.
+	private static int[] calculateWalkingDistances(PredefinedMap map, LayeredTileMap tileMap, Coord playerPosition) {
+		final int width = map.size.width;
+		final int height = map.size.height;
+		final int[] distances = new int[width * height];
+		for (int i = 0; i < distances.length; ++i) distances[i] = -1;
+		if (tileMap.isOutside(playerPosition)) return distances;
+
+		final int[] queue = new int[width * height];
+		int head = 0;
+		int tail = 0;
+		final int start = playerPosition.y * width + playerPosition.x;
+		distances[start] = 0;
+		queue[tail++] = start;
+		while (head < tail) {
+			final int i = queue[head++];
+			final int x = i % width;
+			final int y = i / width;
+			for (int dy = -1; dy <= 1; ++dy) {
+				for (int dx = -1; dx <= 1; ++dx) {
+					final int nx = x + dx;
+					final int ny = y + dy;
+					if (!tileMap.isWalkable(nx, ny)) continue;
+					final int n = ny * width + nx;
+					if (distances[n] != -1) continue;
+					distances[n] = distances[i] + 1;
+					queue[tail++] = n;
+				}
+			}
+		}
+		return distances;
+	}
+
+	private static int getWalkingDistanceTo(CoordRect area, PredefinedMap map, int[] distances, Coord playerPosition) {
+		int result = -1;
+		for (int y = area.topLeft.y; y < area.topLeft.y + area.size.height; ++y) {
+			for (int x = area.topLeft.x; x < area.topLeft.x + area.size.width; ++x) {
+				if (x < 0 || y < 0 || x >= map.size.width || y >= map.size.height) continue;
+				final int distance = distances[y * map.size.width + x];
+				if (distance == -1) continue;
+				if (result == -1 || distance < result) result = distance;
+			}
+		}
+		if (result != -1) return result;
+		final int dx = Math.abs(area.topLeft.x - playerPosition.x);
+		final int dy = Math.abs(area.topLeft.y - playerPosition.y);
+		return UNREACHABLE_DISTANCE_PENALTY + Math.max(dx, dy);
+	}
+}
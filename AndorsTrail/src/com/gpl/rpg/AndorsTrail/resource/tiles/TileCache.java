@@ -1,24 +1,53 @@
 package com.gpl.rpg.AndorsTrail.resource.tiles;
 
+import android.content.ComponentCallbacks2;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.util.SparseArray;
 import android.util.SparseIntArray;
+import com.gpl.rpg.AndorsTrail.AndorsTrailApplication;
+import com.gpl.rpg.AndorsTrail.util.L;
 import com.gpl.rpg.AndorsTrail.util.LruCache;
 
-import java.lang.ref.Reference;
-import java.lang.ref.ReferenceQueue;
-import java.lang.ref.WeakReference;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map.Entry;
 
 public final class TileCache {
 
-	private final ReferenceQueue<Bitmap> gcQueue = new ReferenceQueue<Bitmap>();
 	private ResourceFileTile[] resourceTiles = new ResourceFileTile[1];
 	private final HashMap<String, SparseIntArray> tileIDsPerTilesetAndLocalID = new HashMap<String, SparseIntArray>();
-	private final LruCache<Integer, Bitmap> cache = new LruCache<Integer, Bitmap>(1000);
+	// Keyed by the resource id of the tileset, and weighed by the size in bytes of the atlas bitmap and its scaled
+	// variant. Each entry holds one reference to its atlas, which is released when the entry is removed.
+	private final LruCache<Integer, CachedAtlas> atlases = new LruCache<Integer, CachedAtlas>(getCacheSizeInBytes()) {
+		@Override
+		protected int sizeOf(Integer key, CachedAtlas value) {
+			return value.byteCount;
+		}
+		@Override
+		protected void entryRemoved(boolean evicted, Integer key, CachedAtlas oldValue, CachedAtlas newValue) {
+			oldValue.atlas.release();
+		}
+	};
+
+	// The weight of an entry may not change while it is in the cache, so the byte count is fixed when the entry is
+	// created. When a scaled variant is created for a cached atlas, the entry is replaced, see updateByteCount().
+	private static final class CachedAtlas {
+		public final TilesetAtlas atlas;
+		public final int byteCount;
+		public CachedAtlas(TilesetAtlas atlas) {
+			this.atlas = atlas;
+			this.byteCount = atlas.getByteCountWithScaledVariant();
+		}
+	}
+
+	// The heap limit of the VM is the memory class of the device (or the large memory class). Tiles are most of what
+	// the game keeps in memory, so the cache may use a quarter of that. The atlases of the current map are also
+	// referenced by its TileCollection, so they stay loaded even if they are evicted from the cache.
+	private static int getCacheSizeInBytes() {
+		return (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 4);
+	}
 
 	public int getMaxTileID() { return resourceTiles.length-1; }
 	public void allocateMaxTileID(int maxTileID) {
@@ -51,13 +80,24 @@ public final class TileCache {
 		}
 	}
 
-	private void cleanQueue() {
-		System.gc();
-		Reference<? extends Bitmap> ref;
-		while ((ref = gcQueue.poll()) != null) {
-			Bitmap b = ref.get();
-			if (b != null) b.recycle();
-		}
+	// Returns an atlas that the caller owns one reference to.
+	private TilesetAtlas acquireAtlas(ResourceFileTileset tileset, Resources r) {
+		final CachedAtlas cached = atlases.get(tileset.resourceID);
+		// The atlas may be evicted and released by another thread between the lookup and acquiring it.
+		if (cached != null && cached.atlas.tryAcquire()) return cached.atlas;
+
+		final TilesetAtlas atlas = TileCutter.createAtlas(tileset, r);
+		if (atlas.tryAcquire()) atlases.put(tileset.resourceID, new CachedAtlas(atlas));
+		return atlas;
+	}
+
+	// Weighs the cache entry of the atlas again, after a scaled variant has been created for it.
+	public void updateByteCount(TilesetAtlas atlas) {
+		final CachedAtlas cached = atlases.get(atlas.tileset.resourceID);
+		if (cached == null || cached.atlas != atlas) return;
+		if (cached.byteCount == atlas.getByteCountWithScaledVariant()) return;
+		// The new entry holds a reference of its own, and the reference of the replaced entry is released.
+		if (atlas.tryAcquire()) atlases.put(atlas.tileset.resourceID, new CachedAtlas(atlas));
 	}
 
 	public TileCollection loadTilesFor(Collection<Integer> iconIDs, Resources r) { return loadTilesFor(iconIDs, r, null); }
@@ -75,48 +115,60 @@ public final class TileCache {
 			maxTileID = Math.max(maxTileID, tileID);
 		}
 
-		boolean hasLoadedTiles = false;
+		final int missCount = atlases.missCount();
 		if (result == null) result = new TileCollection(maxTileID);
 		for(Entry<ResourceFileTileset, SparseArray<ResourceFileTile>> e : tilesToLoadPerSourceFile.entrySet()) {
-			TileCutter cutter = null;
+			final TilesetAtlas atlas = acquireAtlas(e.getKey(), r);
+			result.addAtlas(atlas);
 
 			SparseArray<ResourceFileTile> tilesToLoad = e.getValue();
 			for (int i = 0; i < tilesToLoad.size(); ++i) {
-				int tileID = tilesToLoad.keyAt(i);
-				ResourceFileTile tile = tilesToLoad.valueAt(i);
-
-				Bitmap bitmap = cache.get(tileID);
-
-				if (bitmap == null) {
-					if (cutter == null) {
-						if (!hasLoadedTiles) cleanQueue();
-						cutter = new TileCutter(e.getKey(), r);
-						hasLoadedTiles = true;
-					}
-
-					bitmap = cutter.createTile(tile.localID);
-					cache.put(tileID, bitmap);
-					new WeakReference<Bitmap>(bitmap, gcQueue);
-				}
-				result.setBitmap(tileID, bitmap);
+				result.setTile(tilesToLoad.keyAt(i), atlas, tilesToLoad.valueAt(i).localID);
 			}
+		}
+		if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) {
+			if (atlases.missCount() != missCount) L.log("TileCache: " + atlases.toString());
+		}
+		return result;
+	}
 
-			if (cutter != null) cutter.recycle();
+	public void onTrimMemory(int level) {
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+			atlases.evictAll();
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+			atlases.trimToSize(atlases.maxSize() / 2);
+		} else {
+			return;
+		}
+		if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) {
+			L.log("TileCache: Trimmed for memory level " + level + ". " + atlases.toString());
+		}
+	}
+
+	public int getMaxByteCount() {
+		return atlases.maxSize();
+	}
+
+	// The size in bytes of the atlases that the tiles are drawn from, not counting the tilesets that are already in
+	// countedTilesets. The tilesets of the tiles are added to countedTilesets.
+	public int getAtlasByteCount(Collection<Integer> tileIDs, HashSet<ResourceFileTileset> countedTilesets) {
+		int result = 0;
+		for (int tileID : tileIDs) {
+			final ResourceFileTileset tileset = resourceTiles[tileID].tileset;
+			if (!countedTilesets.add(tileset)) continue;
+			result += tileset.numTiles.width * tileset.numTiles.height
+				* tileset.destinationTileSize.width * tileset.destinationTileSize.height * 4;
 		}
-		if (hasLoadedTiles) cleanQueue();
 		return result;
 	}
 
 	public Bitmap loadSingleTile(int tileID, Resources r) {
-		cleanQueue();
 		ResourceFileTile tile = resourceTiles[tileID];
-		Bitmap bitmap = cache.get(tileID);
-		if (bitmap != null) return bitmap;
-
-		TileCutter cutter = new TileCutter(tile.tileset, r);
-		Bitmap result = cutter.createTile(tile.localID);
-		cutter.recycle();
-		cache.put(tileID, result);
-		return result;
+		TilesetAtlas atlas = acquireAtlas(tile.tileset, r);
+		try {
+			return atlas.createTile(atlas.getSourceRect(tile.localID));
+		} finally {
+			atlas.release();
+		}
 	}
 }
@@ -3,25 +3,117 @@ package com.gpl.rpg.AndorsTrail.resource.tiles;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.Rect;
 
+import java.util.ArrayList;
+
+// The tiles are drawn from the atlas of their tileset through a source rect. Separate bitmaps are only cut
+// for the tiles that are shown in views, see getBitmap().
+//
+// The collection is reference counted. Whoever loads a collection owns one reference, and anyone else who keeps using
+// it, such as a view that draws it or a background task, acquires its own reference. When the last reference is
+// released, the collection releases its atlases, and drawing from it does nothing.
 public final class TileCollection {
+	private final TilesetAtlas[] atlases;
+	private final Rect[] sourceRects;
+	private final int[] localIDs;
 	private final Bitmap[] bitmaps;
+	private final ArrayList<TilesetAtlas> ownedAtlases = new ArrayList<TilesetAtlas>();
+	private int refCount = 1;
 	public final int maxTileID;
 
 	public TileCollection(int maxTileID) {
+		this.atlases = new TilesetAtlas[maxTileID+1];
+		this.sourceRects = new Rect[maxTileID+1];
+		this.localIDs = new int[maxTileID+1];
 		this.bitmaps = new Bitmap[maxTileID+1];
 		this.maxTileID = maxTileID;
 	}
 
+	// Returns false if the collection has already been released, in which case it draws nothing.
+	public synchronized boolean tryAcquire() {
+		if (refCount <= 0) return false;
+		++refCount;
+		return true;
+	}
+
+	public synchronized void release() {
+		if (refCount <= 0) return;
+		--refCount;
+		if (refCount > 0) return;
+		for (TilesetAtlas atlas : ownedAtlases) atlas.release();
+		ownedAtlases.clear();
+		for (int i = 0; i <= maxTileID; ++i) {
+			atlases[i] = null;
+			sourceRects[i] = null;
+			bitmaps[i] = null;
+		}
+	}
+
 	public Bitmap getBitmap(int tileID) {
-		return bitmaps[tileID];
+		Bitmap result = bitmaps[tileID];
+		if (result == null) {
+			final TilesetAtlas atlas = atlases[tileID];
+			if (atlas == null) return null;
+			result = atlas.createTile(sourceRects[tileID]);
+			bitmaps[tileID] = result;
+		}
+		return result;
+	}
+
+	// Takes over a reference to the atlas, which is released with the collection.
+	synchronized void addAtlas(TilesetAtlas atlas) {
+		if (ownedAtlases.contains(atlas)) {
+			atlas.release();
+		} else {
+			ownedAtlases.add(atlas);
+		}
+	}
+
+	// The atlas must have been added with addAtlas().
+	void setTile(int tileID, TilesetAtlas atlas, int localID) {
+		atlases[tileID] = atlas;
+		sourceRects[tileID] = atlas.getSourceRect(localID);
+		localIDs[tileID] = localID;
+		bitmaps[tileID] = null;
+	}
+
+	public void copyTile(int tileID, TileCollection source) {
+		final TilesetAtlas atlas = source.atlases[tileID];
+		if (atlas == null || !atlas.tryAcquire()) return;
+		addAtlas(atlas);
+		atlases[tileID] = atlas;
+		sourceRects[tileID] = source.sourceRects[tileID];
+		localIDs[tileID] = source.localIDs[tileID];
+		bitmaps[tileID] = source.bitmaps[tileID];
+	}
+
+	// destRect is only used as scratch space, so that drawing does not allocate. Each thread that draws passes its own.
+	public void drawTile(Canvas canvas, int tile, int px, int py, Paint mPaint, Rect destRect) {
+		final TilesetAtlas atlas = atlases[tile];
+		final Rect src = sourceRects[tile];
+		if (atlas == null || src == null) return;
+		destRect.set(px, py, px + src.width(), py + src.height());
+		canvas.drawBitmap(atlas.image, src, destRect, mPaint);
 	}
 
-	public void setBitmap(int tileID, Bitmap bitmap) {
-		bitmaps[tileID] = bitmap;
+	// Draws the tile from the variant of its atlas that has been pre-scaled to the given scale, without scaling it.
+	public void drawScaledTile(Canvas canvas, int tile, int px, int py, float scale, Paint mPaint, Rect destRect) {
+		final TilesetAtlas atlas = atlases[tile];
+		if (atlas == null) return;
+		final TilesetAtlas scaledAtlas = atlas.getScaledVariant(scale);
+		if (scaledAtlas == null) return;
+		final Rect src = scaledAtlas.getSourceRect(localIDs[tile]);
+		destRect.set(px, py, px + src.width(), py + src.height());
+		canvas.drawBitmap(scaledAtlas.image, src, destRect, mPaint);
 	}
 
-	public void drawTile(Canvas canvas, int tile, int px, int py, Paint mPaint) {
-		canvas.drawBitmap(bitmaps[tile], px, py, mPaint);
+	// Resamples the atlases of the collection to the given scale ahead of time, so that the first frame that draws
+	// them does not have to. The scaled variants are counted in the size of the cache.
+	public synchronized void prepareScaledTiles(float scale, TileCache cache) {
+		for (TilesetAtlas atlas : ownedAtlases) {
+			atlas.getScaledVariant(scale);
+			cache.updateByteCount(atlas);
+		}
 	}
 }
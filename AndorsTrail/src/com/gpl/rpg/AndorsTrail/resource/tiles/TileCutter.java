@@ -4,18 +4,23 @@ import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.BitmapFactory.Options;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import com.gpl.rpg.AndorsTrail.util.Size;
 
 public final class TileCutter {
-	private final ResourceFileTileset sourceFile;
-	private final Bitmap tilesetImage;
-	private boolean recycle = true;
 
-	public TileCutter(ResourceFileTileset sourceFile, Resources r) {
-		this.sourceFile = sourceFile;
-		this.tilesetImage = createTilesetImage(r);
+	public static TilesetAtlas createAtlas(ResourceFileTileset sourceFile, Resources r) {
+		final Bitmap tilesetImage = createTilesetImage(sourceFile, r);
+		if (sourceFile.scale == null) return new TilesetAtlas(sourceFile, tilesetImage);
+
+		final Bitmap scaledImage = scaleTiles(tilesetImage, sourceFile.numTiles, sourceFile.sourceTileSize, sourceFile.destinationTileSize);
+		tilesetImage.recycle();
+		return new TilesetAtlas(sourceFile, scaledImage);
 	}
 
-	private Bitmap createTilesetImage(Resources r) {
+	private static Bitmap createTilesetImage(ResourceFileTileset sourceFile, Resources r) {
 		//return BitmapFactory.decodeResource(r, b.resourceId);
 		Options o = new Options();
 		o.inScaled = false;
@@ -25,22 +30,30 @@ public final class TileCutter {
 		return sourceImage;
 	}
 
-	public Bitmap createTile(int localID) {
-		final int x = localID % sourceFile.numTiles.width;
-		final int y = (localID - x) / sourceFile.numTiles.width;
-		final int left = x * sourceFile.sourceTileSize.width;
-		final int top = y * sourceFile.sourceTileSize.height;
-		Bitmap result;
-		if (sourceFile.scale != null) {
-			result = Bitmap.createBitmap(tilesetImage, left, top, sourceFile.sourceTileSize.width, sourceFile.sourceTileSize.height, sourceFile.scale, true);
-		} else {
-			result = Bitmap.createBitmap(tilesetImage, left, top, sourceFile.sourceTileSize.width, sourceFile.sourceTileSize.height);
+	// Each tile is scaled on its own, so that filtering does not bleed the edges of neighbouring tiles into it.
+	static Bitmap scaleTiles(Bitmap tilesetImage, Size numTiles, Size sourceTileSize, Size destinationTileSize) {
+		final int tileWidth = destinationTileSize.width;
+		final int tileHeight = destinationTileSize.height;
+		final Bitmap.Config config = tilesetImage.getConfig() != null ? tilesetImage.getConfig() : Bitmap.Config.ARGB_8888;
+		final Bitmap result = Bitmap.createBitmap(numTiles.width * tileWidth, numTiles.height * tileHeight, config);
+		result.setDensity(Bitmap.DENSITY_NONE);
+
+		final Canvas canvas = new Canvas(result);
+		final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+		final Rect src = new Rect();
+		final Rect dst = new Rect();
+		for (int y = 0; y < numTiles.height; ++y) {
+			for (int x = 0; x < numTiles.width; ++x) {
+				src.set(
+					x * sourceTileSize.width
+					,y * sourceTileSize.height
+					,(x + 1) * sourceTileSize.width
+					,(y + 1) * sourceTileSize.height
+				);
+				dst.set(x * tileWidth, y * tileHeight, (x + 1) * tileWidth, (y + 1) * tileHeight);
+				canvas.drawBitmap(tilesetImage, src, dst, paint);
+			}
 		}
-		if (result == tilesetImage) recycle = false;
 		return result;
 	}
-
-	public void recycle() {
-		if (recycle) tilesetImage.recycle();
-	}
 }
@@ -1,11 +1,11 @@
 package com.gpl.rpg.AndorsTrail.resource.tiles;
 
+import android.content.ComponentCallbacks2;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.LayerDrawable;
-import android.os.AsyncTask;
 import android.widget.ImageView;
 import android.widget.TextView;
 import com.gpl.rpg.AndorsTrail.AndorsTrailApplication;
@@ -19,9 +19,9 @@ import com.gpl.rpg.AndorsTrail.model.item.ItemContainer;
 import com.gpl.rpg.AndorsTrail.model.item.ItemContainer.ItemEntry;
 import com.gpl.rpg.AndorsTrail.model.item.ItemType;
 import com.gpl.rpg.AndorsTrail.model.map.*;
+import com.gpl.rpg.AndorsTrail.util.Coord;
 import com.gpl.rpg.AndorsTrail.util.L;
 
-import java.util.HashMap;
 import java.util.HashSet;
 
 public final class TileManager {
@@ -59,7 +59,7 @@ public final class TileManager {
 	public final TileCache tileCache = new TileCache();
 	public final TileCollection preloadedTiles = new TileCollection(97);
 	public TileCollection currentMapTiles;
-	public TileCollection adjacentMapTiles;
+	private final AdjacentMapPrefetcher adjacentMapPrefetcher = new AdjacentMapPrefetcher(this);
 	private final HashSet<Integer> preloadedTileIDs = new HashSet<Integer>();
 
 
@@ -92,8 +92,9 @@ public final class TileManager {
 		HashSet<Integer> iconIDs = getTileIDsFor(map, tileMap, world);
 		TileCollection result = tileCache.loadTilesFor(iconIDs, r);
 		for(int i : preloadedTileIDs) {
-			result.setBitmap(i, preloadedTiles.getBitmap(i));
+			result.copyTile(i, preloadedTiles);
 		}
+		result.prepareScaledTiles(scale, tileCache);
 		return result;
 	}
 
@@ -119,6 +120,23 @@ public final class TileManager {
 		tileSize = (int) (32 * density);
 	}
 
+	public void onTrimMemory(int level) {
+		// The tiles of the adjacent maps are only preloaded, and are loaded again when they are needed.
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+				|| level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+				|| level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+			adjacentMapPrefetcher.cancelAndRelease();
+		}
+		tileCache.onTrimMemory(level);
+	}
+
+	// Takes over the reference to the tiles, and releases the tiles of the previous map.
+	public void setCurrentMapTiles(TileCollection tiles) {
+		final TileCollection previous = currentMapTiles;
+		currentMapTiles = tiles;
+		if (previous != null) previous.release();
+	}
+
 	public void updatePreferences(AndorsTrailPreferences prefs) {
 		scale = prefs.scalingFactor;
 		viewTileSize = (int) (tileSize * prefs.scalingFactor);
@@ -195,39 +213,7 @@ public final class TileManager {
 		tileCache.loadTilesFor(preloadedTileIDs, r, preloadedTiles);
 	}
 
-	private final HashMap<String, HashSet<Integer>> tileIDsPerMap = new HashMap<String, HashSet<Integer>>();
-	private void addTileIDsFor(HashSet<Integer> dest, String mapName, final Resources res, final WorldContext world) {
-		HashSet<Integer> cachedTileIDs = tileIDsPerMap.get(mapName);
-		if (cachedTileIDs == null) {
-			PredefinedMap adjacentMap = world.maps.findPredefinedMap(mapName);
-			if (adjacentMap == null) return;
-			LayeredTileMap adjacentMapTiles = TMXMapTranslator.readLayeredTileMap(res, tileCache, adjacentMap);
-			cachedTileIDs = getTileIDsFor(adjacentMap, adjacentMapTiles, world);
-			tileIDsPerMap.put(mapName, cachedTileIDs);
-		}
-		dest.addAll(cachedTileIDs);
-	}
-	public void cacheAdjacentMaps(final Resources res, final WorldContext world, final PredefinedMap nextMap) {
-		(new AsyncTask<Void, Void, Void>() {
-			@Override
-			protected Void doInBackground(Void... arg0) {
-				adjacentMapTiles = null;
-
-				HashSet<String> adjacentMapNames = new HashSet<String>();
-				for (MapObject o : nextMap.eventObjects) {
-					if (o.type != MapObject.MapObjectType.newmap) continue;
-					if (o.map == null) continue;
-					adjacentMapNames.add(o.map);
-				}
-
-				HashSet<Integer> tileIDs = new HashSet<Integer>();
-				for (String mapName : adjacentMapNames) {
-					addTileIDsFor(tileIDs, mapName, res, world);
-				}
-
-				adjacentMapTiles = tileCache.loadTilesFor(tileIDs, res);
-				return null;
-			}
-		}).execute();
+	public void prefetchAdjacentMaps(final Resources res, final WorldContext world, final PredefinedMap map, final LayeredTileMap tileMap, final Coord playerPosition) {
+		adjacentMapPrefetcher.prefetch(res, world, map, tileMap, playerPosition);
 	}
 }
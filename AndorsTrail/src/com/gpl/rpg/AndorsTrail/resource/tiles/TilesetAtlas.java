@@ -0,0 +1,97 @@
+package com.gpl.rpg.AndorsTrail.resource.tiles;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import com.gpl.rpg.AndorsTrail.util.Size;
+
+// One decoded tileset image, already scaled to the destination tile size. Tiles are drawn directly from the atlas
+// through their source rect, instead of being cut into one bitmap per tile.
+//
+// The atlas is reference counted. The TileCache holds one reference while the atlas is cached, and each TileCollection
+// that draws from the atlas holds one. The image is recycled as soon as the last reference is released.
+//
+// The MainView draws from a variant of the atlas that is pre-scaled to the view scale, see getScaledVariant(). The
+// variant belongs to the atlas, and is recycled with it.
+public final class TilesetAtlas {
+	public final ResourceFileTileset tileset;
+	public final Bitmap image;
+	private final Size tileSize;
+	private final Rect[] sourceRects;
+	private final int byteCount;
+	private int refCount = 1; // Owned by whoever created the atlas.
+	private TilesetAtlas scaledVariant;
+	private float scaledVariantScale;
+
+	public TilesetAtlas(ResourceFileTileset tileset, Bitmap image) {
+		this(tileset, image, tileset.destinationTileSize);
+	}
+
+	private TilesetAtlas(ResourceFileTileset tileset, Bitmap image, Size tileSize) {
+		this.tileset = tileset;
+		this.image = image;
+		this.tileSize = tileSize;
+		this.sourceRects = new Rect[tileset.numTiles.width * tileset.numTiles.height];
+		this.byteCount = image.getRowBytes() * image.getHeight();
+	}
+
+	// Returns false if the atlas has already been recycled, in which case it may not be used.
+	public synchronized boolean tryAcquire() {
+		if (refCount <= 0) return false;
+		++refCount;
+		return true;
+	}
+
+	public synchronized void release() {
+		if (refCount <= 0) return;
+		--refCount;
+		if (refCount > 0) return;
+		image.recycle();
+		if (scaledVariant != null && scaledVariant != this) scaledVariant.image.recycle();
+		scaledVariant = null;
+	}
+
+	// Returns the atlas with every tile resampled once to the given scale, so that the tiles can be drawn without
+	// scaling them on every frame. Returns null if the atlas has already been recycled.
+	//
+	// When the scale changes, the previous variant is not recycled here, since the render thread may still be drawing
+	// the last frame from it. It is left to the garbage collector.
+	public synchronized TilesetAtlas getScaledVariant(float scale) {
+		if (refCount <= 0) return null;
+		if (scaledVariant != null && scaledVariantScale == scale) return scaledVariant;
+
+		final Size scaledTileSize = new Size((int) (tileSize.width * scale), (int) (tileSize.height * scale));
+		if (scaledTileSize.width == tileSize.width && scaledTileSize.height == tileSize.height) {
+			scaledVariant = this;
+		} else {
+			final Bitmap scaledImage = TileCutter.scaleTiles(image, tileset.numTiles, tileSize, scaledTileSize);
+			scaledVariant = new TilesetAtlas(tileset, scaledImage, scaledTileSize);
+		}
+		scaledVariantScale = scale;
+		return scaledVariant;
+	}
+
+	public synchronized int getByteCountWithScaledVariant() {
+		if (scaledVariant == null || scaledVariant == this) return byteCount;
+		return byteCount + scaledVariant.byteCount;
+	}
+
+	public Rect getSourceRect(int localID) {
+		Rect result = sourceRects[localID];
+		if (result == null) {
+			final int x = localID % tileset.numTiles.width;
+			final int y = localID / tileset.numTiles.width;
+			final int width = tileSize.width;
+			final int height = tileSize.height;
+			result = new Rect(x * width, y * height, (x + 1) * width, (y + 1) * height);
+			sourceRects[localID] = result;
+		}
+		return result;
+	}
+
+	// The tile is a copy, which stays valid after the atlas has been recycled.
+	public Bitmap createTile(Rect r) {
+		final Bitmap result = Bitmap.createBitmap(image, r.left, r.top, r.width(), r.height());
+		if (result != image) return result;
+		return image.copy(image.getConfig() != null ? image.getConfig() : Bitmap.Config.ARGB_8888, false);
+	}
+}
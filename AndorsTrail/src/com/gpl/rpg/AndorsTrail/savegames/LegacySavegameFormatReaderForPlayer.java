@@ -117,7 +117,7 @@ public final class LegacySavegameFormatReaderForPlayer {
 		PredefinedMap map = world.maps.findPredefinedMap(mapName);
 		for (MonsterSpawnArea area : map.spawnAreas) {
 			if (!area.monsterTypeSpawnGroup.equals(monsterTypeSpawnGroup)) continue;
-			controllers.monsterSpawnController.deactivateSpawnArea(area, true);
+			controllers.monsterSpawnController.deactivateSpawnArea(map, area, true);
 		}
 	}
 
@@ -4,11 +4,17 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.os.Environment;
 import com.gpl.rpg.AndorsTrail.AndorsTrailApplication;
+import com.gpl.rpg.AndorsTrail.AndorsTrailPreferences;
 import com.gpl.rpg.AndorsTrail.context.ControllerContext;
 import com.gpl.rpg.AndorsTrail.context.WorldContext;
 import com.gpl.rpg.AndorsTrail.controller.Constants;
+import com.gpl.rpg.AndorsTrail.controller.WorldMapController;
 import com.gpl.rpg.AndorsTrail.model.ModelContainer;
+import com.gpl.rpg.AndorsTrail.util.FrameStatistics;
 import com.gpl.rpg.AndorsTrail.util.L;
+import com.gpl.rpg.AndorsTrail.util.Tracing;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import java.io.*;
 import java.util.ArrayList;
@@ -38,6 +44,10 @@ public final class Savegames {
 			FileOutputStream fos = getOutputFile(androidContext, slot);
 			fos.write(savegame);
 			fos.close();
+			WorldMapController.writePendingWorldMapImages();
+			final AndorsTrailPreferences preferences = AndorsTrailApplication.getApplicationFromActivityContext(androidContext).getPreferences();
+			if (shouldWriteTraceReport(preferences)) writeTraceReport();
+			if (preferences.showFrameStatistics) writeFrameStatisticsReport();
 			return true;
 		} catch (IOException e) {
 			L.log("Error saving world: " + e.toString());
@@ -45,6 +55,7 @@ public final class Savegames {
 		}
 	}
 	public static LoadSavegameResult loadWorld(WorldContext world, ControllerContext controllers, Context androidContext, int slot) {
+		final Tracing.Span span = Tracing.begin("Savegames.loadWorld");
 		try {
 			FileInputStream fos = getInputFile(androidContext, slot);
 			LoadSavegameResult result = loadWorld(androidContext.getResources(), world, controllers, fos);
@@ -59,6 +70,51 @@ public final class Savegames {
 				L.log("Load error: " + sw.toString());
 			}
 			return LoadSavegameResult.unknownError;
+		} finally {
+			span.end();
+		}
+	}
+
+	// The trace can be exported on user devices by turning on the frame times in the preferences.
+	public static boolean shouldWriteTraceReport(AndorsTrailPreferences preferences) {
+		return AndorsTrailApplication.DEVELOPMENT_WRITE_TRACE_REPORTS || preferences.showFrameStatistics;
+	}
+
+	// Exports the recorded trace spans next to the savegames.
+	public static boolean writeTraceReport() {
+		try {
+			return writeReport(Constants.FILENAME_TRACE_REPORT, Tracing.createReport());
+		} catch (JSONException e) {
+			L.log("ERROR: Creating trace report failed. " + e.toString());
+			return false;
+		}
+	}
+
+	// Exports the frame times of the MainView next to the savegames.
+	public static boolean writeFrameStatisticsReport() {
+		try {
+			return writeReport(Constants.FILENAME_FRAME_STATISTICS_REPORT, FrameStatistics.createReport());
+		} catch (JSONException e) {
+			L.log("ERROR: Creating frame statistics report failed. " + e.toString());
+			return false;
+		}
+	}
+
+	private static boolean writeReport(String fileName, JSONObject report) {
+		if (!Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())) return false;
+		ensureSavegameDirectoryExists();
+		final File file = new File(getSavegameDirectory(), fileName);
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+			try {
+				writer.write(report.toString());
+			} finally {
+				writer.close();
+			}
+			return true;
+		} catch (IOException e) {
+			L.log("ERROR: Writing report to " + file.getPath() + " failed. " + e.toString());
+			return false;
 		}
 	}
 
@@ -0,0 +1,90 @@
+package com.gpl.rpg.AndorsTrail.util;
+
+import com.gpl.rpg.AndorsTrail.AndorsTrailApplication;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// Records how long each frame of the MainView took to draw, how many draw calls it made and how many pixels it
+// redrew, over the last WINDOW_SIZE frames.
+//
+// The frame times are also kept in a histogram of BUCKET_WIDTH_US wide buckets, which is updated as frames enter and
+// leave the window, so that the percentiles can be read on every frame without sorting. Percentiles are reported as
+// the upper bound of their bucket. Frames that take longer than the last bucket are counted in the last bucket.
+//
+// Recording is always enabled, like Tracing. When the frame times are shown, the report is also written next to the
+// savegames, see Savegames.
+public final class FrameStatistics {
+	private static final int WINDOW_SIZE = 600;
+	private static final int BUCKET_WIDTH_US = 250;
+	private static final int NUM_BUCKETS = 200; // 50 ms
+
+	private static final int[] frameTimesUs = new int[WINDOW_SIZE];
+	private static final int[] drawCalls = new int[WINDOW_SIZE];
+	private static final int[] redrawPixels = new int[WINDOW_SIZE];
+	private static final int[] histogram = new int[NUM_BUCKETS];
+	private static int next = 0;
+	private static int count = 0;
+	private static long totalFrames = 0;
+
+	public static synchronized void record(long durationNs, int numDrawCalls, int numRedrawPixels) {
+		final int frameTimeUs = (int) Math.min(Integer.MAX_VALUE, durationNs / 1000);
+		if (count == WINDOW_SIZE) {
+			--histogram[getBucket(frameTimesUs[next])];
+		} else {
+			++count;
+		}
+		frameTimesUs[next] = frameTimeUs;
+		drawCalls[next] = numDrawCalls;
+		redrawPixels[next] = numRedrawPixels;
+		++histogram[getBucket(frameTimeUs)];
+		next = (next + 1) % WINDOW_SIZE;
+		++totalFrames;
+	}
+
+	private static int getBucket(int frameTimeUs) {
+		return Math.min(NUM_BUCKETS - 1, frameTimeUs / BUCKET_WIDTH_US);
+	}
+
+	// Returns the frame time in milliseconds that the given percentage of the frames in the window did not exceed.
+	public static synchronized float getPercentileMs(int percent) {
+		if (count == 0) return 0;
+		final int rank = (count * percent + 99) / 100;
+		int seen = 0;
+		for (int i = 0; i < NUM_BUCKETS; ++i) {
+			seen += histogram[i];
+			if (seen >= rank) return (i + 1) * BUCKET_WIDTH_US / 1000f;
+		}
+		return NUM_BUCKETS * BUCKET_WIDTH_US / 1000f;
+	}
+
+	public static synchronized JSONObject createReport() throws JSONException {
+		long sumFrameTimeUs = 0;
+		long sumDrawCalls = 0;
+		long sumRedrawPixels = 0;
+		for (int i = 0; i < count; ++i) {
+			sumFrameTimeUs += frameTimesUs[i];
+			sumDrawCalls += drawCalls[i];
+			sumRedrawPixels += redrawPixels[i];
+		}
+
+		JSONObject report = new JSONObject();
+		report.put("version", AndorsTrailApplication.CURRENT_VERSION_DISPLAY);
+		report.put("versionCode", AndorsTrailApplication.CURRENT_VERSION);
+		report.put("totalFrames", totalFrames);
+		report.put("frames", count);
+		if (count > 0) {
+			report.put("p50Ms", getPercentileMs(50));
+			report.put("p95Ms", getPercentileMs(95));
+			report.put("p99Ms", getPercentileMs(99));
+			report.put("meanMs", sumFrameTimeUs / 1000.0 / count);
+			report.put("meanDrawCalls", ((double) sumDrawCalls) / count);
+			report.put("meanRedrawPixels", ((double) sumRedrawPixels) / count);
+		}
+		report.put("bucketWidthUs", BUCKET_WIDTH_US);
+		JSONArray buckets = new JSONArray();
+		for (int i = 0; i < NUM_BUCKETS; ++i) buckets.put(histogram[i]);
+		report.put("histogram", buckets);
+		return report;
+	}
+}
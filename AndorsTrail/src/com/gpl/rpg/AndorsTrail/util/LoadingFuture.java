@@ -0,0 +1,89 @@
+package com.gpl.rpg.AndorsTrail.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import com.gpl.rpg.AndorsTrail.AndorsTrailApplication;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+// Guards content that is loaded by a background stage of the ResourceLoader, which may still be loading while the game
+// is running. Any access to the content has to call await() first, which blocks until the content has been loaded, and
+// throws if loading failed.
+//
+// The main thread should not block on await(). UI actions that need the content can be deferred with whenLoaded()
+// until the content has been loaded.
+public final class LoadingFuture {
+	private final String name;
+	private final CountDownLatch loaded = new CountDownLatch(1);
+	private final ArrayList<Runnable> callbacks = new ArrayList<Runnable>();
+	private volatile Throwable failure;
+
+	public LoadingFuture(String name) {
+		this.name = name;
+	}
+
+	// Also true if loading has failed.
+	public boolean isLoaded() {
+		return loaded.getCount() == 0;
+	}
+
+	public boolean hasFailed() {
+		return failure != null;
+	}
+
+	public void setLoaded() {
+		complete(null);
+	}
+
+	// Either this or setLoaded() must be called, so that nobody waits forever.
+	public void setFailed(Throwable cause) {
+		complete(cause);
+	}
+
+	private void complete(Throwable cause) {
+		final ArrayList<Runnable> pendingCallbacks;
+		synchronized (callbacks) {
+			if (isLoaded()) return;
+			failure = cause;
+			loaded.countDown();
+			pendingCallbacks = new ArrayList<Runnable>(callbacks);
+			callbacks.clear();
+		}
+		if (pendingCallbacks.isEmpty()) return;
+		final Handler handler = new Handler(Looper.getMainLooper());
+		for (Runnable callback : pendingCallbacks) handler.post(callback);
+	}
+
+	// Runs the callback on the main thread when loading has completed or failed. If that has already happened, the
+	// callback is run directly on the calling thread.
+	public void whenLoaded(Runnable callback) {
+		synchronized (callbacks) {
+			if (!isLoaded()) {
+				callbacks.add(callback);
+				return;
+			}
+		}
+		callback.run();
+	}
+
+	public void await() {
+		if (!isLoaded()) {
+			final long start = System.currentTimeMillis();
+			boolean interrupted = false;
+			while (true) {
+				try {
+					loaded.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) Thread.currentThread().interrupt();
+			if (AndorsTrailApplication.DEVELOPMENT_DEBUGMESSAGES) {
+				L.log("OPTIMIZE: Waited " + (System.currentTimeMillis() - start) + " ms on " + Thread.currentThread().getName() + " for " + name + " to be loaded.");
+			}
+		}
+		if (failure != null) throw new RuntimeException("Loading " + name + " failed.", failure);
+	}
+}
@@ -26,7 +26,7 @@ import java.util.Map;
  * framework's implementation. See the framework SDK documentation for a class
  * overview.
  */
-public final class LruCache<K, V> {
+public class LruCache<K, V> {
 	private final LinkedHashMap<K, V> map;
 
 	/** Size of this cache in units. Not necessarily the number of elements. */
@@ -136,10 +136,13 @@ public final class LruCache<K, V> {
 	}
 
 	/**
+	 * Remove the eldest entries until the total of remaining entries is at or
+	 * below the requested size.
+	 *
 	 * @param maxSize the maximum size of the cache before returning. May be -1
 	 *	 to evict even 0-sized elements.
 	 */
-	private void trimToSize(int maxSize) {
+	public void trimToSize(int maxSize) {
 		while (true) {
 			K key;
 			V value;
@@ -317,7 +320,7 @@ public final class LruCache<K, V> {
 	@Override public synchronized final String toString() {
 		int accesses = hitCount + missCount;
 		int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
-		return String.format("LruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
-				maxSize, hitCount, missCount, hitPercent);
+		return String.format("LruCache[size=%d,maxSize=%d,hits=%d,misses=%d,evictions=%d,hitRate=%d%%]",
+				size, maxSize, hitCount, missCount, evictionCount, hitPercent);
 	}
 }
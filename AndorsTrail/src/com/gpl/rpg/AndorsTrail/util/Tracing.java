@@ -0,0 +1,150 @@
+package com.gpl.rpg.AndorsTrail.util;
+
+import android.os.Debug;
+import com.gpl.rpg.AndorsTrail.AndorsTrailApplication;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+
+// Records nested spans of work with their wall time, thread and allocations, and exports them as a
+// Chrome trace event file (can be opened in chrome://tracing or ui.perfetto.dev).
+//
+// Usage:
+//   final Tracing.Span span = Tracing.begin("name");
+//   try { ... } finally { span.end(); }
+//
+// A span started on a thread becomes the parent of the spans that are started on the same thread until it ends.
+// Work that is handed over to another thread can pass the parent explicitly, see begin(String, Span). When a span ends,
+// the span that was current on its thread before it was started becomes current again, which is not necessarily its
+// parent.
+//
+// Recording is always enabled, and only the last MAX_SPANS finished spans are kept. The allocation counts are only
+// available while Debug alloc counting is enabled (DEVELOPMENT_TRACE_ALLOCATIONS), otherwise only the change in used
+// heap is recorded, which also includes allocations from other threads and garbage collections. The report is
+// written next to the savegames, see Savegames.shouldWriteTraceReport().
+public final class Tracing {
+	private static final int MAX_SPANS = 1000;
+
+	private static final long startTime = System.nanoTime();
+	private static final ThreadLocal<Span> currentSpan = new ThreadLocal<Span>();
+	private static final ArrayList<Span> finishedSpans = new ArrayList<Span>();
+	private static int nextSpanId = 1;
+	private static int numDroppedSpans = 0;
+
+	static {
+		if (AndorsTrailApplication.DEVELOPMENT_TRACE_ALLOCATIONS) Debug.startAllocCounting();
+	}
+
+	public static final class Span {
+		public final int id;
+		public final String name;
+		private final Span parent;
+		private final Span previous; // The current span of this thread when this span was started.
+		private final String threadName;
+		private final long threadId;
+		private final long start;
+		private final int startAllocCount;
+		private final int startAllocSize;
+		private final long startUsedHeap;
+		private long duration = -1;
+		private int allocCount;
+		private int allocSize;
+		private long usedHeapDelta;
+
+		private Span(int id, String name, Span parent, Span previous) {
+			final Thread thread = Thread.currentThread();
+			this.id = id;
+			this.name = name;
+			this.parent = parent;
+			this.previous = previous;
+			this.threadName = thread.getName();
+			this.threadId = thread.getId();
+			this.startAllocCount = Debug.getThreadAllocCount();
+			this.startAllocSize = Debug.getThreadAllocSize();
+			this.startUsedHeap = getUsedHeap();
+			this.start = System.nanoTime();
+		}
+
+		public void end() {
+			if (duration >= 0) return;
+			duration = System.nanoTime() - start;
+			allocCount = Debug.getThreadAllocCount() - startAllocCount;
+			allocSize = Debug.getThreadAllocSize() - startAllocSize;
+			usedHeapDelta = getUsedHeap() - startUsedHeap;
+			if (currentSpan.get() == this) currentSpan.set(previous);
+			addFinishedSpan(this);
+		}
+
+		public long getDurationMs() {
+			return duration / 1000000;
+		}
+	}
+
+	public static Span begin(String name) {
+		return begin(name, currentSpan.get());
+	}
+
+	public static Span begin(String name, Span parent) {
+		final Span span = new Span(getNextSpanId(), name, parent, currentSpan.get());
+		currentSpan.set(span);
+		return span;
+	}
+
+	// The innermost span that has been started, but not ended, on this thread.
+	public static Span getCurrentSpan() {
+		return currentSpan.get();
+	}
+
+	private static synchronized int getNextSpanId() {
+		return nextSpanId++;
+	}
+
+	private static synchronized void addFinishedSpan(Span span) {
+		if (finishedSpans.size() >= MAX_SPANS) {
+			finishedSpans.remove(0);
+			++numDroppedSpans;
+		}
+		finishedSpans.add(span);
+	}
+
+	private static long getUsedHeap() {
+		final Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	public static synchronized JSONObject createReport() throws JSONException {
+		JSONArray events = new JSONArray();
+		for (Span span : finishedSpans) {
+			JSONObject args = new JSONObject();
+			args.put("id", span.id);
+			if (span.parent != null) args.put("parent", span.parent.id);
+			args.put("thread", span.threadName);
+			args.put("usedHeapDelta", span.usedHeapDelta);
+			if (AndorsTrailApplication.DEVELOPMENT_TRACE_ALLOCATIONS) {
+				args.put("allocCount", span.allocCount);
+				args.put("allocSize", span.allocSize);
+			}
+
+			JSONObject event = new JSONObject();
+			event.put("name", span.name);
+			event.put("ph", "X");
+			event.put("ts", (span.start - startTime) / 1000);
+			event.put("dur", span.duration / 1000);
+			event.put("pid", 0);
+			event.put("tid", span.threadId);
+			event.put("args", args);
+			events.put(event);
+		}
+		JSONObject report = new JSONObject();
+		report.put("traceEvents", events);
+		report.put("displayTimeUnit", "ms");
+		JSONObject metadata = new JSONObject();
+		metadata.put("version", AndorsTrailApplication.CURRENT_VERSION_DISPLAY);
+		metadata.put("versionCode", AndorsTrailApplication.CURRENT_VERSION);
+		metadata.put("droppedSpans", numDroppedSpans);
+		report.put("metadata", metadata);
+		return report;
+	}
+}
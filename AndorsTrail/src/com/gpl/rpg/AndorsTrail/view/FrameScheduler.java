@@ -0,0 +1,84 @@
+package com.gpl.rpg.AndorsTrail.view;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+// Runs a task on the main thread at the next display frame. Any number of calls to scheduleFrame() before that frame
+// run the task only once.
+//
+// Uses Choreographer frame callbacks where they are available (API 16). On older devices, the task is posted to the
+// main thread at most once per FALLBACK_FRAME_INTERVAL_MS.
+public abstract class FrameScheduler {
+	private static final long FALLBACK_FRAME_INTERVAL_MS = 16;
+
+	private final Runnable onFrame;
+	private boolean isScheduled = false;
+
+	private FrameScheduler(Runnable onFrame) {
+		this.onFrame = onFrame;
+	}
+
+	// Must be called on the main thread.
+	public static FrameScheduler create(Runnable onFrame) {
+		if (Build.VERSION.SDK_INT >= 16) return new ChoreographerFrameScheduler(onFrame);
+		return new HandlerFrameScheduler(onFrame);
+	}
+
+	public final synchronized void scheduleFrame() {
+		if (isScheduled) return;
+		isScheduled = true;
+		post();
+	}
+
+	protected final void runFrame() {
+		synchronized (this) {
+			isScheduled = false;
+		}
+		onFrame.run();
+	}
+
+	protected abstract void post();
+
+	private static final class ChoreographerFrameScheduler extends FrameScheduler {
+		private final Choreographer choreographer = Choreographer.getInstance();
+		private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+			@Override
+			public void doFrame(long frameTimeNanos) {
+				runFrame();
+			}
+		};
+
+		public ChoreographerFrameScheduler(Runnable onFrame) {
+			super(onFrame);
+		}
+
+		@Override
+		protected void post() {
+			choreographer.postFrameCallback(frameCallback);
+		}
+	}
+
+	private static final class HandlerFrameScheduler extends FrameScheduler {
+		private final Handler handler = new Handler(Looper.getMainLooper());
+		private long lastFrameTime = 0;
+		private final Runnable frameTask = new Runnable() {
+			@Override
+			public void run() {
+				lastFrameTime = SystemClock.uptimeMillis();
+				runFrame();
+			}
+		};
+
+		public HandlerFrameScheduler(Runnable onFrame) {
+			super(onFrame);
+		}
+
+		@Override
+		protected void post() {
+			handler.postAtTime(frameTask, Math.max(SystemClock.uptimeMillis(), lastFrameTime + FALLBACK_FRAME_INTERVAL_MS));
+		}
+	}
+}
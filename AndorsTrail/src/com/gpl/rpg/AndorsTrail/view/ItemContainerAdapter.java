@@ -18,9 +18,6 @@ public final class ItemContainerAdapter extends ArrayAdapter<ItemEntry> {
 	private final TileCollection tileCollection;
 	private final Player player;
 
-	public ItemContainerAdapter(Context context, TileManager tileManager, ItemContainer items, Player player) {
-		this(context, tileManager, items, player, tileManager.loadTilesFor(items, context.getResources()));
-	}
 	public ItemContainerAdapter(Context context, TileManager tileManager, ItemContainer items, Player player, TileCollection tileCollection) {
 		super(context, 0, items.items);
 		this.tileManager = tileManager;
@@ -1,10 +1,6 @@
 package com.gpl.rpg.AndorsTrail.view;
 
 import android.content.Context;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.Rect;
 import android.util.AttributeSet;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
@@ -22,7 +18,6 @@ import com.gpl.rpg.AndorsTrail.model.ModelContainer;
 import com.gpl.rpg.AndorsTrail.model.actor.Monster;
 import com.gpl.rpg.AndorsTrail.model.item.Loot;
 import com.gpl.rpg.AndorsTrail.model.map.LayeredTileMap;
-import com.gpl.rpg.AndorsTrail.model.map.MapLayer;
 import com.gpl.rpg.AndorsTrail.model.map.MonsterSpawnArea;
 import com.gpl.rpg.AndorsTrail.model.map.PredefinedMap;
 import com.gpl.rpg.AndorsTrail.resource.tiles.TileCollection;
@@ -31,6 +26,8 @@ import com.gpl.rpg.AndorsTrail.util.Coord;
 import com.gpl.rpg.AndorsTrail.util.CoordRect;
 import com.gpl.rpg.AndorsTrail.util.Size;
 
+import java.util.ArrayList;
+
 public final class MainView extends SurfaceView
 	implements SurfaceHolder.Callback,
 		PlayerMovementListener,
@@ -57,13 +54,14 @@ public final class MainView extends SurfaceView
 	private final AndorsTrailPreferences preferences;
 
 	private final SurfaceHolder holder;
-	private final Paint mPaint = new Paint();
+	private RenderThread renderThread;
 	private final CoordRect p1x1 = new CoordRect(new Coord(), new Size(1,1));
 	private boolean hasSurface = false;
 
 	private PredefinedMap currentMap;
 	private LayeredTileMap currentTileMap;
 	private TileCollection tiles;
+	private boolean hasTilesReference = false;
 	private final Coord playerPosition = new Coord();
 	private Size surfaceSize;
 	private boolean redrawNextTick = false;
@@ -110,7 +108,6 @@ public final class MainView extends SurfaceView
 		if (w <= 0 || h <= 0) return;
 
 		this.scale = world.tileManager.scale;
-		this.mPaint.setFilterBitmap(scale != 1);
 		this.scaledTileSize = world.tileManager.viewTileSize;
 		this.surfaceSize = new Size(w, h);
 		this.screenSizeTileCount = new Size(
@@ -128,11 +125,30 @@ public final class MainView extends SurfaceView
 	@Override
 	public void surfaceCreated(SurfaceHolder sh) {
 		hasSurface = true;
+		renderThread = new RenderThread(holder, tileSize, preferences.showFrameStatistics);
+		renderThread.start();
 	}
 
 	@Override
 	public void surfaceDestroyed(SurfaceHolder sh) {
 		hasSurface = false;
+		// The render thread may not touch the surface after this method returns.
+		renderThread.stopAndRelease();
+		renderThread = null;
+		// surfaceChanged() takes a new reference to the tiles of the current map when the surface is created again.
+		releaseTiles();
+	}
+
+	private void setTiles(TileCollection newTiles) {
+		final boolean acquired = newTiles.tryAcquire();
+		releaseTiles();
+		tiles = newTiles;
+		hasTilesReference = acquired;
+	}
+
+	private void releaseTiles() {
+		if (hasTilesReference) tiles.release();
+		hasTilesReference = false;
 	}
 
 	@Override
@@ -181,195 +197,183 @@ public final class MainView extends SurfaceView
 	private void redrawArea(final CoordRect area, RedrawAreaDebugReason why) {
 		redrawArea_(area, null, 0, 0);
 	}
+	// Redraw requests only add to the dirty area, which is drawn once per display frame by drawFrame().
 	private void redrawArea_(CoordRect area, final VisualEffectAnimation effect, int tileID, int textYOffset) {
 		if (!hasSurface) return;
 
 		if (currentMap.isOutside(area)) return;
 		if (!mapViewArea.intersects(area)) return;
 
-		calculateRedrawRect(area);
-		Canvas c = null;
-		try {
-			c = holder.lockCanvas(redrawRect);
-			// lockCanvas sometimes changes redrawRect, when the double-buffer has not been
-			// sufficiently filled beforehand. In those cases, we need to redraw the whole scene.
-			if (area != mapViewArea) {
-				if (isRedrawRectWholeScreen(redrawRect)) {
-					area = mapViewArea;
-				}
-			}
-			synchronized (holder) { synchronized (tiles) {
-				c.translate(screenOffset.x, screenOffset.y);
-				c.scale(scale, scale);
-				doDrawRect(c, area);
-				if (effect != null) {
-					drawFromMapPosition(c, area, effect.position, tileID);
-					if (effect.displayText != null) {
-						drawEffectText(c, area, effect, textYOffset, effect.textPaint);
-					}
-				}
-			} }
-		} finally {
-			if (c != null) holder.unlockCanvasAndPost(c);
+		addDirtyArea(area);
+		if (effect != null) setPendingEffectFrame(effect, tileID, textYOffset);
+		frameScheduler.scheduleFrame();
+	}
+
+	// The dirty area is the bounding box of all areas that have been requested since the last frame, in map coordinates.
+	private boolean hasDirtyArea = false;
+	private int dirtyLeft;
+	private int dirtyTop;
+	private int dirtyRight;
+	private int dirtyBottom;
+	private boolean clearCanvasNextFrame = false;
+	private final ArrayList<VisualEffectAnimation> pendingEffects = new ArrayList<VisualEffectAnimation>();
+	private final ArrayList<RenderSnapshot.EffectFrame> pendingEffectFrames = new ArrayList<RenderSnapshot.EffectFrame>();
+	private final FrameScheduler frameScheduler = FrameScheduler.create(new Runnable() {
+		@Override
+		public void run() {
+			drawFrame();
 		}
-	}
-
-	private boolean isRedrawRectWholeScreen(Rect redrawRect) {
-		if (redrawRect.width() < mapViewArea.size.width * scaledTileSize) return false;
-		if (redrawRect.height() < mapViewArea.size.height * scaledTileSize) return false;
-		return true;
-	}
-
-	private boolean shouldRedrawEverythingForVisualEffect() {
-		if (preferences.optimizedDrawing) return false;
-		if (model.uiSelections.isInCombat) return false; // Discard the "optimized drawing" setting while in combat.
-		return true;
-	}
-	private final Rect redrawRect = new Rect();
-	private void redrawAreaWithEffect(final VisualEffectAnimation effect, int tileID, int textYOffset) {
-		CoordRect area = effect.area;
-		if (shouldRedrawEverythingForVisualEffect()) area = mapViewArea;
-		redrawArea_(area, effect, tileID, textYOffset);
-	}
-	private void clearCanvas() {
-		if (!hasSurface) return;
-		Canvas c = null;
-		try {
-			c = holder.lockCanvas();
-			synchronized (holder) {
-				c.drawColor(Color.BLACK);
-			}
-		} finally {
-			if (c != null) holder.unlockCanvasAndPost(c);
+	});
+
+	private void addDirtyArea(CoordRect area) {
+		final int right = area.topLeft.x + area.size.width;
+		final int bottom = area.topLeft.y + area.size.height;
+		if (!hasDirtyArea) {
+			dirtyLeft = area.topLeft.x;
+			dirtyTop = area.topLeft.y;
+			dirtyRight = right;
+			dirtyBottom = bottom;
+			hasDirtyArea = true;
+		} else {
+			dirtyLeft = Math.min(dirtyLeft, area.topLeft.x);
+			dirtyTop = Math.min(dirtyTop, area.topLeft.y);
+			dirtyRight = Math.max(dirtyRight, right);
+			dirtyBottom = Math.max(dirtyBottom, bottom);
 		}
 	}
 
-	private void calculateRedrawRect(final CoordRect area) {
-		worldCoordsToScreenCords(area, redrawRect);
+	// Only the latest frame of each animation is drawn.
+	private void setPendingEffectFrame(VisualEffectAnimation effect, int tileID, int textYOffset) {
+		removePendingEffectFrame(effect);
+		pendingEffects.add(effect);
+		pendingEffectFrames.add(new RenderSnapshot.EffectFrame(effect.position, tileID, effect.displayText, effect.textPaint, textYOffset));
 	}
 
-	private void worldCoordsToScreenCords(final CoordRect worldArea, Rect destScreenRect) {
-		destScreenRect.left = screenOffset.x + (worldArea.topLeft.x - mapViewArea.topLeft.x) * scaledTileSize;
-		destScreenRect.top = screenOffset.y + (worldArea.topLeft.y - mapViewArea.topLeft.y) * scaledTileSize;
-		destScreenRect.right = destScreenRect.left + worldArea.size.width * scaledTileSize;
-		destScreenRect.bottom = destScreenRect.top + worldArea.size.height * scaledTileSize;
+	private void removePendingEffectFrame(VisualEffectAnimation effect) {
+		for (int i = pendingEffects.size() - 1; i >= 0; --i) {
+			if (pendingEffects.get(i) != effect) continue;
+			pendingEffects.remove(i);
+			pendingEffectFrames.remove(i);
+		}
 	}
 
-	private void doDrawRect(Canvas canvas, CoordRect area) {
-
-		drawMapLayer(canvas, area, currentTileMap.currentLayout.layerGround);
-		tryDrawMapLayer(canvas, area, currentTileMap.currentLayout.layerObjects);
-
+	// The dirty area, clipped to the visible area.
+	private CoordRect getDirtyArea() {
+		final int left = Math.max(dirtyLeft, mapViewArea.topLeft.x);
+		final int top = Math.max(dirtyTop, mapViewArea.topLeft.y);
+		final int right = Math.min(dirtyRight, mapViewArea.topLeft.x + mapViewArea.size.width);
+		final int bottom = Math.min(dirtyBottom, mapViewArea.topLeft.y + mapViewArea.size.height);
+		if (left >= right || top >= bottom) return null;
+		return new CoordRect(new Coord(left, top), new Size(right - left, bottom - top));
+	}
+
+	// Publishes a snapshot of everything that is visible to the render thread, which draws the dirty area from it while
+	// the game goes on.
+	private void drawFrame() {
+		if (!hasDirtyArea) return;
+		hasDirtyArea = false;
+		final RenderSnapshot.EffectFrame[] effects = pendingEffectFrames.toArray(new RenderSnapshot.EffectFrame[pendingEffectFrames.size()]);
+		pendingEffects.clear();
+		pendingEffectFrames.clear();
+		if (!hasSurface) return;
+		final CoordRect area = getDirtyArea();
+		if (area == null) return;
+
+		final boolean clearCanvas = clearCanvasNextFrame;
+		clearCanvasNextFrame = false;
+		renderThread.publish(new RenderSnapshot(
+				currentMap.size
+				, currentTileMap
+				, tiles
+				, mapViewArea
+				, screenOffset
+				, scale
+				, scaledTileSize
+				, area
+				, clearCanvas
+				, getVisibleSprites()
+				, getSelectionSprites()
+				, effects
+			));
+	}
+
+	private RenderSnapshot.Sprite[] getVisibleSprites() {
+		final ArrayList<RenderSnapshot.Sprite> result = new ArrayList<RenderSnapshot.Sprite>();
 		for (BloodSplatter splatter : currentMap.splatters) {
-			drawFromMapPosition(canvas, area, splatter.position, splatter.iconID);
+			if (mapViewArea.contains(splatter.position)) result.add(new RenderSnapshot.Sprite(splatter.position, splatter.iconID));
 		}
 
 		for (Loot l : currentMap.groundBags) {
-			if (l.isVisible) {
-				drawFromMapPosition(canvas, area, l.position, TileManager.iconID_groundbag);
+			if (l.isVisible && mapViewArea.contains(l.position)) {
+				result.add(new RenderSnapshot.Sprite(l.position, TileManager.iconID_groundbag));
 			}
 		}
 
-		drawFromMapPosition(canvas, area, playerPosition, model.player.iconID);
+		result.add(new RenderSnapshot.Sprite(playerPosition, model.player.iconID));
 		for (MonsterSpawnArea a : currentMap.spawnAreas) {
 			for (Monster m : a.monsters) {
-				drawFromMapPosition(canvas, area, m.rectPosition, m.iconID);
-			}
-		}
-
-		tryDrawMapLayer(canvas, area, currentTileMap.currentLayout.layerAbove);
-
-		if (model.uiSelections.selectedPosition != null) {
-			if (model.uiSelections.selectedMonster != null) {
-				drawFromMapPosition(canvas, area, model.uiSelections.selectedPosition, TileManager.iconID_attackselect);
-			} else {
-				drawFromMapPosition(canvas, area, model.uiSelections.selectedPosition, TileManager.iconID_moveselect);
+				if (mapViewArea.intersects(m.rectPosition)) result.add(new RenderSnapshot.Sprite(m.rectPosition, m.iconID));
 			}
 		}
+		return result.toArray(new RenderSnapshot.Sprite[result.size()]);
 	}
 
-	private void tryDrawMapLayer(Canvas canvas, final CoordRect area, final MapLayer layer) {
-		if (layer != null) drawMapLayer(canvas, area, layer);
-	}
-
-	private void drawMapLayer(Canvas canvas, final CoordRect area, final MapLayer layer) {
-		int my = area.topLeft.y;
-		int py = (area.topLeft.y - mapViewArea.topLeft.y) * tileSize;
-		int px0 = (area.topLeft.x - mapViewArea.topLeft.x) * tileSize;
-		for (int y = 0; y < area.size.height; ++y, ++my, py += tileSize) {
-			int mx = area.topLeft.x;
-			int px = px0;
-			for (int x = 0; x < area.size.width; ++x, ++mx, px += tileSize) {
-				final int tile = layer.tiles[mx][my];
-				if (tile == 0) continue;
-				tiles.drawTile(canvas, tile, px, py, mPaint);
-			}
+	private RenderSnapshot.Sprite[] getSelectionSprites() {
+		final Coord selectedPosition = model.uiSelections.selectedPosition;
+		if (selectedPosition == null) return NO_SPRITES;
+		if (model.uiSelections.selectedMonster != null) {
+			return new RenderSnapshot.Sprite[] { new RenderSnapshot.Sprite(selectedPosition, TileManager.iconID_attackselect) };
+		} else {
+			return new RenderSnapshot.Sprite[] { new RenderSnapshot.Sprite(selectedPosition, TileManager.iconID_moveselect) };
 		}
 	}
+	private static final RenderSnapshot.Sprite[] NO_SPRITES = new RenderSnapshot.Sprite[0];
 
-	private void drawFromMapPosition(Canvas canvas, final CoordRect area, final Coord p, final int tile) {
-		if (!area.contains(p)) return;
-		_drawFromMapPosition(canvas, area, p.x, p.y, tile);
-	}
-	private void drawFromMapPosition(Canvas canvas, final CoordRect area, final CoordRect p, final int tile) {
-		if (!area.intersects(p)) return;
-		_drawFromMapPosition(canvas, area, p.topLeft.x, p.topLeft.y, tile);
-	}
-	private void _drawFromMapPosition(Canvas canvas, final CoordRect area, int x, int y, final int tile) {
-		x -= mapViewArea.topLeft.x;
-		y -= mapViewArea.topLeft.y;
-		if (	   (x >= 0 && x < mapViewArea.size.width)
-				&& (y >= 0 && y < mapViewArea.size.height)) {
-			tiles.drawTile(canvas, tile, x * tileSize, y * tileSize, mPaint);
-		}
+	private boolean shouldRedrawEverythingForVisualEffect() {
+		if (preferences.optimizedDrawing) return false;
+		if (model.uiSelections.isInCombat) return false; // Discard the "optimized drawing" setting while in combat.
+		return true;
 	}
-
-	private void drawEffectText(Canvas canvas, final CoordRect area, final VisualEffectAnimation e, int textYOffset, Paint textPaint) {
-		int x = (e.position.x - mapViewArea.topLeft.x) * tileSize + tileSize/2;
-		int y = (e.position.y - mapViewArea.topLeft.y) * tileSize + tileSize/2 + textYOffset;
-		canvas.drawText(e.displayText, x, y, textPaint);
+	private void redrawAreaWithEffect(final VisualEffectAnimation effect, int tileID, int textYOffset) {
+		CoordRect area = effect.area;
+		if (shouldRedrawEverythingForVisualEffect()) area = mapViewArea;
+		redrawArea_(area, effect, tileID, textYOffset);
 	}
 
 	@Override
 	public void onPlayerEnteredNewMap(PredefinedMap map, Coord p) {
-		synchronized (holder) {
-			currentMap = map;
-			currentTileMap = model.currentTileMap;
-			tiles = world.tileManager.currentMapTiles;
-
-			Size visibleNumberOfTiles = new Size(
-					Math.min(screenSizeTileCount.width, currentMap.size.width)
-					,Math.min(screenSizeTileCount.height, currentMap.size.height)
-				);
-			mapViewArea = new CoordRect(mapTopLeft, visibleNumberOfTiles);
-
-			screenOffset.set(
-					(surfaceSize.width - scaledTileSize * visibleNumberOfTiles.width) / 2
-					,(surfaceSize.height - scaledTileSize * visibleNumberOfTiles.height) / 2
-				);
-
-			currentTileMap.setColorFilter(this.mPaint);
-		}
+		currentMap = map;
+		currentTileMap = model.currentTileMap;
+		setTiles(world.tileManager.currentMapTiles);
 
-		clearCanvas();
+		Size visibleNumberOfTiles = new Size(
+				Math.min(screenSizeTileCount.width, currentMap.size.width)
+				,Math.min(screenSizeTileCount.height, currentMap.size.height)
+			);
+		mapViewArea = new CoordRect(mapTopLeft, visibleNumberOfTiles);
+
+		screenOffset.set(
+				(surfaceSize.width - scaledTileSize * visibleNumberOfTiles.width) / 2
+				,(surfaceSize.height - scaledTileSize * visibleNumberOfTiles.height) / 2
+			);
+
+		clearCanvasNextFrame = true;
 
 		recalculateMapTopLeft(model.player.position);
 		redrawAll(RedrawAllDebugReason.MapChanged);
 	}
 
 	private void recalculateMapTopLeft(Coord playerPosition) {
-		synchronized (holder) {
-			this.playerPosition.set(playerPosition);
-			mapTopLeft.set(0, 0);
+		this.playerPosition.set(playerPosition);
+		mapTopLeft.set(0, 0);
 
-			if (currentMap.size.width > screenSizeTileCount.width) {
-				mapTopLeft.x = Math.max(0, playerPosition.x - mapViewArea.size.width/2);
-				mapTopLeft.x = Math.min(mapTopLeft.x, currentMap.size.width - mapViewArea.size.width);
-			}
-			if (currentMap.size.height > screenSizeTileCount.height) {
-				mapTopLeft.y = Math.max(0, playerPosition.y - mapViewArea.size.height/2);
-				mapTopLeft.y = Math.min(mapTopLeft.y, currentMap.size.height - mapViewArea.size.height);
-			}
+		if (currentMap.size.width > screenSizeTileCount.width) {
+			mapTopLeft.x = Math.max(0, playerPosition.x - mapViewArea.size.width/2);
+			mapTopLeft.x = Math.min(mapTopLeft.x, currentMap.size.width - mapViewArea.size.width);
+		}
+		if (currentMap.size.height > screenSizeTileCount.height) {
+			mapTopLeft.y = Math.max(0, playerPosition.y - mapViewArea.size.height/2);
+			mapTopLeft.y = Math.min(mapTopLeft.y, currentMap.size.height - mapViewArea.size.height);
 		}
 	}
 
@@ -490,6 +494,7 @@ public final class MainView extends SurfaceView
 
 	@Override
 	public void onAnimationCompleted(VisualEffectAnimation animation) {
+		removePendingEffectFrame(animation);
 		redrawArea(animation.area, RedrawAreaDebugReason.EffectCompleted);
 	}
 
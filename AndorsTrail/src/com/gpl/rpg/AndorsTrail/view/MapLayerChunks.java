@@ -0,0 +1,152 @@
+package com.gpl.rpg.AndorsTrail.view;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import com.gpl.rpg.AndorsTrail.model.map.MapLayer;
+import com.gpl.rpg.AndorsTrail.model.map.MapSection;
+import com.gpl.rpg.AndorsTrail.resource.tiles.TileCollection;
+import com.gpl.rpg.AndorsTrail.util.CoordRect;
+import com.gpl.rpg.AndorsTrail.util.Size;
+
+// The ground and object layers of the current map, composited into bitmaps of CHUNK_SIZE x CHUNK_SIZE tiles. These
+// layers only change when a replacement is applied to the map layout, so a redraw can blit the chunks instead of
+// drawing every tile of both layers.
+//
+// Chunks are composited at the view scale, from the pre-scaled tiles, so that drawing them does not scale. They are
+// composited when they are first drawn, and recycled when they are far outside the visible area. All of them are
+// composited again when another layout of the map is drawn.
+//
+// Not thread safe, only the RenderThread of the MainView uses this.
+public final class MapLayerChunks {
+	private static final int CHUNK_SIZE = 8;
+
+	private final int tileSize;
+	private float scale;
+	private int scaledTileSize;
+	private final Paint compositePaint = new Paint();
+	private final Rect src = new Rect();
+	private final Rect dst = new Rect();
+	private final Rect tileDst = new Rect();
+	private MapSection layout;
+	private TileCollection tiles;
+	private Size mapSize;
+	private int numChunksX;
+	private int numChunksY;
+	private Bitmap[] chunks = new Bitmap[0];
+
+	public MapLayerChunks(int tileSize) {
+		this.tileSize = tileSize;
+	}
+
+	// The tiles are not acquired, the caller keeps its own reference to them while drawing.
+	public void setMap(Size mapSize, MapSection layout, TileCollection tiles, float scale) {
+		recycleAll();
+		this.scale = scale;
+		this.scaledTileSize = (int) (tileSize * scale);
+		this.mapSize = mapSize;
+		this.layout = layout;
+		this.tiles = tiles;
+		this.numChunksX = (mapSize.width + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		this.numChunksY = (mapSize.height + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		this.chunks = new Bitmap[numChunksX * numChunksY];
+	}
+
+	public void recycleAll() {
+		for (int i = 0; i < chunks.length; ++i) {
+			if (chunks[i] != null) chunks[i].recycle();
+			chunks[i] = null;
+		}
+	}
+
+	// Recycles the chunks that are more than one chunk away from the visible area.
+	public void recycleOutside(CoordRect visibleArea) {
+		final int minX = visibleArea.topLeft.x / CHUNK_SIZE - 1;
+		final int minY = visibleArea.topLeft.y / CHUNK_SIZE - 1;
+		final int maxX = (visibleArea.topLeft.x + visibleArea.size.width - 1) / CHUNK_SIZE + 1;
+		final int maxY = (visibleArea.topLeft.y + visibleArea.size.height - 1) / CHUNK_SIZE + 1;
+		for (int cy = 0; cy < numChunksY; ++cy) {
+			for (int cx = 0; cx < numChunksX; ++cx) {
+				if (cx >= minX && cx <= maxX && cy >= minY && cy <= maxY) continue;
+				final int i = cy * numChunksX + cx;
+				if (chunks[i] == null) continue;
+				chunks[i].recycle();
+				chunks[i] = null;
+			}
+		}
+	}
+
+	// Draws the part of the ground and object layers that is inside area, at the view scale. The top left tile of
+	// mapViewArea is drawn at (0,0). Returns the number of chunks that were drawn.
+	public int draw(Canvas canvas, CoordRect area, CoordRect mapViewArea, MapSection currentLayout, Paint paint) {
+		if (layout != currentLayout) {
+			recycleAll();
+			layout = currentLayout;
+		}
+
+		final int areaRight = area.topLeft.x + area.size.width;
+		final int areaBottom = area.topLeft.y + area.size.height;
+		final int firstChunkX = area.topLeft.x / CHUNK_SIZE;
+		final int firstChunkY = area.topLeft.y / CHUNK_SIZE;
+		final int lastChunkX = Math.min(numChunksX, (areaRight + CHUNK_SIZE - 1) / CHUNK_SIZE) - 1;
+		final int lastChunkY = Math.min(numChunksY, (areaBottom + CHUNK_SIZE - 1) / CHUNK_SIZE) - 1;
+		int numDrawn = 0;
+		for (int cy = firstChunkY; cy <= lastChunkY; ++cy) {
+			for (int cx = firstChunkX; cx <= lastChunkX; ++cx) {
+				final Bitmap chunk = getChunk(cx, cy);
+				final int chunkLeft = cx * CHUNK_SIZE;
+				final int chunkTop = cy * CHUNK_SIZE;
+				final int left = Math.max(area.topLeft.x, chunkLeft);
+				final int top = Math.max(area.topLeft.y, chunkTop);
+				final int right = Math.min(areaRight, chunkLeft + CHUNK_SIZE);
+				final int bottom = Math.min(areaBottom, chunkTop + CHUNK_SIZE);
+				src.set(
+					(left - chunkLeft) * scaledTileSize
+					,(top - chunkTop) * scaledTileSize
+					,(right - chunkLeft) * scaledTileSize
+					,(bottom - chunkTop) * scaledTileSize
+				);
+				dst.set(
+					(left - mapViewArea.topLeft.x) * scaledTileSize
+					,(top - mapViewArea.topLeft.y) * scaledTileSize
+					,(right - mapViewArea.topLeft.x) * scaledTileSize
+					,(bottom - mapViewArea.topLeft.y) * scaledTileSize
+				);
+				canvas.drawBitmap(chunk, src, dst, paint);
+				++numDrawn;
+			}
+		}
+		return numDrawn;
+	}
+
+	private Bitmap getChunk(int cx, int cy) {
+		final int i = cy * numChunksX + cx;
+		if (chunks[i] == null) chunks[i] = compositeChunk(cx, cy);
+		return chunks[i];
+	}
+
+	// The color filter of the map is applied when the chunk is drawn, not when it is composited.
+	private Bitmap compositeChunk(int cx, int cy) {
+		final int chunkLeft = cx * CHUNK_SIZE;
+		final int chunkTop = cy * CHUNK_SIZE;
+		final int width = Math.min(CHUNK_SIZE, mapSize.width - chunkLeft);
+		final int height = Math.min(CHUNK_SIZE, mapSize.height - chunkTop);
+		final Bitmap result = Bitmap.createBitmap(width * scaledTileSize, height * scaledTileSize, Bitmap.Config.ARGB_8888);
+		result.setDensity(Bitmap.DENSITY_NONE);
+		final Canvas canvas = new Canvas(result);
+		compositeLayer(canvas, layout.layerGround, chunkLeft, chunkTop, width, height);
+		if (layout.layerObjects != null) compositeLayer(canvas, layout.layerObjects, chunkLeft, chunkTop, width, height);
+		return result;
+	}
+
+	private void compositeLayer(Canvas canvas, MapLayer layer, int chunkLeft, int chunkTop, int width, int height) {
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				final int tile = layer.tiles[chunkLeft + x][chunkTop + y];
+				if (tile == 0) continue;
+				tiles.drawScaledTile(canvas, tile, x * scaledTileSize, y * scaledTileSize, scale, compositePaint, tileDst);
+			}
+		}
+	}
+}
@@ -118,7 +118,9 @@ public final class QuickitemView extends LinearLayout implements OnClickListener
 
 		loadedTileIDs.clear();
 		loadedTileIDs.addAll(iconIDs);
+		final TileCollection previousTiles = tiles;
 		tiles = world.tileManager.loadTilesFor(iconIDs, getResources());
+		if (previousTiles != null) previousTiles.release();
 	}
 
 	public void registerForContextMenu(MainActivity mainActivity) {
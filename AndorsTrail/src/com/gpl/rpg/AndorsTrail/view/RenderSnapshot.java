@@ -0,0 +1,171 @@
+package com.gpl.rpg.AndorsTrail.view;
+
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import com.gpl.rpg.AndorsTrail.model.map.LayeredTileMap;
+import com.gpl.rpg.AndorsTrail.model.map.MapLayer;
+import com.gpl.rpg.AndorsTrail.model.map.MapSection;
+import com.gpl.rpg.AndorsTrail.resource.tiles.TileCollection;
+import com.gpl.rpg.AndorsTrail.util.Coord;
+import com.gpl.rpg.AndorsTrail.util.CoordRect;
+import com.gpl.rpg.AndorsTrail.util.Size;
+
+// Everything that is drawn in one frame of the MainView, copied from the model on the main thread. The RenderThread
+// draws the frame from the snapshot alone, without reading the model or taking any of its locks.
+//
+// The map layers are not copied. A replacement does not change the layout that the snapshot refers to, it makes a new
+// layout current, which the next snapshot refers to instead.
+public final class RenderSnapshot {
+	public final Size mapSize;
+	public final LayeredTileMap tileMap;
+	public final MapSection layout;
+	public final MapLayer layerAbove;
+	public final TileCollection tiles;
+	public final ColorFilter colorFilter;
+
+	public final CoordRect mapViewArea;
+	public final int screenOffsetX;
+	public final int screenOffsetY;
+	public final float scale;
+	public final int scaledTileSize;
+
+	public final CoordRect area; // The dirty area, in map coordinates. Equal to mapViewArea if the whole view is dirty.
+	public final boolean clearCanvas;
+
+	public final Sprite[] sprites; // Splatters, bags, the player and the monsters, drawn below the above layer.
+	public final Sprite[] selections; // Drawn above the above layer.
+	public final EffectFrame[] effects;
+
+	public RenderSnapshot(
+			Size mapSize
+			, LayeredTileMap tileMap
+			, TileCollection tiles
+			, CoordRect mapViewArea
+			, Coord screenOffset
+			, float scale
+			, int scaledTileSize
+			, CoordRect area
+			, boolean clearCanvas
+			, Sprite[] sprites
+			, Sprite[] selections
+			, EffectFrame[] effects
+	) {
+		this.mapSize = mapSize;
+		this.tileMap = tileMap;
+		this.layout = tileMap.currentLayout;
+		this.layerAbove = layout.layerAbove;
+		this.tiles = tiles;
+		this.colorFilter = tileMap.getColorFilter();
+		this.mapViewArea = copy(mapViewArea);
+		this.screenOffsetX = screenOffset.x;
+		this.screenOffsetY = screenOffset.y;
+		this.scale = scale;
+		this.scaledTileSize = scaledTileSize;
+		this.area = isSameArea(area, mapViewArea) ? this.mapViewArea : copy(area);
+		this.clearCanvas = clearCanvas;
+		this.sprites = sprites;
+		this.selections = selections;
+		this.effects = effects;
+	}
+
+	private RenderSnapshot(RenderSnapshot s, CoordRect area, boolean clearCanvas) {
+		this.mapSize = s.mapSize;
+		this.tileMap = s.tileMap;
+		this.layout = s.layout;
+		this.layerAbove = s.layerAbove;
+		this.tiles = s.tiles;
+		this.colorFilter = s.colorFilter;
+		this.mapViewArea = s.mapViewArea;
+		this.screenOffsetX = s.screenOffsetX;
+		this.screenOffsetY = s.screenOffsetY;
+		this.scale = s.scale;
+		this.scaledTileSize = s.scaledTileSize;
+		this.area = isSameArea(area, s.mapViewArea) ? s.mapViewArea : area;
+		this.clearCanvas = clearCanvas;
+		this.sprites = s.sprites;
+		this.selections = s.selections;
+		this.effects = s.effects;
+	}
+
+	public boolean isWholeView() {
+		return area == mapViewArea;
+	}
+
+	public RenderSnapshot asWholeView() {
+		if (isWholeView()) return this;
+		return new RenderSnapshot(this, mapViewArea, clearCanvas);
+	}
+
+	// Used when an older snapshot was never drawn. This snapshot is drawn instead, but it also has to redraw the area
+	// that the older one would have redrawn.
+	public RenderSnapshot mergedWith(RenderSnapshot older) {
+		final boolean clear = clearCanvas || older.clearCanvas;
+		if (older.tileMap != tileMap || !isSameArea(older.mapViewArea, mapViewArea)) {
+			return new RenderSnapshot(this, mapViewArea, clear);
+		}
+		return new RenderSnapshot(this, union(area, older.area), clear);
+	}
+
+	public RenderSnapshot includingArea(CoordRect extraArea) {
+		if (isWholeView()) return this;
+		return new RenderSnapshot(this, union(area, extraArea), clearCanvas);
+	}
+
+	private static CoordRect union(CoordRect a, CoordRect b) {
+		final int left = Math.min(a.topLeft.x, b.topLeft.x);
+		final int top = Math.min(a.topLeft.y, b.topLeft.y);
+		final int right = Math.max(a.topLeft.x + a.size.width, b.topLeft.x + b.size.width);
+		final int bottom = Math.max(a.topLeft.y + a.size.height, b.topLeft.y + b.size.height);
+		return new CoordRect(new Coord(left, top), new Size(right - left, bottom - top));
+	}
+
+	private static CoordRect copy(CoordRect r) {
+		return new CoordRect(new Coord(r.topLeft), r.size);
+	}
+
+	private static boolean isSameArea(CoordRect a, CoordRect b) {
+		if (!a.topLeft.equals(b.topLeft)) return false;
+		if (a.size.width != b.size.width) return false;
+		if (a.size.height != b.size.height) return false;
+		return true;
+	}
+
+	public static final class Sprite {
+		public final int x;
+		public final int y;
+		public final int width;
+		public final int height;
+		public final int iconID;
+		public Sprite(Coord p, int iconID) {
+			this(p.x, p.y, 1, 1, iconID);
+		}
+		public Sprite(CoordRect p, int iconID) {
+			this(p.topLeft.x, p.topLeft.y, p.size.width, p.size.height, iconID);
+		}
+		private Sprite(int x, int y, int width, int height, int iconID) {
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+			this.iconID = iconID;
+		}
+	}
+
+	public static final class EffectFrame {
+		public final int x;
+		public final int y;
+		public final int tileID;
+		public final String displayText;
+		public final Paint textPaint;
+		public final int textYOffset;
+		public EffectFrame(Coord position, int tileID, String displayText, Paint textPaint, int textYOffset) {
+			this.x = position.x;
+			this.y = position.y;
+			this.tileID = tileID;
+			this.displayText = displayText;
+			// The animation keeps changing the alpha of its paint while the frame is drawn.
+			this.textPaint = displayText == null ? null : new Paint(textPaint);
+			this.textYOffset = textYOffset;
+		}
+	}
+}
@@ -0,0 +1,268 @@
+package com.gpl.rpg.AndorsTrail.view;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.view.SurfaceHolder;
+import com.gpl.rpg.AndorsTrail.resource.tiles.TileCollection;
+import com.gpl.rpg.AndorsTrail.util.Coord;
+import com.gpl.rpg.AndorsTrail.util.CoordRect;
+import com.gpl.rpg.AndorsTrail.util.FrameStatistics;
+import com.gpl.rpg.AndorsTrail.util.L;
+import com.gpl.rpg.AndorsTrail.util.Size;
+
+// Draws the MainView on its own thread, from the RenderSnapshots that the main thread publishes. Only the latest
+// snapshot is drawn. If the thread is still drawing when several snapshots are published, the ones in between are
+// merged into the latest one.
+//
+// The tiles are drawn from atlases that are pre-scaled to the view scale, so nothing is scaled while drawing, except
+// for the text of the visual effects.
+//
+// Each frame is recorded in the FrameStatistics, and the percentiles of the frame times can be shown in the top left
+// corner of the view.
+//
+// The thread holds its own reference to the tiles that it draws, so they stay loaded until it has switched to the tiles
+// of the next map. The layer chunks are only used from this thread, and after it has stopped.
+public final class RenderThread extends Thread {
+	private static final int OVERLAY_WIDTH_TILES = 6;
+
+	private final SurfaceHolder holder;
+	private final int tileSize;
+	private final boolean showFrameStatistics;
+	private final Paint overlayPaint = new Paint();
+	private int numDrawCalls;
+	private final MapLayerChunks layerChunks;
+	private final Paint mPaint = new Paint();
+	private final Rect redrawRect = new Rect();
+	private final Rect tileRect = new Rect();
+
+	private final Object lock = new Object();
+	private RenderSnapshot pendingSnapshot; // Guarded by lock.
+	private boolean isStopped = false; // Guarded by lock.
+
+	private TileCollection tiles;
+	private RenderSnapshot lastSnapshot;
+
+	public RenderThread(SurfaceHolder holder, int tileSize, boolean showFrameStatistics) {
+		super("RenderThread");
+		this.holder = holder;
+		this.tileSize = tileSize;
+		this.showFrameStatistics = showFrameStatistics;
+		this.layerChunks = new MapLayerChunks(tileSize);
+		this.overlayPaint.setColor(Color.WHITE);
+		this.overlayPaint.setShadowLayer(2, 1, 1, Color.BLACK);
+	}
+
+	public void publish(RenderSnapshot snapshot) {
+		synchronized (lock) {
+			if (pendingSnapshot != null) snapshot = snapshot.mergedWith(pendingSnapshot);
+			pendingSnapshot = snapshot;
+			lock.notify();
+		}
+	}
+
+	// Waits until the current frame has been drawn, and releases everything that the thread holds. Must be called
+	// before the surface is destroyed.
+	public void stopAndRelease() {
+		synchronized (lock) {
+			isStopped = true;
+			pendingSnapshot = null;
+			lock.notify();
+		}
+		boolean interrupted = false;
+		while (isAlive()) {
+			try {
+				join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+		layerChunks.recycleAll();
+		if (tiles != null) tiles.release();
+		tiles = null;
+		lastSnapshot = null;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			RenderSnapshot snapshot;
+			synchronized (lock) {
+				while (pendingSnapshot == null && !isStopped) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (isStopped) return;
+				snapshot = pendingSnapshot;
+				pendingSnapshot = null;
+			}
+			drawFrame(snapshot);
+		}
+	}
+
+	private void drawFrame(RenderSnapshot snapshot) {
+		if (!setTiles(snapshot.tiles)) return;
+		setMap(snapshot);
+
+		if (snapshot.clearCanvas) clearCanvas();
+		if (showFrameStatistics) snapshot = snapshot.includingArea(getOverlayArea(snapshot));
+
+		worldCoordsToScreenCords(snapshot, redrawRect);
+		final long start = System.nanoTime();
+		numDrawCalls = 0;
+		Canvas c = null;
+		try {
+			c = holder.lockCanvas(redrawRect);
+			if (c == null) return;
+			// lockCanvas sometimes changes redrawRect, when the double-buffer has not been
+			// sufficiently filled beforehand. In those cases, we need to redraw the whole scene.
+			if (!snapshot.isWholeView()) {
+				if (isRedrawRectWholeScreen(snapshot, redrawRect)) {
+					snapshot = snapshot.asWholeView();
+				}
+			}
+			c.translate(snapshot.screenOffsetX, snapshot.screenOffsetY);
+			doDrawRect(c, snapshot);
+			if (showFrameStatistics) drawFrameStatistics(c, snapshot);
+		} finally {
+			if (c != null) {
+				holder.unlockCanvasAndPost(c);
+				FrameStatistics.record(System.nanoTime() - start, numDrawCalls, redrawRect.width() * redrawRect.height());
+			}
+		}
+	}
+
+	private static CoordRect getOverlayArea(RenderSnapshot s) {
+		return new CoordRect(
+				new Coord(s.mapViewArea.topLeft)
+				, new Size(Math.min(OVERLAY_WIDTH_TILES, s.mapViewArea.size.width), 1)
+			);
+	}
+
+	private void drawFrameStatistics(Canvas canvas, RenderSnapshot s) {
+		final float textSize = s.scaledTileSize * 0.3f;
+		overlayPaint.setTextSize(textSize);
+		canvas.drawText(
+				"p50 " + FrameStatistics.getPercentileMs(50)
+				+ " p95 " + FrameStatistics.getPercentileMs(95)
+				+ " p99 " + FrameStatistics.getPercentileMs(99) + " ms"
+				, 2, textSize, overlayPaint);
+		++numDrawCalls;
+	}
+
+	// Returns false if the tiles have already been released. That only happens when the player has already entered
+	// another map, and the snapshot for that map will follow.
+	private boolean setTiles(TileCollection newTiles) {
+		if (newTiles == tiles) return true;
+		if (!newTiles.tryAcquire()) {
+			L.log("WARNING: RenderThread skipped a frame with tiles that had already been released.");
+			return false;
+		}
+		if (tiles != null) tiles.release();
+		tiles = newTiles;
+		return true;
+	}
+
+	private void setMap(RenderSnapshot snapshot) {
+		final RenderSnapshot last = lastSnapshot;
+		lastSnapshot = snapshot;
+		if (last == null || last.tileMap != snapshot.tileMap || last.tiles != snapshot.tiles || last.scale != snapshot.scale) {
+			layerChunks.setMap(snapshot.mapSize, snapshot.layout, snapshot.tiles, snapshot.scale);
+			mPaint.setColorFilter(snapshot.colorFilter);
+		} else if (last.mapViewArea.topLeft.equals(snapshot.mapViewArea.topLeft)) {
+			return;
+		}
+		layerChunks.recycleOutside(snapshot.mapViewArea);
+	}
+
+	private void clearCanvas() {
+		Canvas c = null;
+		try {
+			c = holder.lockCanvas();
+			if (c == null) return;
+			c.drawColor(Color.BLACK);
+		} finally {
+			if (c != null) holder.unlockCanvasAndPost(c);
+		}
+	}
+
+	private static void worldCoordsToScreenCords(RenderSnapshot s, Rect destScreenRect) {
+		destScreenRect.left = s.screenOffsetX + (s.area.topLeft.x - s.mapViewArea.topLeft.x) * s.scaledTileSize;
+		destScreenRect.top = s.screenOffsetY + (s.area.topLeft.y - s.mapViewArea.topLeft.y) * s.scaledTileSize;
+		destScreenRect.right = destScreenRect.left + s.area.size.width * s.scaledTileSize;
+		destScreenRect.bottom = destScreenRect.top + s.area.size.height * s.scaledTileSize;
+	}
+
+	private static boolean isRedrawRectWholeScreen(RenderSnapshot s, Rect redrawRect) {
+		if (redrawRect.width() < s.mapViewArea.size.width * s.scaledTileSize) return false;
+		if (redrawRect.height() < s.mapViewArea.size.height * s.scaledTileSize) return false;
+		return true;
+	}
+
+	private void doDrawRect(Canvas canvas, RenderSnapshot s) {
+		numDrawCalls += layerChunks.draw(canvas, s.area, s.mapViewArea, s.layout, mPaint);
+
+		for (RenderSnapshot.Sprite sprite : s.sprites) drawSprite(canvas, s, sprite);
+
+		if (s.layerAbove != null) drawMapLayer(canvas, s, s.layerAbove.tiles);
+
+		for (RenderSnapshot.Sprite sprite : s.selections) drawSprite(canvas, s, sprite);
+
+		for (RenderSnapshot.EffectFrame f : s.effects) {
+			if (s.area.contains(f.x, f.y)) drawTile(canvas, s, f.x, f.y, f.tileID);
+		}
+
+		canvas.save();
+		canvas.scale(s.scale, s.scale);
+		for (RenderSnapshot.EffectFrame f : s.effects) {
+			if (f.displayText == null) continue;
+			final int x = (f.x - s.mapViewArea.topLeft.x) * tileSize + tileSize/2;
+			final int y = (f.y - s.mapViewArea.topLeft.y) * tileSize + tileSize/2 + f.textYOffset;
+			canvas.drawText(f.displayText, x, y, f.textPaint);
+			++numDrawCalls;
+		}
+		canvas.restore();
+	}
+
+	private void drawMapLayer(Canvas canvas, RenderSnapshot s, int[][] layer) {
+		final CoordRect area = s.area;
+		int my = area.topLeft.y;
+		final int scaledTileSize = s.scaledTileSize;
+		int py = (area.topLeft.y - s.mapViewArea.topLeft.y) * scaledTileSize;
+		int px0 = (area.topLeft.x - s.mapViewArea.topLeft.x) * scaledTileSize;
+		for (int y = 0; y < area.size.height; ++y, ++my, py += scaledTileSize) {
+			int mx = area.topLeft.x;
+			int px = px0;
+			for (int x = 0; x < area.size.width; ++x, ++mx, px += scaledTileSize) {
+				final int tile = layer[mx][my];
+				if (tile == 0) continue;
+				tiles.drawScaledTile(canvas, tile, px, py, s.scale, mPaint, tileRect);
+				++numDrawCalls;
+			}
+		}
+	}
+
+	private void drawSprite(Canvas canvas, RenderSnapshot s, RenderSnapshot.Sprite sprite) {
+		final CoordRect area = s.area;
+		if (sprite.x >= area.topLeft.x + area.size.width) return;
+		if (sprite.y >= area.topLeft.y + area.size.height) return;
+		if (area.topLeft.x >= sprite.x + sprite.width) return;
+		if (area.topLeft.y >= sprite.y + sprite.height) return;
+		drawTile(canvas, s, sprite.x, sprite.y, sprite.iconID);
+	}
+
+	private void drawTile(Canvas canvas, RenderSnapshot s, int x, int y, int tile) {
+		x -= s.mapViewArea.topLeft.x;
+		y -= s.mapViewArea.topLeft.y;
+		if (	   (x >= 0 && x < s.mapViewArea.size.width)
+				&& (y >= 0 && y < s.mapViewArea.size.height)) {
+			tiles.drawScaledTile(canvas, tile, x * s.scaledTileSize, y * s.scaledTileSize, s.scale, mPaint, tileRect);
+			++numDrawCalls;
+		}
+	}
+}
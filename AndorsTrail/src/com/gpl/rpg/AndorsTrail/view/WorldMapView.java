@@ -0,0 +1,262 @@
+package com.gpl.rpg.AndorsTrail.view;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Region;
+import android.os.AsyncTask;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+import com.gpl.rpg.AndorsTrail.R;
+import com.gpl.rpg.AndorsTrail.controller.WorldMapController;
+import com.gpl.rpg.AndorsTrail.controller.WorldMapTilePyramid;
+import com.gpl.rpg.AndorsTrail.model.map.WorldMapSegment.NamedWorldMapArea;
+import com.gpl.rpg.AndorsTrail.util.Coord;
+import com.gpl.rpg.AndorsTrail.util.CoordRect;
+import com.gpl.rpg.AndorsTrail.util.LruCache;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+// Shows the worldmap of one segment from its WorldMapTilePyramid. Only the tiles that are visible at the current zoom
+// are decoded, from the level whose resolution is closest to the zoom. The decoded tiles are kept in a cache of a fixed
+// number of bytes, so the memory use does not depend on the size of the segment.
+//
+// The pyramid is shared between savegames, so only the maps that have been visited in the current game are shown.
+//
+// Positions are in pixels of level 0 of the pyramid, unless they are named screen positions.
+public final class WorldMapView extends View {
+	private static final float MIN_ZOOM = 1f / (1 << (WorldMapTilePyramid.NUM_LEVELS - 1));
+	private static final float MAX_ZOOM = 4;
+
+	private final float density;
+	private final Paint tilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+	private final Paint settlementPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint otherAreaPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint playerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final int backgroundColor;
+	private final Rect dest = new Rect();
+	private final RectF clip = new RectF();
+
+	private WorldMapTilePyramid pyramid;
+	private final ArrayList<Rect> mapAreas = new ArrayList<Rect>();
+	private final ArrayList<NamedArea> namedAreas = new ArrayList<NamedArea>();
+	private Coord playerPosition;
+	private float zoom;
+	private float centerX;
+	private float centerY;
+	private float lastTouchX;
+	private float lastTouchY;
+
+	private final HashSet<String> loadingTiles = new HashSet<String>();
+	private final HashSet<String> missingTiles = new HashSet<String>();
+	private final LruCache<String, Bitmap> tiles = new LruCache<String, Bitmap>(getCacheSizeInBytes()) {
+		@Override
+		protected int sizeOf(String key, Bitmap value) {
+			return value.getRowBytes() * value.getHeight();
+		}
+		// Tiles are only put in the cache and drawn on the main thread, so an evicted tile is never being drawn.
+		@Override
+		protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+			oldValue.recycle();
+		}
+	};
+
+	// The same share of the heap as the tile cache of the game takes for its atlases, which are not used while the
+	// worldmap is shown.
+	private static int getCacheSizeInBytes() {
+		return (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+	}
+
+	private static final class NamedArea {
+		public final Rect area;
+		public final String name;
+		public final Paint paint;
+		public NamedArea(Rect area, String name, Paint paint) {
+			this.area = area;
+			this.name = name;
+			this.paint = paint;
+		}
+	}
+
+	public WorldMapView(Context context, AttributeSet attr) {
+		super(context, attr);
+		this.density = context.getResources().getDisplayMetrics().density;
+		this.backgroundColor = context.getResources().getColor(R.color.displayworldmap_background);
+		this.zoom = density;
+
+		setupTextPaint(settlementPaint, Color.WHITE);
+		setupTextPaint(otherAreaPaint, 0xffcccccc);
+		setupTextPaint(playerPaint, Color.RED);
+		playerPaint.setTextSize(19 * density);
+	}
+
+	private void setupTextPaint(Paint paint, int color) {
+		paint.setColor(color);
+		paint.setTextSize(16 * density);
+		paint.setTextAlign(Paint.Align.CENTER);
+		paint.setShadowLayer(2, 1, 1, Color.BLACK);
+	}
+
+	public void setWorldMap(WorldMapTilePyramid pyramid, ArrayList<CoordRect> displayedMapAreas, ArrayList<NamedWorldMapArea> areas, ArrayList<CoordRect> areaBoundaries, Coord playerPosition) {
+		recycleTiles();
+		missingTiles.clear();
+		this.pyramid = pyramid;
+		this.mapAreas.clear();
+		for (CoordRect r : displayedMapAreas) mapAreas.add(toPixels(r));
+		this.namedAreas.clear();
+		for (int i = 0; i < areas.size(); ++i) {
+			final NamedWorldMapArea area = areas.get(i);
+			final Paint paint = "settlement".equals(area.type) ? settlementPaint : otherAreaPaint;
+			namedAreas.add(new NamedArea(toPixels(areaBoundaries.get(i)), area.name, paint));
+		}
+		final int tileSize = WorldMapController.WORLDMAP_DISPLAY_TILESIZE;
+		this.playerPosition = new Coord(playerPosition.x * tileSize + tileSize / 2, playerPosition.y * tileSize + tileSize / 2);
+		this.centerX = this.playerPosition.x;
+		this.centerY = this.playerPosition.y;
+		invalidate();
+	}
+
+	private static Rect toPixels(CoordRect r) {
+		final int tileSize = WorldMapController.WORLDMAP_DISPLAY_TILESIZE;
+		return new Rect(
+				r.topLeft.x * tileSize
+				,r.topLeft.y * tileSize
+				,(r.topLeft.x + r.size.width) * tileSize
+				,(r.topLeft.y + r.size.height) * tileSize
+			);
+	}
+
+	public void recycleTiles() {
+		tiles.evictAll();
+	}
+
+	public void zoomIn() { setZoom(zoom * 2); }
+	public void zoomOut() { setZoom(zoom / 2); }
+
+	private void setZoom(float zoom) {
+		this.zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom));
+		invalidate();
+	}
+
+	@Override
+	public boolean onTouchEvent(MotionEvent event) {
+		switch (event.getAction()) {
+		case MotionEvent.ACTION_DOWN:
+			lastTouchX = event.getX();
+			lastTouchY = event.getY();
+			return true;
+		case MotionEvent.ACTION_MOVE:
+			centerX -= (event.getX() - lastTouchX) / zoom;
+			centerY -= (event.getY() - lastTouchY) / zoom;
+			lastTouchX = event.getX();
+			lastTouchY = event.getY();
+			invalidate();
+			return true;
+		}
+		return super.onTouchEvent(event);
+	}
+
+	private float toScreenX(int x) { return (x - centerX) * zoom + getWidth() / 2f; }
+	private float toScreenY(int y) { return (y - centerY) * zoom + getHeight() / 2f; }
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		canvas.drawColor(backgroundColor);
+		if (pyramid == null) return;
+
+		canvas.save();
+		boolean isFirstArea = true;
+		for (Rect r : mapAreas) {
+			clip.set(toScreenX(r.left), toScreenY(r.top), toScreenX(r.right), toScreenY(r.bottom));
+			// The union is kept inside the view, so that nothing is drawn outside of it.
+			if (!clip.intersect(0, 0, getWidth(), getHeight())) continue;
+			canvas.clipRect(clip, isFirstArea ? Region.Op.INTERSECT : Region.Op.UNION);
+			isFirstArea = false;
+		}
+		if (!isFirstArea) drawTiles(canvas);
+		canvas.restore();
+
+		for (NamedArea a : namedAreas) {
+			final float x = toScreenX(a.area.centerX());
+			final float y = toScreenY(a.area.centerY()) - (a.paint.ascent() + a.paint.descent()) / 2;
+			canvas.drawText(a.name, x, y, a.paint);
+		}
+		canvas.drawText("x", toScreenX(playerPosition.x), toScreenY(playerPosition.y), playerPaint);
+	}
+
+	private void drawTiles(Canvas canvas) {
+		int level = 0;
+		while (level < WorldMapTilePyramid.NUM_LEVELS - 1 && zoom * (1 << level) < 0.7f) ++level;
+		final int levelScale = 1 << level;
+		final int tilePixels = WorldMapTilePyramid.TILE_SIZE * levelScale; // Size of a tile of this level in level 0 pixels.
+
+		final int left = (int) Math.floor(centerX - getWidth() / 2f / zoom);
+		final int top = (int) Math.floor(centerY - getHeight() / 2f / zoom);
+		final int right = (int) Math.ceil(centerX + getWidth() / 2f / zoom);
+		final int bottom = (int) Math.ceil(centerY + getHeight() / 2f / zoom);
+		final int minTX = WorldMapTilePyramid.floorDiv(left, tilePixels);
+		final int minTY = WorldMapTilePyramid.floorDiv(top, tilePixels);
+		final int maxTX = WorldMapTilePyramid.floorDiv(right, tilePixels);
+		final int maxTY = WorldMapTilePyramid.floorDiv(bottom, tilePixels);
+
+		for (int ty = minTY; ty <= maxTY; ++ty) {
+			for (int tx = minTX; tx <= maxTX; ++tx) {
+				final Bitmap tile = getTile(level, tx, ty);
+				if (tile == null) continue;
+				dest.set(
+					(int) toScreenX(tx * tilePixels)
+					,(int) toScreenY(ty * tilePixels)
+					,(int) Math.ceil(toScreenX((tx + 1) * tilePixels))
+					,(int) Math.ceil(toScreenY((ty + 1) * tilePixels))
+				);
+				canvas.drawBitmap(tile, null, dest, tilePaint);
+			}
+		}
+	}
+
+	// Returns null if the tile is not decoded yet, in which case it is decoded in the background.
+	private Bitmap getTile(int level, int tx, int ty) {
+		final String key = level + "/" + tx + "_" + ty;
+		final Bitmap result = tiles.get(key);
+		if (result != null) return result;
+		if (loadingTiles.contains(key)) return null;
+		if (missingTiles.contains(key)) return null;
+
+		final File file = pyramid.getTileFile(level, tx, ty);
+		loadingTiles.add(key);
+		final WorldMapTilePyramid loadingPyramid = pyramid;
+		(new AsyncTask<Void, Void, Bitmap>() {
+			@Override
+			protected Bitmap doInBackground(Void... arg0) {
+				if (!file.exists()) return null;
+				final Bitmap tile = BitmapFactory.decodeFile(file.getAbsolutePath());
+				if (tile != null) tile.setDensity(Bitmap.DENSITY_NONE);
+				return tile;
+			}
+
+			@Override
+			protected void onPostExecute(Bitmap tile) {
+				loadingTiles.remove(key);
+				if (tile == null) {
+					if (loadingPyramid == pyramid) missingTiles.add(key);
+					return;
+				}
+				if (loadingPyramid != pyramid) {
+					tile.recycle();
+					return;
+				}
+				tiles.put(key, tile);
+				invalidate();
+			}
+		}).execute();
+		return null;
+	}
+}
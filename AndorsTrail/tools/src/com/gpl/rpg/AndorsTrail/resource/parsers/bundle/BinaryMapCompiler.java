@@ -0,0 +1,352 @@
+package com.gpl.rpg.AndorsTrail.resource.parsers.bundle;
+
+import com.gpl.rpg.AndorsTrail.util.Base64;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.*;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+// Build-time tool that compiles the TMX maps in res/xml into the binary maps that are read by BinaryMapReader
+// when entering a map. Run by the compile-maps target in custom_rules.xml before every build.
+//
+// Does the same work as TMXMapFileParser.readLayerMap and TMXMapTranslator.transformMap, except for resolving
+// the tile ids, since those are assigned by the DynamicTileLoader at startup. Instead, every map gets a table of the
+// tiles that it uses, which is resolved to tile ids once when the map is read.
+public final class BinaryMapCompiler {
+	private static final int TILESIZE = 32;
+
+	private static final String LAYERNAME_GROUND = "ground";
+	private static final String LAYERNAME_OBJECTS = "objects";
+	private static final String LAYERNAME_ABOVE = "above";
+	private static final String LAYERNAME_WALKABLE = "walkable";
+
+	private final File projectDir;
+	private final Document loadResources;
+	private final DocumentBuilder documentBuilder;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2) {
+			System.err.println("Usage: BinaryMapCompiler <AndorsTrail project directory> <output directory>");
+			System.exit(1);
+		}
+		File projectDir = new File(args[0]);
+		File outputDir = new File(args[1]);
+		outputDir.mkdirs();
+		BinaryMapCompiler compiler = new BinaryMapCompiler(projectDir);
+		int appVersion = readAppVersion(projectDir);
+		for (String mapName : compiler.getResourceArray("loadresource_maps")) {
+			OutputStream os = new BufferedOutputStream(new FileOutputStream(new File(outputDir, mapName + BinaryMapFormat.FILE_EXTENSION)));
+			compiler.compile(mapName, new DataOutputStream(os), appVersion);
+			os.close();
+		}
+	}
+
+	private BinaryMapCompiler(File projectDir) throws Exception {
+		this.projectDir = projectDir;
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		// The TMX files reference the DTD on mapeditor.org, which should not need to be downloaded.
+		factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+		this.documentBuilder = factory.newDocumentBuilder();
+		this.loadResources = documentBuilder.parse(new File(projectDir, "res/values/loadresources.xml"));
+	}
+
+	private static int readAppVersion(File projectDir) throws Exception {
+		Document manifest = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new File(projectDir, "AndroidManifest.xml"));
+		return Integer.parseInt(manifest.getDocumentElement().getAttribute("android:versionCode"));
+	}
+
+	private ArrayList<String> getResourceArray(String arrayName) {
+		ArrayList<String> result = new ArrayList<String>();
+		NodeList arrays = loadResources.getElementsByTagName("array");
+		for (int i = 0; i < arrays.getLength(); ++i) {
+			Element array = (Element) arrays.item(i);
+			if (!arrayName.equals(array.getAttribute("name"))) continue;
+			NodeList items = array.getElementsByTagName("item");
+			for (int j = 0; j < items.getLength(); ++j) {
+				String s = items.item(j).getTextContent().trim();
+				result.add(s.substring(s.indexOf('/') + 1));
+			}
+		}
+		if (result.isEmpty()) throw new IllegalArgumentException("Cannot find resource array " + arrayName);
+		return result;
+	}
+
+	private static final class TileSet {
+		public int firstgid;
+		public String name;
+	}
+	private static final class Layer {
+		public int[][] gids;
+		public byte[] layoutHash;
+	}
+	private static final class Area {
+		public int x;
+		public int y;
+		public int width;
+		public int height;
+	}
+
+	// Everything needed from one TMX file while it is being compiled.
+	private static final class MapData {
+		public String name;
+		public int width;
+		public int height;
+		public int tilewidth;
+		public int tileheight;
+		public final ArrayList<TileSet> tileSets = new ArrayList<TileSet>();
+		public final HashMap<String, Layer> layersPerLayerName = new HashMap<String, Layer>();
+		public final ArrayList<Integer> tiles = new ArrayList<Integer>();
+		public final HashMap<Integer, Integer> tileIndices = new HashMap<Integer, Integer>();
+	}
+
+	private void compile(String mapName, DataOutputStream dest, int appVersion) throws Exception {
+		final Element root = documentBuilder.parse(new File(projectDir, "res/xml/" + mapName + ".tmx")).getDocumentElement();
+		final MapData map = new MapData();
+		map.name = mapName;
+		map.width = Integer.parseInt(root.getAttribute("width"));
+		map.height = Integer.parseInt(root.getAttribute("height"));
+		map.tilewidth = getIntAttribute(root, "tilewidth", TILESIZE);
+		map.tileheight = getIntAttribute(root, "tileheight", TILESIZE);
+		if (map.tilewidth != TILESIZE) warn("Map \"" + mapName + "\" has tilewidth=" + map.tilewidth + " . Expected " + TILESIZE);
+		if (map.tileheight != TILESIZE) warn("Map \"" + mapName + "\" has tileheight=" + map.tileheight + " . Expected " + TILESIZE);
+
+		String colorFilter = null;
+		for (Element prop : getChildElements(getFirstChildElement(root, "properties"), "property")) {
+			if (prop.getAttribute("name").equalsIgnoreCase("colorfilter")) colorFilter = prop.getAttribute("value");
+		}
+		for (Element e : getChildElements(root, "tileset")) {
+			TileSet ts = new TileSet();
+			ts.firstgid = getIntAttribute(e, "firstgid", 1);
+			ts.name = e.getAttribute("name");
+			map.tileSets.add(ts);
+		}
+		for (Element e : getChildElements(root, "layer")) {
+			String layerName = e.getAttribute("name").toLowerCase();
+			if (map.layersPerLayerName.containsKey(layerName)) {
+				warn("Map \"" + mapName + "\" contains multiple layers with name \"" + layerName + "\".");
+			}
+			map.layersPerLayerName.put(layerName, readLayer(getFirstChildElement(e, "data"), map.width, map.height, layerName));
+		}
+
+		// The sections are written to a separate buffer, since the table of used tiles is not complete until all sections are written.
+		ByteArrayOutputStream sectionBuffer = new ByteArrayOutputStream(16 * 1024);
+		DataOutputStream sections = new DataOutputStream(sectionBuffer);
+		final Area mapArea = new Area();
+		mapArea.width = map.width;
+		mapArea.height = map.height;
+		writeSection(map, mapArea, LAYERNAME_GROUND, LAYERNAME_OBJECTS, LAYERNAME_ABOVE, LAYERNAME_WALKABLE, sections);
+
+		ArrayList<Element> replacements = new ArrayList<Element>();
+		for (Element group : getChildElements(root, "objectgroup")) {
+			for (Element obj : getChildElements(group, "object")) {
+				if ("replace".equals(obj.getAttribute("type"))) replacements.add(obj);
+			}
+		}
+		sections.writeShort(replacements.size());
+		for (Element obj : replacements) {
+			String ground = null;
+			String objects = null;
+			String above = null;
+			String walkable = null;
+			for (Element prop : getChildElements(getFirstChildElement(obj, "properties"), "property")) {
+				final String name = prop.getAttribute("name");
+				final String value = prop.getAttribute("value");
+				if (name.equalsIgnoreCase(LAYERNAME_GROUND)) ground = value;
+				else if (name.equalsIgnoreCase(LAYERNAME_OBJECTS)) objects = value;
+				else if (name.equalsIgnoreCase(LAYERNAME_ABOVE)) above = value;
+				else if (name.equalsIgnoreCase(LAYERNAME_WALKABLE)) walkable = value;
+				else warn("Map " + mapName + " contains replace area with unknown property \"" + name + "\".");
+			}
+			final Area area = new Area();
+			area.x = Math.round(((float) getIntAttribute(obj, "x", -1)) / map.tilewidth);
+			area.y = Math.round(((float) getIntAttribute(obj, "y", -1)) / map.tileheight);
+			area.width = Math.round(((float) getIntAttribute(obj, "width", -1)) / map.tilewidth);
+			area.height = Math.round(((float) getIntAttribute(obj, "height", -1)) / map.tileheight);
+			sections.writeShort(area.x);
+			sections.writeShort(area.y);
+			sections.writeShort(area.width);
+			sections.writeShort(area.height);
+			writeNullableString(getAttribute(obj, "name"), sections);
+			writeNullableString(getAttribute((Element) obj.getParentNode(), "name"), sections);
+			writeSection(map, area, ground, objects, above, walkable, sections);
+		}
+		sections.flush();
+
+		dest.writeInt(BinaryMapFormat.MAGIC);
+		dest.writeInt(BinaryMapFormat.FORMAT_VERSION);
+		dest.writeInt(appVersion);
+		dest.writeShort(map.width);
+		dest.writeShort(map.height);
+		writeNullableString(colorFilter, dest);
+		dest.writeShort(map.tileSets.size());
+		for (TileSet ts : map.tileSets) dest.writeUTF(ts.name);
+		if (map.tiles.size() > 0xffff) throw new IOException("Map " + mapName + " uses too many different tiles.");
+		dest.writeShort(map.tiles.size());
+		for (int tile : map.tiles) {
+			dest.writeShort(tile >>> 16);
+			dest.writeShort(tile & 0xffff);
+		}
+		sectionBuffer.writeTo(dest);
+		dest.flush();
+	}
+
+	private void writeSection(MapData map, Area area, String ground, String objects, String above, String walkable, DataOutputStream dest) throws Exception {
+		final Layer layerGround = findLayer(map, ground);
+		final Layer layerObjects = findLayer(map, objects);
+		final Layer layerAbove = findLayer(map, above);
+		final Layer layerWalkable = findLayer(map, walkable);
+		int flags = 0;
+		if (layerGround != null) flags |= BinaryMapFormat.SECTIONFLAG_GROUND;
+		if (layerObjects != null) flags |= BinaryMapFormat.SECTIONFLAG_OBJECTS;
+		if (layerAbove != null) flags |= BinaryMapFormat.SECTIONFLAG_ABOVE;
+		if (layerWalkable != null) flags |= BinaryMapFormat.SECTIONFLAG_WALKABLE;
+		dest.writeByte(flags);
+
+		writeTileLayer(map, layerGround, area, dest);
+		writeTileLayer(map, layerObjects, area, dest);
+		writeTileLayer(map, layerAbove, area, dest);
+		writeWalkableLayer(layerWalkable, area, dest);
+
+		// Same as TMXMapTranslator.calculateLayoutHash
+		MessageDigest digest = MessageDigest.getInstance("MD5");
+		if (layerGround != null) digest.update(layerGround.layoutHash);
+		if (layerObjects != null) digest.update(layerObjects.layoutHash);
+		if (layerAbove != null) digest.update(layerAbove.layoutHash);
+		byte[] layoutHash = digest.digest();
+		dest.writeByte(layoutHash.length);
+		dest.write(layoutHash);
+	}
+
+	private void writeTileLayer(MapData map, Layer layer, Area area, DataOutputStream dest) throws IOException {
+		if (layer == null) return;
+		for (int dx = 0, sx = area.x; dx < area.width; ++dx, ++sx) {
+			for (int dy = 0, sy = area.y; dy < area.height; ++dy, ++sy) {
+				dest.writeShort(getTileIndex(map, layer.gids[sx][sy]));
+			}
+		}
+	}
+
+	private static void writeWalkableLayer(Layer layer, Area area, DataOutputStream dest) throws IOException {
+		if (layer == null) return;
+		int bits = 0;
+		int numBits = 0;
+		for (int dx = 0, sx = area.x; dx < area.width; ++dx, ++sx) {
+			for (int dy = 0, sy = area.y; dy < area.height; ++dy, ++sy) {
+				if (layer.gids[sx][sy] <= 0) bits |= (1 << numBits);
+				++numBits;
+				if (numBits == 8) {
+					dest.writeByte(bits);
+					bits = 0;
+					numBits = 0;
+				}
+			}
+		}
+		if (numBits > 0) dest.writeByte(bits);
+	}
+
+	// Returns 0 for no tile, otherwise 1 + the index into the table of tiles used by the map.
+	private static int getTileIndex(MapData map, int gid) {
+		if (gid <= 0) return 0;
+		for (int i = map.tileSets.size() - 1; i >= 0; --i) {
+			TileSet ts = map.tileSets.get(i);
+			if (ts.firstgid <= gid) {
+				final int tile = (i << 16) | (gid - ts.firstgid);
+				Integer index = map.tileIndices.get(tile);
+				if (index == null) {
+					index = map.tiles.size();
+					map.tiles.add(tile);
+					map.tileIndices.put(tile, index);
+				}
+				return index + 1;
+			}
+		}
+		warn("Cannot find tile for gid " + gid + " in map " + map.name);
+		return 0;
+	}
+
+	private static Layer findLayer(MapData map, String layerName) {
+		if (layerName == null) return null;
+		if (layerName.length() == 0) return null;
+		Layer result = map.layersPerLayerName.get(layerName.toLowerCase());
+		if (result == null) {
+			warn("Cannot find maplayer \"" + layerName + "\" requested by map \"" + map.name + "\".");
+		}
+		return result;
+	}
+
+	private static Layer readLayer(Element data, int width, int height, String layerName) throws Exception {
+		String compressionMethod = data.getAttribute("compression");
+		String s = data.getTextContent().replaceAll("\\s", "");
+		final int len = width * height * 4;
+
+		ByteArrayInputStream bi = new ByteArrayInputStream(Base64.decode(s));
+		InflaterInputStream zi;
+		if (compressionMethod.equalsIgnoreCase("zlib")) {
+			zi = new InflaterInputStream(bi);
+		} else if (compressionMethod.equalsIgnoreCase("gzip")) {
+			zi = new GZIPInputStream(bi, len);
+		} else {
+			throw new IOException("Unhandled compression method \"" + compressionMethod + "\" for map layer " + layerName);
+		}
+		byte[] buffer = new byte[len];
+		new DataInputStream(zi).readFully(buffer);
+		zi.close();
+
+		final Layer layer = new Layer();
+		layer.gids = new int[width][height];
+		int i = 0;
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x, i += 4) {
+				layer.gids[x][y] = (buffer[i] & 0xff)
+						| (buffer[i + 1] & 0xff) << 8
+						| (buffer[i + 2] & 0xff) << 16
+						| (buffer[i + 3] & 0xff) << 24;
+			}
+		}
+		layer.layoutHash = MessageDigest.getInstance("MD5").digest(buffer);
+		return layer;
+	}
+
+	private static void writeNullableString(String s, DataOutputStream dest) throws IOException {
+		dest.writeBoolean(s != null);
+		if (s != null) dest.writeUTF(s);
+	}
+
+	private static String getAttribute(Element e, String name) {
+		if (!e.hasAttribute(name)) return null;
+		return e.getAttribute(name);
+	}
+
+	private static int getIntAttribute(Element e, String name, int defaultValue) {
+		if (!e.hasAttribute(name)) return defaultValue;
+		return Integer.parseInt(e.getAttribute(name));
+	}
+
+	private static Element getFirstChildElement(Element parent, String tagName) {
+		ArrayList<Element> result = getChildElements(parent, tagName);
+		if (result.isEmpty()) return null;
+		return result.get(0);
+	}
+
+	private static ArrayList<Element> getChildElements(Element parent, String tagName) {
+		ArrayList<Element> result = new ArrayList<Element>();
+		if (parent == null) return result;
+		for (Node n = parent.getFirstChild(); n != null; n = n.getNextSibling()) {
+			if (n.getNodeType() == Node.ELEMENT_NODE && n.getNodeName().equals(tagName)) result.add((Element) n);
+		}
+		return result;
+	}
+
+	private static void warn(String message) {
+		System.err.println("WARNING: " + message);
+	}
+}
@@ -0,0 +1,277 @@
+package com.gpl.rpg.AndorsTrail.resource.parsers.bundle;
+
+import com.gpl.rpg.AndorsTrail.resource.parsers.json.JsonFieldNames;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+// Build-time tool that compiles the JSON game data in res/raw into the binary bundle that is read by
+// GameDataBundleReader at startup. Run by the compile-game-data target in custom_rules.xml before every build.
+//
+// The compiler only extracts the values from the JSON files. All interpretation of the values
+// (translation, tile ids, lookups of other objects) is done by GameDataBundleReader, just like the json parsers do.
+public final class GameDataBundleCompiler {
+	private final File projectDir;
+	private final Document loadResources;
+	private final GameDataBundleFormat.Writer dest = new GameDataBundleFormat.Writer();
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2) {
+			System.err.println("Usage: GameDataBundleCompiler <AndorsTrail project directory> <output file>");
+			System.exit(1);
+		}
+		File projectDir = new File(args[0]);
+		GameDataBundleCompiler compiler = new GameDataBundleCompiler(projectDir);
+		compiler.compile();
+
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(args[1]));
+		compiler.dest.writeTo(os, readAppVersion(projectDir));
+		os.close();
+	}
+
+	private GameDataBundleCompiler(File projectDir) throws Exception {
+		this.projectDir = projectDir;
+		this.loadResources = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new File(projectDir, "res/values/loadresources.xml"));
+	}
+
+	private static int readAppVersion(File projectDir) throws Exception {
+		Document manifest = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new File(projectDir, "AndroidManifest.xml"));
+		return Integer.parseInt(manifest.getDocumentElement().getAttribute("android:versionCode"));
+	}
+
+	private void compile() throws Exception {
+		// Sections must be written in the same order as ResourceLoader reads them.
+		writeSection(GameDataBundleFormat.SECTION_ACTORCONDITIONS, "loadresource_actorconditions");
+		writeSection(GameDataBundleFormat.SECTION_ITEMS, "loadresource_items");
+		writeSection(GameDataBundleFormat.SECTION_DROPLISTS, "loadresource_droplists");
+		writeSection(GameDataBundleFormat.SECTION_QUESTS, "loadresource_quests");
+		writeSection(GameDataBundleFormat.SECTION_MONSTERS, "loadresource_monsters");
+	}
+
+	private void writeSection(int section, String arrayName) throws Exception {
+		ArrayList<JSONObject> objects = new ArrayList<JSONObject>();
+		HashSet<String> ids = new HashSet<String>();
+		for (String rawName : getResourceArray(arrayName)) {
+			JSONArray array = new JSONArray(readFile(new File(projectDir, "res/raw/" + rawName + ".json")));
+			for (int i = 0; i < array.length(); ++i) {
+				JSONObject o = array.getJSONObject(i);
+				String id = o.getString("id");
+				if (!ids.add(id)) System.err.println("WARNING: Entity " + id + " in " + rawName + " is duplicated.");
+				objects.add(o);
+			}
+		}
+
+		dest.writeSectionHeader(section, objects.size());
+		for (JSONObject o : objects) {
+			switch (section) {
+			case GameDataBundleFormat.SECTION_ACTORCONDITIONS: writeActorConditionType(o); break;
+			case GameDataBundleFormat.SECTION_ITEMS: writeItemType(o); break;
+			case GameDataBundleFormat.SECTION_DROPLISTS: writeDropList(o); break;
+			case GameDataBundleFormat.SECTION_QUESTS: writeQuest(o); break;
+			case GameDataBundleFormat.SECTION_MONSTERS: writeMonsterType(o); break;
+			}
+		}
+		System.out.println(arrayName + ": " + objects.size() + " entities.");
+	}
+
+	private ArrayList<String> getResourceArray(String arrayName) {
+		ArrayList<String> result = new ArrayList<String>();
+		NodeList arrays = loadResources.getElementsByTagName("array");
+		for (int i = 0; i < arrays.getLength(); ++i) {
+			Element array = (Element) arrays.item(i);
+			if (!arrayName.equals(array.getAttribute("name"))) continue;
+			NodeList items = array.getElementsByTagName("item");
+			for (int j = 0; j < items.getLength(); ++j) {
+				String s = items.item(j).getTextContent().trim();
+				result.add(s.substring(s.indexOf('/') + 1));
+			}
+		}
+		if (result.isEmpty()) throw new IllegalArgumentException("Cannot find resource array " + arrayName);
+		return result;
+	}
+
+	private static String readFile(File f) throws IOException {
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+		StringBuilder sb = new StringBuilder(1000);
+		String line;
+		while ((line = br.readLine()) != null) sb.append(line);
+		br.close();
+		return sb.toString();
+	}
+
+	private void writeActorConditionType(JSONObject o) throws JSONException, IOException {
+		dest.writeString(o.getString(JsonFieldNames.ActorCondition.conditionTypeID));
+		dest.writeString(o.getString(JsonFieldNames.ActorCondition.name));
+		writeImageID(o.getString(JsonFieldNames.ActorCondition.iconID));
+		dest.writeString(o.getString(JsonFieldNames.ActorCondition.category));
+		dest.writeBoolean(o.optInt(JsonFieldNames.ActorCondition.isStacking) > 0);
+		dest.writeBoolean(o.optInt(JsonFieldNames.ActorCondition.isPositive) > 0);
+		writeStatsModifierTraits(o.optJSONObject(JsonFieldNames.ActorCondition.roundEffect));
+		writeStatsModifierTraits(o.optJSONObject(JsonFieldNames.ActorCondition.fullRoundEffect));
+		writeAbilityModifierTraits(o.optJSONObject(JsonFieldNames.ActorCondition.abilityEffect));
+	}
+
+	private void writeItemType(JSONObject o) throws JSONException, IOException {
+		dest.writeString(o.getString(JsonFieldNames.ItemType.itemTypeID));
+		writeImageID(o.getString(JsonFieldNames.ItemType.iconID));
+		dest.writeString(o.getString(JsonFieldNames.ItemType.name));
+		dest.writeString(o.optString(JsonFieldNames.ItemType.description, null));
+		dest.writeString(o.getString(JsonFieldNames.ItemType.category));
+		dest.writeString(o.optString(JsonFieldNames.ItemType.displaytype, null));
+		dest.writeBoolean(o.optInt(JsonFieldNames.ItemType.hasManualPrice, 0) > 0);
+		dest.writeInt(o.optInt(JsonFieldNames.ItemType.baseMarketCost));
+		writeItemTraits_OnEquip(o.optJSONObject(JsonFieldNames.ItemType.equipEffect));
+		writeItemTraits_OnUse(o.optJSONObject(JsonFieldNames.ItemType.useEffect));
+		writeItemTraits_OnUse(o.optJSONObject(JsonFieldNames.ItemType.hitEffect));
+		writeItemTraits_OnUse(o.optJSONObject(JsonFieldNames.ItemType.killEffect));
+	}
+
+	private void writeDropList(JSONObject o) throws JSONException, IOException {
+		dest.writeString(o.getString(JsonFieldNames.DropList.dropListID));
+		JSONArray items = o.getJSONArray(JsonFieldNames.DropList.items);
+		dest.writeInt(items.length());
+		for (int i = 0; i < items.length(); ++i) {
+			JSONObject item = items.getJSONObject(i);
+			dest.writeString(item.getString(JsonFieldNames.DropItem.itemID));
+			// Usually a number, such as 100, but may also be a fraction, such as "1/1000".
+			dest.writeString(item.get(JsonFieldNames.DropItem.chance).toString());
+			JSONObject quantity = item.getJSONObject(JsonFieldNames.DropItem.quantity);
+			dest.writeInt(quantity.getInt(JsonFieldNames.Range.min));
+			dest.writeInt(quantity.getInt(JsonFieldNames.Range.max));
+		}
+	}
+
+	private void writeQuest(JSONObject o) throws JSONException, IOException {
+		dest.writeString(o.getString(JsonFieldNames.Quest.questID));
+		dest.writeString(o.getString(JsonFieldNames.Quest.name));
+		dest.writeBoolean(o.optInt(JsonFieldNames.Quest.showInLog, 0) > 0);
+		JSONArray stages = o.getJSONArray(JsonFieldNames.Quest.stages);
+		dest.writeInt(stages.length());
+		for (int i = 0; i < stages.length(); ++i) {
+			JSONObject stage = stages.getJSONObject(i);
+			dest.writeInt(stage.getInt(JsonFieldNames.QuestLogEntry.progress));
+			dest.writeString(stage.optString(JsonFieldNames.QuestLogEntry.logText, null));
+			dest.writeInt(stage.optInt(JsonFieldNames.QuestLogEntry.rewardExperience, 0));
+			dest.writeBoolean(stage.optInt(JsonFieldNames.QuestLogEntry.finishesQuest, 0) > 0);
+		}
+	}
+
+	private void writeMonsterType(JSONObject o) throws JSONException, IOException {
+		dest.writeString(o.getString(JsonFieldNames.Monster.monsterTypeID));
+		dest.writeString(o.getString(JsonFieldNames.Monster.name));
+		dest.writeString(o.optString(JsonFieldNames.Monster.spawnGroup, null));
+		writeImageID(o.getString(JsonFieldNames.Monster.iconID));
+		dest.writeString(o.optString(JsonFieldNames.Monster.size, null));
+		dest.writeString(o.optString(JsonFieldNames.Monster.monsterClass, null));
+		dest.writeString(o.optString(JsonFieldNames.Monster.movementAggressionType, null));
+		dest.writeBoolean(o.optInt(JsonFieldNames.Monster.unique, 0) > 0);
+		dest.writeString(o.optString(JsonFieldNames.Monster.faction, null));
+		dest.writeInt(o.optInt(JsonFieldNames.Monster.maxHP, 1));
+		dest.writeInt(o.optInt(JsonFieldNames.Monster.maxAP, 10));
+		dest.writeInt(o.optInt(JsonFieldNames.Monster.moveCost, 10));
+		dest.writeInt(o.optInt(JsonFieldNames.Monster.attackCost, 10));
+		dest.writeInt(o.optInt(JsonFieldNames.Monster.attackChance, 0));
+		dest.writeInt(o.optInt(JsonFieldNames.Monster.criticalSkill, 0));
+		dest.writeFloat((float) o.optDouble(JsonFieldNames.Monster.criticalMultiplier, 0));
+		writeConstRange(o.optJSONObject(JsonFieldNames.Monster.attackDamage));
+		dest.writeInt(o.optInt(JsonFieldNames.Monster.blockChance, 0));
+		dest.writeInt(o.optInt(JsonFieldNames.Monster.damageResistance, 0));
+		dest.writeString(o.optString(JsonFieldNames.Monster.droplistID, null));
+		dest.writeString(o.optString(JsonFieldNames.Monster.phraseID, null));
+		writeItemTraits_OnUse(o.optJSONObject(JsonFieldNames.Monster.hitEffect));
+	}
+
+	private void writeImageID(String s) throws IOException {
+		String[] parts = s.split(":");
+		dest.writeString(parts[0]);
+		dest.writeInt(Integer.parseInt(parts[1]));
+	}
+
+	private void writeConstRange(JSONObject o) throws JSONException, IOException {
+		dest.writeBoolean(o != null);
+		if (o == null) return;
+		dest.writeInt(o.getInt(JsonFieldNames.Range.max));
+		dest.writeInt(o.optInt(JsonFieldNames.Range.min));
+	}
+
+	private void writeStatsModifierTraits(JSONObject o) throws JSONException, IOException {
+		JSONObject currentHP = o == null ? null : o.optJSONObject(JsonFieldNames.StatsModifierTraits.increaseCurrentHP);
+		JSONObject currentAP = o == null ? null : o.optJSONObject(JsonFieldNames.StatsModifierTraits.increaseCurrentAP);
+		boolean hasEffect = currentHP != null || currentAP != null;
+		dest.writeBoolean(hasEffect);
+		if (!hasEffect) return;
+		dest.writeString(o.optString(JsonFieldNames.StatsModifierTraits.visualEffectID, null));
+		writeConstRange(currentHP);
+		writeConstRange(currentAP);
+	}
+
+	private void writeAbilityModifierTraits(JSONObject o) throws JSONException, IOException {
+		dest.writeBoolean(o != null);
+		if (o == null) return;
+		dest.writeInt(o.optInt(JsonFieldNames.AbilityModifierTraits.increaseMaxHP, 0));
+		dest.writeInt(o.optInt(JsonFieldNames.AbilityModifierTraits.increaseMaxAP, 0));
+		dest.writeInt(o.optInt(JsonFieldNames.AbilityModifierTraits.increaseMoveCost, 0));
+		dest.writeInt(o.optInt(JsonFieldNames.AbilityModifierTraits.increaseUseItemCost, 0));
+		dest.writeInt(o.optInt(JsonFieldNames.AbilityModifierTraits.increaseReequipCost, 0));
+		dest.writeInt(o.optInt(JsonFieldNames.AbilityModifierTraits.increaseAttackCost, 0));
+		dest.writeInt(o.optInt(JsonFieldNames.AbilityModifierTraits.increaseAttackChance, 0));
+		dest.writeInt(o.optInt(JsonFieldNames.AbilityModifierTraits.increaseBlockChance, 0));
+		writeConstRange(o.optJSONObject(JsonFieldNames.AbilityModifierTraits.increaseAttackDamage));
+		dest.writeInt(o.optInt(JsonFieldNames.AbilityModifierTraits.increaseCriticalSkill, 0));
+		dest.writeFloat((float) o.optDouble(JsonFieldNames.AbilityModifierTraits.setCriticalMultiplier, 0));
+		dest.writeInt(o.optInt(JsonFieldNames.AbilityModifierTraits.increaseDamageResistance, 0));
+	}
+
+	private void writeItemTraits_OnEquip(JSONObject o) throws JSONException, IOException {
+		dest.writeBoolean(o != null);
+		if (o == null) return;
+		writeAbilityModifierTraits(o);
+		writeActorConditionEffects(o.optJSONArray(JsonFieldNames.ItemTraits_OnEquip.addedConditions));
+	}
+
+	private void writeItemTraits_OnUse(JSONObject o) throws JSONException, IOException {
+		JSONObject currentHP = o == null ? null : o.optJSONObject(JsonFieldNames.ItemTraits_OnUse.increaseCurrentHP);
+		JSONObject currentAP = o == null ? null : o.optJSONObject(JsonFieldNames.ItemTraits_OnUse.increaseCurrentAP);
+		JSONArray conditionsSource = o == null ? null : o.optJSONArray(JsonFieldNames.ItemTraits_OnUse.conditionsSource);
+		JSONArray conditionsTarget = o == null ? null : o.optJSONArray(JsonFieldNames.ItemTraits_OnUse.conditionsTarget);
+		boolean hasEffect = currentHP != null
+				|| currentAP != null
+				|| (conditionsSource != null && conditionsSource.length() > 0)
+				|| (conditionsTarget != null && conditionsTarget.length() > 0);
+		dest.writeBoolean(hasEffect);
+		if (!hasEffect) return;
+		writeConstRange(currentHP);
+		writeConstRange(currentAP);
+		writeActorConditionEffects(conditionsSource);
+		writeActorConditionEffects(conditionsTarget);
+	}
+
+	private void writeActorConditionEffects(JSONArray array) throws JSONException, IOException {
+		if (array == null) {
+			dest.writeInt(0);
+			return;
+		}
+		dest.writeInt(array.length());
+		for (int i = 0; i < array.length(); ++i) {
+			JSONObject o = array.getJSONObject(i);
+			dest.writeString(o.getString(JsonFieldNames.ActorConditionEffect.condition));
+			writeOptionalInt(o, JsonFieldNames.ActorConditionEffect.magnitude);
+			writeOptionalInt(o, JsonFieldNames.ActorConditionEffect.duration);
+			dest.writeString(o.optString(JsonFieldNames.ActorConditionEffect.chance, null)); // Only required for effects with duration.
+		}
+	}
+
+	private void writeOptionalInt(JSONObject o, String key) throws IOException {
+		boolean has = o.has(key);
+		dest.writeBoolean(has);
+		if (has) dest.writeInt(o.optInt(key));
+	}
+}